@@ -27,25 +27,48 @@
 
 package net.imglib2.algorithm.fft;
 
+import java.util.Vector;
+
 import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
 import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.type.numeric.NumericType;
-import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
 /**
- * TODO
+ * Applies a band-pass (or band-stop) filter to a spectrum whose quadrants are
+ * rearranged (see {@link FFTFunctions#rearrangeFFTQuadrants} and
+ * {@link FFTFunctions#centeredView}), i.e. the zero frequency is located at
+ * the origin. Every value is multiplied by the weight of the {@link Profile} for
+ * its distance to the origin, which is an ideal (hard) cutoff by default. The
+ * squared distances are computed from one table per axis, so no square root is
+ * needed.
+ * 
+ * A low-pass is a band-pass with beginRadius 0, a high-pass one with an
+ * endRadius larger than the spectrum.
  * 
  * @deprecated use {@link net.imglib2.algorithm.fft2.FFT} instead
  */
 @Deprecated
-public class Bandpass< T extends NumericType< T >> implements OutputAlgorithm< RandomAccessibleInterval< T >>, Benchmark
+public class Bandpass< T extends NumericType< T >> implements OutputAlgorithm< RandomAccessibleInterval< T >>, MultiThreaded, Benchmark
 {
+	/**
+	 * The shape of the transition between passed and blocked frequencies. The
+	 * IDEAL filter cuts off sharply and causes ringing, the GAUSSIAN and
+	 * BUTTERWORTH filters fall off smoothly, where beginRadius and endRadius are
+	 * the frequencies of half (BUTTERWORTH) or exp(-1/2) (GAUSSIAN) attenuation.
+	 */
+	public static enum Profile { IDEAL, GAUSSIAN, BUTTERWORTH }
+
 	String errorMessage = "";
 
 	boolean inPlace, bandPass;
@@ -58,24 +81,29 @@ public class Bandpass< T extends NumericType< T >> implements OutputAlgorithm< R
 
 	int beginRadius, endRadius;
 
+	Profile profile = Profile.IDEAL;
+
+	int butterworthOrder = 2;
+
 	long processingTime;
 
+	int numThreads;
+
 	long[] origin;
 
 	public Bandpass( final RandomAccessibleInterval< T > input, final int beginRadius, final int endRadius, ImgFactory<T> imgFactory )
 	{
 		this.input = input;
+		this.imgFactory = imgFactory;
 
 		this.inPlace = false;
 		this.bandPass = true;
 		this.beginRadius = beginRadius;
 		this.endRadius = endRadius;
 
-		this.origin = new long[ input.numDimensions() ];
+		this.origin = defaultOrigin( input );
 
-		this.origin[ 0 ] = input.dimension( 0 ) - 1;
-		for ( int d = 1; d < this.origin.length; ++d )
-			origin[ d ] = input.dimension( d ) / 2;
+		setNumThreads();
 	}
 	
 	public Bandpass( final Img< T > img, final int beginRadius, final int endRadius )
@@ -83,9 +111,42 @@ public class Bandpass< T extends NumericType< T >> implements OutputAlgorithm< R
 		this( img, beginRadius, endRadius, img.factory());
 	}
 
+	/**
+	 * Creates a filter that is not bound to an image, it can only be used to
+	 * compute weights, e.g. by {@link FourierConvolution#setFrequencyFilter(Bandpass)}.
+	 * {@link #process()} requires an image set by
+	 * {@link #setImage(RandomAccessibleInterval)} and in-place processing.
+	 */
+	public Bandpass( final int beginRadius, final int endRadius, final Profile profile )
+	{
+		this.bandPass = true;
+		this.beginRadius = beginRadius;
+		this.endRadius = endRadius;
+		this.profile = profile;
+
+		setNumThreads();
+	}
+
 	public void setImage( final RandomAccessibleInterval< T > img )
 	{
 		this.input = img;
+
+		if ( origin == null && img != null )
+			origin = defaultOrigin( img );
+	}
+
+	/**
+	 * @return - the zero frequency of a spectrum whose quadrants are rearranged
+	 */
+	protected static long[] defaultOrigin( final Dimensions spectrum )
+	{
+		final long[] origin = new long[ spectrum.numDimensions() ];
+
+		origin[ 0 ] = spectrum.dimension( 0 ) - 1;
+		for ( int d = 1; d < origin.length; ++d )
+			origin[ d ] = spectrum.dimension( d ) / 2;
+
+		return origin;
 	}
 
 	public void setInPlace( final boolean inPlace )
@@ -109,6 +170,19 @@ public class Bandpass< T extends NumericType< T >> implements OutputAlgorithm< R
 		this.endRadius = endRadius;
 	}
 
+	public void setProfile( final Profile profile )
+	{
+		this.profile = profile;
+	}
+
+	/**
+	 * @param order - the order of the {@link Profile#BUTTERWORTH} filter, the higher the steeper (default 2)
+	 */
+	public void setButterworthOrder( final int order )
+	{
+		this.butterworthOrder = order;
+	}
+
 	public RandomAccessibleInterval< T > getInput()
 	{
 		return input;
@@ -134,9 +208,112 @@ public class Bandpass< T extends NumericType< T >> implements OutputAlgorithm< R
 		return origin;
 	}
 
+	public Profile getProfile()
+	{
+		return profile;
+	}
+
+	public int getButterworthOrder()
+	{
+		return butterworthOrder;
+	}
+
+	/**
+	 * @param squaredDistance - the squared distance of a frequency to the origin
+	 * @return - the factor the frequency is multiplied with
+	 */
+	public double weight( final double squaredDistance )
+	{
+		final double w;
+
+		if ( profile == Profile.IDEAL )
+			w = ( squaredDistance < ( double ) beginRadius * beginRadius || squaredDistance > ( double ) endRadius * endRadius ) ? 0 : 1;
+		else
+			w = lowPass( squaredDistance, endRadius ) * ( 1 - lowPass( squaredDistance, beginRadius ) );
+
+		return bandPass ? w : 1 - w;
+	}
+
+	/**
+	 * @return - the weight of a low-pass with cutoff radius for squaredDistance, 0 if radius &lt;= 0
+	 */
+	protected double lowPass( final double squaredDistance, final double radius )
+	{
+		if ( radius <= 0 )
+			return 0;
+
+		final double r2 = squaredDistance / ( radius * radius );
+
+		if ( profile == Profile.GAUSSIAN )
+			return Math.exp( -0.5 * r2 );
+		else
+			return 1.0 / ( 1.0 + Math.pow( r2, butterworthOrder ) );
+	}
+
+	/**
+	 * Computes for each dimension the squared distance of every position to
+	 * the origin, so that the squared distance of a pixel is the sum of one
+	 * entry per dimension.
+	 * 
+	 * @param min - the position of the first entry of each table
+	 * @param dimensions - the size of each table
+	 * @param origin - the origin
+	 * @return - one table per dimension
+	 */
+	public static double[][] squaredDistanceTables( final long[] min, final Dimensions dimensions, final long[] origin )
+	{
+		final double[][] tables = new double[ dimensions.numDimensions() ][];
+
+		for ( int d = 0; d < tables.length; ++d )
+		{
+			tables[ d ] = new double[ ( int ) dimensions.dimension( d ) ];
+
+			for ( int i = 0; i < tables[ d ].length; ++i )
+			{
+				final double dist = min[ d ] + i - origin[ d ];
+				tables[ d ][ i ] = dist * dist;
+			}
+		}
+
+		return tables;
+	}
+
+	/**
+	 * Computes the squared distance tables (see
+	 * {@link #squaredDistanceTables(long[], Dimensions, long[])}) of the
+	 * frequencies of a spectrum as computed by {@link FFTFunctions#computeFFT},
+	 * whose quadrants are NOT rearranged. The distances are the same as for
+	 * the rearranged spectrum and the default origin.
+	 * 
+	 * @param spectrum - the size of the spectrum
+	 * @return - one table per dimension
+	 */
+	public static double[][] unshiftedSquaredDistanceTables( final Dimensions spectrum )
+	{
+		final double[][] tables = new double[ spectrum.numDimensions() ][];
+
+		for ( int d = 0; d < tables.length; ++d )
+		{
+			final int size = ( int ) spectrum.dimension( d );
+			tables[ d ] = new double[ size ];
+
+			for ( int i = 0; i < size; ++i )
+			{
+				// dimension 0 only contains the positive frequencies
+				final double dist = d == 0 ? i : Math.min( i, size - i );
+				tables[ d ][ i ] = dist * dist;
+			}
+		}
+
+		return tables;
+	}
+
 	@Override
 	public boolean process()
 	{
+		if ( !checkInput() )
+			return false;
+
 		final long startTime = System.currentTimeMillis();
 		final IterableInterval< T > iterableInput;
 
@@ -150,30 +327,66 @@ public class Bandpass< T extends NumericType< T >> implements OutputAlgorithm< R
 			iterableInput = this.output;
 		}
 
-		final Cursor< T > cursor = iterableInput.cursor();
-		final long[] pos = new long[ iterableInput.numDimensions() ];
+		final int numDimensions = iterableInput.numDimensions();
+		final long[] min = new long[ numDimensions ];
+		iterableInput.min( min );
 
-		final boolean actAsBandPass = bandPass;
+		// the output is zero-min, the origin refers to the coordinates of the input
+		final long[] inputMin = new long[ numDimensions ];
+		input.min( inputMin );
 
-		while ( cursor.hasNext() )
-		{
-			cursor.fwd();
-			cursor.localize( pos );
+		final double[][] tables = squaredDistanceTables( inPlace ? min : inputMin, iterableInput, origin );
 
-			final double dist = Util.distance( origin, pos );
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( iterableInput.size(), numThreads );
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 
-			if ( actAsBandPass )
-			{
-				if ( dist < beginRadius || dist > endRadius )
-					cursor.get().setZero();
-			}
-			else
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+		{
+			final Chunk chunk = chunks.get( ithread );
+
+			threads[ ithread ] = new Thread( new Runnable()
 			{
-				if ( dist >= beginRadius && dist <= endRadius )
-					cursor.get().setZero();
-			}
+				@Override
+				public void run()
+				{
+					final Cursor< T > cursor = iterableInput.localizingCursor();
+					final RandomAccess< T > in = inPlace ? null : input.randomAccess();
+					final long[] pos = new long[ numDimensions ];
+
+					cursor.jumpFwd( chunk.getStartPosition() );
+
+					for ( long j = 0; j < chunk.getLoopSize(); ++j )
+					{
+						cursor.fwd();
+						cursor.localize( pos );
+
+						if ( !inPlace )
+						{
+							for ( int d = 0; d < numDimensions; ++d )
+								pos[ d ] += inputMin[ d ];
+
+							in.setPosition( pos );
+							cursor.get().set( in.get() );
+						}
+
+						double squaredDistance = 0;
+
+						for ( int d = 0; d < numDimensions; ++d )
+							squaredDistance += tables[ d ][ ( int ) ( cursor.getLongPosition( d ) - min[ d ] ) ];
+
+						final double weight = weight( squaredDistance );
+
+						if ( weight == 0 )
+							cursor.get().setZero();
+						else if ( weight != 1 )
+							cursor.get().mul( weight );
+					}
+				}
+			} );
 		}
 
+		SimpleMultiThreading.startAndJoin( threads );
+
 		processingTime = System.currentTimeMillis() - startTime;
 
 		// finished applying bandpass
@@ -194,9 +407,46 @@ public class Bandpass< T extends NumericType< T >> implements OutputAlgorithm< R
 		return processingTime;
 	}
 
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	@Override
 	public boolean checkInput()
 	{
+		if ( input == null )
+		{
+			errorMessage = "Input image is null, this filter can only compute weights";
+			return false;
+		}
+
+		if ( origin == null || origin.length != input.numDimensions() )
+		{
+			errorMessage = "The origin does not match the dimensionality of the input image";
+			return false;
+		}
+
+		if ( !inPlace && imgFactory == null )
+		{
+			errorMessage = "No ImgFactory to create the output, the filter can only be applied in place";
+			return false;
+		}
+
+		errorMessage = "";
 		return true;
 	}
 
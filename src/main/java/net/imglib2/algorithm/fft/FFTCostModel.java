@@ -0,0 +1,232 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+import java.util.HashMap;
+
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+import net.imglib2.algorithm.fft2.FFTSizePlanner;
+
+/**
+ * Chooses the padded size of a multi-dimensional FFT for
+ * {@link FourierTransform.FFTOptimization#AUTO}. For every dimension either the
+ * size of {@link FftReal#nfftSmall(int)} / {@link FftComplex#nfftSmall(int)}
+ * or of nfftFast is used, all combinations are compared by their estimated
+ * cost and the cheapest one whose spectrum fits into the memory budget wins
+ * (the smallest one if none fits).
+ * 
+ * The cost of a one-dimensional transform is estimated from the prime
+ * factorization of its size, using the operation count of the small-n
+ * modules of the prime factor algorithm per sample and factor. If an
+ * {@link FFTSizePlanner} is given, the transforms are timed on this machine
+ * instead, every size is measured only once per model.
+ */
+public class FFTCostModel
+{
+	// the factors supported by the prime factor algorithm of the FFT, in the order they are taken off
+	final static int[] factors = new int[] { 16, 13, 11, 9, 8, 7, 5, 4, 3, 2 };
+
+	// the approximate number of real operations per complex sample of the module of each factor
+	final static double[] operationsPerSample = new double[] { 10.25, 17.5, 18.9, 12.0, 7.0, 12.6, 8.8, 4.0, 5.3, 2.0 };
+
+	final FFTSizePlanner timer;
+
+	final HashMap< String, Double > timings = new HashMap< String, Double >();
+
+	/**
+	 * A cost model that estimates the cost from the factorization only.
+	 */
+	public FFTCostModel()
+	{
+		this( null );
+	}
+
+	/**
+	 * @param timer
+	 *            - measures the transforms (see
+	 *            {@link FFTSizePlanner#time(boolean, int)}), null to estimate
+	 *            them from the factorization
+	 */
+	public FFTCostModel( final FFTSizePlanner timer )
+	{
+		this.timer = timer;
+	}
+
+	/**
+	 * @param real
+	 *            - real-to-complex (dimension 0) or complex-to-complex
+	 * @param n
+	 *            - a size supported by the FFT
+	 * @return - the relative cost of one transform of size n
+	 */
+	public double cost( final boolean real, final int n )
+	{
+		if ( timer == null )
+			return estimatedCost( real, n );
+
+		final String key = ( real ? "real:" : "complex:" ) + n;
+
+		synchronized ( timings )
+		{
+			Double time = timings.get( key );
+
+			if ( time == null )
+			{
+				time = timer.time( real, n );
+				timings.put( key, time );
+			}
+
+			return time;
+		}
+	}
+
+	/**
+	 * @return - the number of operations of one transform of size n,
+	 *         estimated from its factorization
+	 */
+	public static double estimatedCost( final boolean real, final int n )
+	{
+		// a real transform is computed by a complex transform of half the size and a final pass
+		if ( real )
+			return estimatedCost( false, n / 2 ) + 3.0 * n;
+
+		double operations = 0;
+		int remainder = n;
+
+		for ( int i = 0; i < factors.length; ++i )
+		{
+			if ( remainder % factors[ i ] == 0 )
+			{
+				remainder /= factors[ i ];
+				operations += operationsPerSample[ i ];
+			}
+		}
+
+		return n * operations;
+	}
+
+	/**
+	 * @param minSize
+	 *            - the minimal size in each dimension (dimension 0 is real)
+	 * @param memoryBudget
+	 *            - the maximal size of the complex float spectrum in bytes
+	 * @return - the padded size in each dimension
+	 */
+	public int[] paddedSize( final int[] minSize, final long memoryBudget )
+	{
+		final int numDimensions = minSize.length;
+		final int[][] candidates = new int[ numDimensions ][];
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final int small = d == 0 ? FftReal.nfftSmall( minSize[ d ] ) : FftComplex.nfftSmall( minSize[ d ] );
+			final int fast = d == 0 ? FftReal.nfftFast( minSize[ d ] ) : FftComplex.nfftFast( minSize[ d ] );
+
+			candidates[ d ] = small == fast ? new int[] { small } : new int[] { small, fast };
+		}
+
+		final int[] size = new int[ numDimensions ];
+		final int[] best = new int[ numDimensions ];
+		final int[] smallest = new int[ numDimensions ];
+
+		double bestCost = Double.MAX_VALUE;
+		long smallestMemory = Long.MAX_VALUE;
+
+		// enumerate all combinations, there are at most 2^numDimensions
+		final int[] choice = new int[ numDimensions ];
+
+		while ( true )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				size[ d ] = candidates[ d ][ choice[ d ] ];
+
+			final long memory = memory( size );
+
+			if ( memory < smallestMemory )
+			{
+				smallestMemory = memory;
+				System.arraycopy( size, 0, smallest, 0, numDimensions );
+			}
+
+			if ( memory <= memoryBudget )
+			{
+				final double cost = cost( size );
+
+				if ( cost < bestCost )
+				{
+					bestCost = cost;
+					System.arraycopy( size, 0, best, 0, numDimensions );
+				}
+			}
+
+			int d = 0;
+			while ( d < numDimensions && ++choice[ d ] == candidates[ d ].length )
+				choice[ d++ ] = 0;
+
+			if ( d == numDimensions )
+				break;
+		}
+
+		return bestCost == Double.MAX_VALUE ? smallest : best;
+	}
+
+	/**
+	 * @return - the estimated cost of the forward transform of an image of
+	 *         the given (padded) size
+	 */
+	public double cost( final int[] size )
+	{
+		// the number of lines in dimension 0 and the number of complex samples
+		double lines = 1;
+		for ( int d = 1; d < size.length; ++d )
+			lines *= size[ d ];
+
+		final double numSamples = lines * ( size[ 0 ] / 2 + 1 );
+
+		double cost = lines * cost( true, size[ 0 ] );
+
+		for ( int d = 1; d < size.length; ++d )
+			cost += numSamples / size[ d ] * cost( false, size[ d ] );
+
+		return cost;
+	}
+
+	/**
+	 * @return - the size of the complex float spectrum in bytes
+	 */
+	public static long memory( final int[] size )
+	{
+		long memory = ( size[ 0 ] / 2 + 1 ) * 8L;
+
+		for ( int d = 1; d < size.length; ++d )
+			memory *= size[ d ];
+
+		return memory;
+	}
+}
@@ -30,19 +30,28 @@ package net.imglib2.algorithm.fft;
 import edu.mines.jtk.dsp.FftComplex;
 import edu.mines.jtk.dsp.FftReal;
 
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.imglib2.Dimensions;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.planar.PlanarImg;
 import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
 import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.outofbounds.OutOfBoundsFactory;
 import net.imglib2.type.Type;
 import net.imglib2.type.numeric.ComplexType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
@@ -65,6 +74,23 @@ final public class FFTFunctions
 						                   final boolean scale, final boolean cropBack,
 						                   final int[] originalSize, final int[] originalOffset,
 						                   final float additionalNormalization )
+	{
+		return computeInverseFFT( complex, imgFactory, type, numThreads, scale, cropBack, originalSize, originalOffset, additionalNormalization, false );
+	}
+
+	/**
+	 * Computes the inverse fft in place. If pruned and cropBack, every pass only transforms the lines that
+	 * lie inside of the crop window in all dimensions that were transformed before, as the other lines
+	 * never contribute to the output. The complex image then contains partially transformed data afterwards.
+	 */
+	final public static <T extends RealType<T>, S extends ComplexType<S>> Img<T> 
+						computeInverseFFT( final RandomAccessibleInterval<S> complex, 
+						                   final ImgFactory<T> imgFactory, 
+						                   final T type,  
+						                   final int numThreads, 
+						                   final boolean scale, final boolean cropBack,
+						                   final int[] originalSize, final int[] originalOffset,
+						                   final float additionalNormalization, final boolean pruned )
 	{
 		// not enough memory
 		if ( complex == null )
@@ -100,110 +126,27 @@ final public class FFTFunctions
 		//
 		// do fft in all the other dimensions		
 		//	
+		final long[] lineMin = new long[ numDimensions ];
+		final long[] lineSize = new long[ numDimensions ];
+		complex.dimensions( lineSize );
+
 		for ( int d = numDimensions - 1; d > 0; --d )
 		{
-			final int dim = d;
-			
-			final AtomicInteger ai = new AtomicInteger();
-			final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-
-			for (int ithread = 0; ithread < threads.length; ++ithread)
-				threads[ithread] = new Thread(new Runnable()
-				{
-					@Override
-					public void run()
-					{
-						final int myNumber = ai.getAndIncrement();
-												
-						final int size = (int)complex.dimension( dim );
-						
-						final float[] tempIn = new float[ size * 2 ];						
-						final FftComplex fftc = new FftComplex( size );
-						
-						final RandomAccess<S> cursor = complex.randomAccess(); 
-
-						/**
-						 * Here we use a LocalizingZeroMinIntervalIterator to iterate through all dimensions except the one we are computing the inverse fft in 
-						 */	
-						final int[] fakeSize = new int[ numDimensions - 1 ];
-						final int[] tmp = new int[ numDimensions ];
-						
-						// get all dimensions except the one we are currently doing the fft on
-						int countDim = 0;						
-						for ( int d = 0; d < numDimensions; ++d )
-							if ( d != dim )
-								fakeSize[ countDim++ ] = (int)complex.dimension( d );
+			computeComplexFFTBlocked( complex, d, 1, scale, numThreads, lineMin, lineSize );
 
-						final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );
-						
-						final float[] tempOut = new float[ size * 2 ];
-						
-						// iterate over all dimensions except the one we are computing the fft in, which is dim=0 here
-						while( cursorDim.hasNext() )
-						{
-							cursorDim.fwd();							
-
-							if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-							{
-								// update all positions except for the one we are currrently doing the inverse fft on
-								cursorDim.localize( fakeSize );
-
-								tmp[ dim ] = (int)complex.min( dim );								
-								countDim = 0;						
-								for ( int d = 0; d < numDimensions; ++d )
-									if ( d != dim )
-										tmp[ d ] = fakeSize[ countDim++ ] + (int)complex.min( d );
-								
-								// update the cursor in the input image to the current dimension position
-								cursor.setPosition( tmp );
-																
-								// get the input line
-								for ( int i = 0; i < size-1; ++i )
-								{
-									tempIn[ i * 2 ] = cursor.get().getRealFloat();
-									tempIn[ i * 2 + 1 ] = cursor.get().getImaginaryFloat();
-									cursor.fwd( dim );
-								}
-								tempIn[ (size-1) * 2 ] = cursor.get().getRealFloat();
-								tempIn[ (size-1) * 2 + 1 ] = cursor.get().getImaginaryFloat();
-								
-								// compute the inverse fft
-								fftc.complexToComplex( 1, tempIn, tempOut );
-								
-								// update the cursor in the input image to the current dimension position
-								cursor.setPosition( tmp );
-
-								// write back result
-								if ( scale )
-								{
-									for ( int i = 0; i < size-1; ++i )
-									{
-										cursor.get().setComplexNumber( tempOut[ i * 2 ] / size, tempOut[ i * 2 + 1 ] / size );
-										cursor.fwd( dim );
-									}
-									cursor.get().setComplexNumber( tempOut[ (size-1) * 2 ] / size, tempOut[ (size-1) * 2 + 1 ] / size );
-								}
-								else
-								{
-									for ( int i = 0; i < size-1; ++i )
-									{
-										cursor.get().setComplexNumber( tempOut[ i * 2 ], tempOut[ i * 2 + 1 ] );
-										cursor.fwd( dim );
-									}
-									cursor.get().setComplexNumber( tempOut[ (size-1) * 2 ], tempOut[ (size-1) * 2 + 1 ] );
-								}	
-							}							
-						}
-					}
-				});
-			
-			SimpleMultiThreading.startAndJoin( threads );						
+			// dimension d is not transformed anymore, only the lines inside the crop window are needed
+			if ( cropBack && pruned )
+			{
+				lineMin[ d ] = originalOffset[ d ];
+				lineSize[ d ] = originalSize[ d ];
+			}
 		}
 		
 		//
 		// compute inverse fft into the real dimension
 		//
 		final AtomicInteger ai = new AtomicInteger();
+		final LineBlocks lines = new LineBlocks( numLines( complex, 0 ), numThreads );
 		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 		
 		for (int ithread = 0; ithread < threads.length; ++ithread)
@@ -245,7 +188,7 @@ final public class FFTFunctions
 						for ( int d = 1; d < numDimensions; ++d )
 							fakeSize[ d - 1 ] = (int)complex.dimension( d );
 						
-						final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );
+						final LocalizingZeroMinIntervalIterator cursorDim = new LineBlockIterator( fakeSize, lines );
 							
 						final float[] tempOut = new float[ realSize ];
 																		
@@ -254,73 +197,70 @@ A:						while( cursorDim.hasNext() )
 						{
 							cursorDim.fwd();							
 
-							if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-							{							
-								// get all dimensions except the one we are currently doing the fft on
-								cursorDim.localize( fakeSize );
+							// get all dimensions except the one we are currently doing the fft on
+							cursorDim.localize( fakeSize );
 
-								tmp[ 0 ] = (int)complex.min( 0 );
-								if ( cropBack )
-								{
-									// check that we are not out of the cropped image's bounds, then we do not have to compute the
-									// inverse fft here
-									for ( int d = 1; d < numDimensions; ++d )
-									{
-										tmp[ d ] = fakeSize[ d - 1 ];
-										if ( tmp[ d ] < originalOffset[ d ] || tmp[ d ] >= originalOffset[ d ] + originalSize[ d ] )
-											continue A;
-										tmp[ d ] += (int)complex.min( d );
-									}
-								}
-								else
+							tmp[ 0 ] = (int)complex.min( 0 );
+							if ( cropBack )
+							{
+								// check that we are not out of the cropped image's bounds, then we do not have to compute the
+								// inverse fft here
+								for ( int d = 1; d < numDimensions; ++d )
 								{
-									for ( int d = 1; d < numDimensions; ++d )									
-										tmp[ d ] = fakeSize[ d - 1 ] + (int)complex.min( d );
+									tmp[ d ] = fakeSize[ d - 1 ];
+									if ( tmp[ d ] < originalOffset[ d ] || tmp[ d ] >= originalOffset[ d ] + originalSize[ d ] )
+										continue A;
+									tmp[ d ] += (int)complex.min( d );
 								}
+							}
+							else
+							{
+								for ( int d = 1; d < numDimensions; ++d )									
+									tmp[ d ] = fakeSize[ d - 1 ] + (int)complex.min( d );
+							}
 
-								// set the cursor to the beginning of the correct line
-								cursor.setPosition( tmp );
-								
-								// fill the input array with complex image data
-								for ( int i = 0; i < complexSize-1; ++i )
-								{
-									tempIn[ i * 2 ] = cursor.get().getRealFloat();
-									tempIn[ i * 2 + 1 ] = cursor.get().getImaginaryFloat();
-									cursor.fwd( 0 );
-								}
-								tempIn[ (complexSize-1) * 2 ] = cursor.get().getRealFloat();
-								tempIn[ (complexSize-1) * 2 + 1 ] = cursor.get().getImaginaryFloat();
-																								
-								// compute the fft in dimension 0 ( complex -> real )
-								fft.complexToReal( 1, tempIn, tempOut );
-										
-								// set the cursor in the fft output image to the right line
-								tmp[ 0 ] -= (int)complex.min( 0 );
-								if ( cropBack )
-									for ( int d = 1; d < numDimensions; ++d )									
-										tmp[ d ] -= (originalOffset[ d ] + (int)complex.min( d ));									
-								
-								cursorOut.setPosition( tmp );
-								
-								// write back the real data
-								if ( scale )
+							// set the cursor to the beginning of the correct line
+							cursor.setPosition( tmp );
+							
+							// fill the input array with complex image data
+							for ( int i = 0; i < complexSize-1; ++i )
+							{
+								tempIn[ i * 2 ] = cursor.get().getRealFloat();
+								tempIn[ i * 2 + 1 ] = cursor.get().getImaginaryFloat();
+								cursor.fwd( 0 );
+							}
+							tempIn[ (complexSize-1) * 2 ] = cursor.get().getRealFloat();
+							tempIn[ (complexSize-1) * 2 + 1 ] = cursor.get().getImaginaryFloat();
+																							
+							// compute the fft in dimension 0 ( complex -> real )
+							fft.complexToReal( 1, tempIn, tempOut );
+									
+							// set the cursor in the fft output image to the right line
+							tmp[ 0 ] -= (int)complex.min( 0 );
+							if ( cropBack )
+								for ( int d = 1; d < numDimensions; ++d )									
+									tmp[ d ] -= (originalOffset[ d ] + (int)complex.min( d ));									
+							
+							cursorOut.setPosition( tmp );
+							
+							// write back the real data
+							if ( scale )
+							{
+								for ( int x = cropX1; x < cropX2-1; ++x )
 								{
-									for ( int x = cropX1; x < cropX2-1; ++x )
-									{
-										cursorOut.get().setReal( (tempOut[ x ] / realSize) * additionalNormalization );
-										cursorOut.fwd( 0 );
-									}
-									cursorOut.get().setReal( (tempOut[ cropX2-1 ] / realSize) * additionalNormalization );
+									cursorOut.get().setReal( (tempOut[ x ] / realSize) * additionalNormalization );
+									cursorOut.fwd( 0 );
 								}
-								else
+								cursorOut.get().setReal( (tempOut[ cropX2-1 ] / realSize) * additionalNormalization );
+							}
+							else
+							{
+								for ( int x = cropX1; x < cropX2-1; ++x )
 								{
-									for ( int x = cropX1; x < cropX2-1; ++x )
-									{
-										cursorOut.get().setReal( tempOut[ x ] * additionalNormalization );
-										cursorOut.fwd( 0 );
-									}
-									cursorOut.get().setReal( tempOut[ cropX2-1 ] * additionalNormalization );
+									cursorOut.get().setReal( tempOut[ x ] * additionalNormalization );
+									cursorOut.fwd( 0 );
 								}
+								cursorOut.get().setReal( tempOut[ cropX2-1 ] * additionalNormalization );
 							}
 						}
 					}
@@ -386,11 +326,43 @@ A:						while( cursorDim.hasNext() )
 						            final OutOfBoundsFactory<T, RandomAccessibleInterval<T>> outOfBoundsFactory,
 						            final int[] imageOffset, final int[] imageSize,
 						            final int numThreads, final boolean scale )
+	{
+		return computeFFT( input, imgFactory, complexType, outOfBoundsFactory, null, imageOffset, imageSize, numThreads, scale );
+	}
+
+	/**
+	 * Computes the fft of the input mirrored at its borders, with the mirrored
+	 * values fading out to zero within relativeFadeOutDistance of the image
+	 * size. The extension is not evaluated per sample by an out of bounds
+	 * strategy; each line is read once from the image and the mirroring and
+	 * fading are applied to the whole line using precomputed windows.
+	 */
+	final public static <T extends RealType<T>, S extends ComplexType<S>> Img<S> 
+						computeFFT( final RandomAccessibleInterval<T> input,
+						            final ImgFactory<S> imgFactory,
+						            final S complexType, 
+						            final float relativeFadeOutDistance,
+						            final int[] imageOffset, final int[] imageSize,
+						            final int numThreads, final boolean scale )
+	{
+		final MirrorFading fading = new MirrorFading( input, imageOffset, imageSize, relativeFadeOutDistance );
+
+		return computeFFT( input, imgFactory, complexType, null, fading, imageOffset, imageSize, numThreads, scale );
+	}
+
+	final private static <T extends RealType<T>, S extends ComplexType<S>> Img<S> 
+						computeFFT( final RandomAccessibleInterval<T> input,
+						            final ImgFactory<S> imgFactory,
+						            final S complexType, 
+						            final OutOfBoundsFactory<T, RandomAccessibleInterval<T>> outOfBoundsFactory,
+						            final MirrorFading fading,
+						            final int[] imageOffset, final int[] imageSize,
+						            final int numThreads, final boolean scale )
 	{
 		final int numDimensions = input.numDimensions();
 		
-		// create ExtendedRandomAccess for input using the OutOfBoundsStrategy
-		final RandomAccessible< T > extendedInput = Views.extend( input, outOfBoundsFactory );
+		// create ExtendedRandomAccess for input using the OutOfBoundsStrategy, the fading reads only inside of the input
+		final RandomAccessible< T > extendedInput = fading == null ? Views.extend( input, outOfBoundsFactory ) : input;
 		
 		final int complexSize[] = new int[ numDimensions ];
 		
@@ -406,7 +378,12 @@ A:						while( cursorDim.hasNext() )
 		if ( fftImage == null )
 			return null;
 		
+		// direct access to the float[] storage of ArrayImgs and PlanarImgs of FloatType/ComplexFloatType
+		final FloatStorage inputStorage = Util.getTypeFromInterval( input ) instanceof FloatType ? FloatStorage.create( input ) : null;
+		final FloatStorage outputStorage = complexType instanceof ComplexFloatType ? FloatStorage.create( fftImage ) : null;
+
 		final AtomicInteger ai = new AtomicInteger(0);
+		final LineBlocks lines = new LineBlocks( numLines( fftImage, 0 ), numThreads );
 		Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 		
 		for (int ithread = 0; ithread < threads.length; ++ithread)
@@ -425,6 +402,10 @@ A:						while( cursorDim.hasNext() )
 					
 					final RandomAccess<T> cursor = extendedInput.randomAccess();
 					final RandomAccess<S> cursorOut = fftImage.randomAccess(); 
+
+					// the image line the mirrored and faded line is computed from
+					final int[] rowPosition = fading == null ? null : new int[ numDimensions ];
+					final float[] row = fading == null ? null : new float[ (int)input.dimension( 0 ) ];
 					
 					if ( numDimensions > 1 )
 					{
@@ -438,7 +419,7 @@ A:						while( cursorDim.hasNext() )
 						for ( int d = 1; d < numDimensions; ++d )
 							fakeSize[ d - 1 ] = imageSize[ d ];
 						
-						final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );						
+						final LocalizingZeroMinIntervalIterator cursorDim = new LineBlockIterator( fakeSize, lines );						
 
 						final float[] tempOut = new float[ complexSize * 2 ];
 						
@@ -447,20 +428,30 @@ A:						while( cursorDim.hasNext() )
 						{
 							cursorDim.fwd();							
 
-							if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-							{							
-								// get all dimensions except the one we are currently doing the fft on
-								cursorDim.localize( fakeSize );
+							// get all dimensions except the one we are currently doing the fft on
+							cursorDim.localize( fakeSize );
 
-								tmp[ 0 ] = 0;
-								tmp2[ 0 ] = -imageOffset[ 0 ] + (int)input.min( 0 );
-								
-								for ( int d = 1; d < numDimensions; ++d )
-								{
-									tmp[ d ] = fakeSize[ d - 1 ];
-									tmp2[ d ] = fakeSize[ d - 1 ] - imageOffset[ d ] + (int)input.min( d );
-								}
+							tmp[ 0 ] = 0;
+							tmp2[ 0 ] = -imageOffset[ 0 ] + (int)input.min( 0 );
+							
+							for ( int d = 1; d < numDimensions; ++d )
+							{
+								tmp[ d ] = fakeSize[ d - 1 ];
+								tmp2[ d ] = fakeSize[ d - 1 ] - imageOffset[ d ] + (int)input.min( d );
+							}
 
+							if ( fading != null )
+							{
+								// read the mirrored image line once and fade the borders
+								fading.readLine( tmp, input, cursor, inputStorage, rowPosition, row, tempIn );
+							}
+							else if ( inputStorage != null )
+							{
+								// copy the part inside the image from the array, only the borders come from the out of bounds strategy
+								inputStorage.readLine( tmp2, cursor, tempIn );
+							}
+							else
+							{
 								// set the cursor to the beginning of the correct line
 								cursor.setPosition( tmp2 );
 								
@@ -471,32 +462,39 @@ A:						while( cursorDim.hasNext() )
 									cursor.fwd( 0 );
 								}
 								tempIn[ (realSize-1) ] = cursor.get().getRealFloat();
+							}
 
-								// compute the fft in dimension 0 ( real -> complex )
-								fft.realToComplex( -1, tempIn, tempOut );
-									
-								// set the cursor in the fft output image to the right line
-								cursorOut.setPosition( tmp );
+							// compute the fft in dimension 0 ( real -> complex )
+							fft.realToComplex( -1, tempIn, tempOut );
 								
-								// write back the fft data
-								if ( scale )
+							if ( outputStorage != null )
+							{
+								// write back the fft data directly into the interleaved array
+								outputStorage.writeComplexLine( tmp, tempOut, complexSize, scale ? realSize : 1 );
+								continue;
+							}
+
+							// set the cursor in the fft output image to the right line
+							cursorOut.setPosition( tmp );
+							
+							// write back the fft data
+							if ( scale )
+							{
+								for ( int x = 0; x < complexSize-1; ++x )
 								{
-									for ( int x = 0; x < complexSize-1; ++x )
-									{
-										cursorOut.get().setComplexNumber( tempOut[ x * 2 ] / realSize, tempOut[ x * 2 + 1 ] / realSize );									
-										cursorOut.fwd( 0 );
-									}
-									cursorOut.get().setComplexNumber( tempOut[ (complexSize-1) * 2 ] / realSize, tempOut[ (complexSize-1) * 2 + 1 ] / realSize );									
+									cursorOut.get().setComplexNumber( tempOut[ x * 2 ] / realSize, tempOut[ x * 2 + 1 ] / realSize );									
+									cursorOut.fwd( 0 );
 								}
-								else
+								cursorOut.get().setComplexNumber( tempOut[ (complexSize-1) * 2 ] / realSize, tempOut[ (complexSize-1) * 2 + 1 ] / realSize );									
+							}
+							else
+							{
+								for ( int x = 0; x < complexSize-1; ++x )
 								{
-									for ( int x = 0; x < complexSize-1; ++x )
-									{
-										cursorOut.get().setComplexNumber( tempOut[ x * 2 ], tempOut[ x * 2 + 1 ] );									
-										cursorOut.fwd( 0 );
-									}
-									cursorOut.get().setComplexNumber( tempOut[ (complexSize-1) * 2 ], tempOut[ (complexSize-1) * 2 + 1 ] );									
+									cursorOut.get().setComplexNumber( tempOut[ x * 2 ], tempOut[ x * 2 + 1 ] );									
+									cursorOut.fwd( 0 );
 								}
+								cursorOut.get().setComplexNumber( tempOut[ (complexSize-1) * 2 ], tempOut[ (complexSize-1) * 2 + 1 ] );									
 							}
 						}
 					}
@@ -505,16 +503,23 @@ A:						while( cursorDim.hasNext() )
 						// multithreading makes no sense here
 						if ( myNumber == 0 )
 						{
-							// set the cursor to 0 in the first (and only) dimension
-							cursor.setPosition( -imageOffset[ 0 ] + (int)input.min( 0 ), 0 );
-							
-							// get the input data
-							for ( int x = 0; x < realSize-1; ++x )
+							if ( fading != null )
 							{
-								tempIn[ x ] = cursor.get().getRealFloat();
-								cursor.fwd( 0 );
+								fading.readLine( new int[ 1 ], input, cursor, inputStorage, rowPosition, row, tempIn );
+							}
+							else
+							{
+								// set the cursor to 0 in the first (and only) dimension
+								cursor.setPosition( -imageOffset[ 0 ] + (int)input.min( 0 ), 0 );
+								
+								// get the input data
+								for ( int x = 0; x < realSize-1; ++x )
+								{
+									tempIn[ x ] = cursor.get().getRealFloat();
+									cursor.fwd( 0 );
+								}
+								tempIn[ realSize-1 ] = cursor.get().getRealFloat();
 							}
-							tempIn[ realSize-1 ] = cursor.get().getRealFloat();
 							
 							// compute the fft in dimension 0 ( real -> complex )
 							final float[] tempOut = new float[ complexSize * 2 ];
@@ -553,104 +558,8 @@ A:						while( cursorDim.hasNext() )
 		// do fft in all the other dimensions		
 		//	
 		for ( int d = 1; d < numDimensions; ++d )
-		{
-			final int dim = d;
-			
-			ai.set( 0 );
-			threads = SimpleMultiThreading.newThreads( numThreads );
-
-			for (int ithread = 0; ithread < threads.length; ++ithread)
-				threads[ithread] = new Thread(new Runnable()
-				{
-					@Override
-					public void run()
-					{
-						final int myNumber = ai.getAndIncrement();
-						
-						final int size = (int)fftImage.dimension( dim );
-						
-						final float[] tempIn = new float[ size * 2 ];						
-						final FftComplex fftc = new FftComplex( size );
-						
-						final RandomAccess<S> cursor = fftImage.randomAccess(); 
-
-						/**
-						 * Here we use a LocalizingZeroMinIntervalIterator to iterate through all dimensions except the one we are computing the inverse fft in 
-						 */	
-						final int[] fakeSize = new int[ numDimensions - 1 ];
-						final int[] tmp = new int[ numDimensions ];
-						
-						// get all dimensions except the one we are currently doing the fft on
-						int countDim = 0;						
-						for ( int d = 0; d < numDimensions; ++d )
-							if ( d != dim )
-								fakeSize[ countDim++ ] = (int)fftImage.dimension( d );
-
-						final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );						
-						
-						final float[] tempOut = new float[ size * 2 ];
-						
-						// iterate over all dimensions except the one we are computing the fft in, which is dim=0 here
-						while( cursorDim.hasNext() )
-						{
-							cursorDim.fwd();							
+			computeComplexFFTBlocked( fftImage, d, -1, scale, numThreads, null, null );
 
-							if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-							{
-								// update all positions except for the one we are currrently doing the fft on
-								cursorDim.localize( fakeSize );
-
-								tmp[ dim ] = 0;								
-								countDim = 0;						
-								for ( int d = 0; d < numDimensions; ++d )
-									if ( d != dim )
-										tmp[ d ] = fakeSize[ countDim++ ];
-								
-								// update the cursor in the input image to the current dimension position
-								cursor.setPosition( tmp );
-								
-								// get the input line
-								for ( int i = 0; i < size - 1; ++i )
-								{
-									tempIn[ i * 2 ] = cursor.get().getRealFloat();
-									tempIn[ i * 2 + 1 ] = cursor.get().getImaginaryFloat();
-									cursor.fwd( dim  );
-								}
-								tempIn[ (size-1) * 2 ] = cursor.get().getRealFloat();
-								tempIn[ (size-1) * 2 + 1 ] = cursor.get().getImaginaryFloat();
-								
-								// compute the fft in dimension dim (complex -> complex) 
-								fftc.complexToComplex( -1, tempIn, tempOut);
-	
-								// set the cursor to the right line
-								cursor.setPosition( tmp );
-								
-								// write back result
-								if ( scale )	
-								{
-									for ( int i = 0; i < size-1; ++i )
-									{
-										cursor.get().setComplexNumber( tempOut[ i * 2 ] / size, tempOut[ i * 2 + 1 ] / size );
-										cursor.fwd( dim );
-									}
-									cursor.get().setComplexNumber( tempOut[ (size-1) * 2 ] / size, tempOut[ (size-1) * 2 + 1 ] / size );
-								}
-								else
-								{
-									for ( int i = 0; i < size-1; ++i )
-									{
-										cursor.get().setComplexNumber( tempOut[ i * 2 ], tempOut[ i * 2 + 1 ] );
-										cursor.fwd( dim );
-									}
-									cursor.get().setComplexNumber( tempOut[ (size-1) * 2 ], tempOut[ (size-1) * 2 + 1 ] );									
-								}
-							}
-						}
-					}
-				});
-			
-			SimpleMultiThreading.startAndJoin( threads );
-		}
 		return fftImage;
 	}
 	
@@ -710,8 +619,8 @@ A:						while( cursorDim.hasNext() )
 		}
 		
 		//swap in dimension 0
-		final AtomicInteger ai = new AtomicInteger(0);
-		Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		final LineBlocks lines = new LineBlocks( numLines( fftImage, 0 ), numThreads );
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 
 		for (int ithread = 0; ithread < threads.length; ++ithread)
 			threads[ithread] = new Thread(new Runnable()
@@ -719,8 +628,6 @@ A:						while( cursorDim.hasNext() )
 				@Override
 				public void run()
 				{
-					final int myNumber = ai.getAndIncrement();
-
 					final int sizeDim = (int)fftImage.dimension( 0 );					
 					final int halfSizeDim = sizeDim / 2;
 					final int sizeDimMinus1 = sizeDim - 1;
@@ -741,54 +648,51 @@ A:						while( cursorDim.hasNext() )
 					for ( int d = 1; d < numDimensions; ++d )
 						fakeSize[ d - 1 ] = (int)fftImage.dimension( d );
 
-					final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );
+					final LocalizingZeroMinIntervalIterator cursorDim = new LineBlockIterator( fakeSize, lines );
 					
 					// iterate over all dimensions except the one we are computing the fft in, which is dim=0 here
 					while( cursorDim.hasNext() )
 					{
 						cursorDim.fwd();
 						
-						if ( cursorDim.getLongPosition( 0 ) % numThreads == myNumber )
-						{							
-							// update all positions except for the one we are currrently doing the fft on
-							cursorDim.localize( fakeSize );
-			
-							tmp[ 0 ] = 0;								
-							for ( int d = 1; d < numDimensions; ++d )
-								tmp[ d ] = fakeSize[ d - 1 ];
-							
-							// update the first cursor in the image to the zero position
-							cursor1.setPosition( tmp );
-							
-							// and a second one to the middle for rapid exchange of the quadrants
-							tmp[ 0 ] = sizeDimMinus1;
-							cursor2.setPosition( tmp );
-											
-							// now do a triangle-exchange
-							for ( int i = 0; i < halfSizeDim-1 ; ++i )
-							{
-								// cache first "half" to buffer
-								buffer.set( cursor1.get() );
-			
-								// move second "half" to first "half"
-								cursor1.get().set( cursor2.get() );
-
-								// move data in buffer to second "half"
-								cursor2.get().set( buffer );
-								
-								// move both cursors forward
-								cursor1.fwd( 0 ); 
-								cursor2.bck( 0 ); 
-							}
+						// update all positions except for the one we are currrently doing the fft on
+						cursorDim.localize( fakeSize );
+		
+						tmp[ 0 ] = 0;								
+						for ( int d = 1; d < numDimensions; ++d )
+							tmp[ d ] = fakeSize[ d - 1 ];
+						
+						// update the first cursor in the image to the zero position
+						cursor1.setPosition( tmp );
+						
+						// and a second one to the middle for rapid exchange of the quadrants
+						tmp[ 0 ] = sizeDimMinus1;
+						cursor2.setPosition( tmp );
+										
+						// now do a triangle-exchange
+						for ( int i = 0; i < halfSizeDim-1 ; ++i )
+						{
 							// cache first "half" to buffer
 							buffer.set( cursor1.get() );
 		
 							// move second "half" to first "half"
 							cursor1.get().set( cursor2.get() );
-							
+
 							// move data in buffer to second "half"
 							cursor2.get().set( buffer );
+							
+							// move both cursors forward
+							cursor1.fwd( 0 ); 
+							cursor2.bck( 0 ); 
 						}
+						// cache first "half" to buffer
+						buffer.set( cursor1.get() );
+	
+						// move second "half" to first "half"
+						cursor1.get().set( cursor2.get() );
+						
+						// move data in buffer to second "half"
+						cursor2.get().set( buffer );
 					}	
 				}
 			});
@@ -806,8 +710,8 @@ A:						while( cursorDim.hasNext() )
 			return;
 		}
 		
-		final AtomicInteger ai = new AtomicInteger(0);
-		Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		final LineBlocks lines = new LineBlocks( numLines( fftImage, dim ), numThreads );
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 		
 		for (int ithread = 0; ithread < threads.length; ++ithread)
 			threads[ithread] = new Thread(new Runnable()
@@ -815,8 +719,6 @@ A:						while( cursorDim.hasNext() )
 				@Override
 				public void run()
 				{
-					final int myNumber = ai.getAndIncrement();
-
 					final int sizeDim = (int)fftImage.dimension( dim );
 					final int halfSizeDim = sizeDim / 2;
 		
@@ -839,47 +741,32 @@ A:						while( cursorDim.hasNext() )
 						if ( d != dim )
 							fakeSize[ countDim++ ] = (int)fftImage.dimension( d );
 					
-					final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );
+					final LocalizingZeroMinIntervalIterator cursorDim = new LineBlockIterator( fakeSize, lines );
 		
 					// iterate over all dimensions except the one we are computing the fft in, which is dim=0 here
 					while( cursorDim.hasNext() )
 					{
 						cursorDim.fwd();
 						
-						if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-						{							
-							// update all positions except for the one we are currrently doing the fft on
-							cursorDim.localize( fakeSize );
-			
-							tmp[ dim ] = 0;								
-							countDim = 0;						
-							for ( int d = 0; d < numDimensions; ++d )
-								if ( d != dim )
-									tmp[ d ] = fakeSize[ countDim++ ];
-							
-							// update the first cursor in the image to the zero position
-							cursor1.setPosition( tmp );
-							
-							// and a second one to the middle for rapid exchange of the quadrants
-							tmp[ dim ] = halfSizeDim;
-							cursor2.setPosition( tmp );
-											
-							// now do a triangle-exchange
-							for ( int i = 0; i < halfSizeDim-1; ++i )
-							{
-								// cache first "half" to buffer
-								buffer.set( cursor1.get() );
-			
-								// move second "half" to first "half"
-								cursor1.get().set( cursor2.get() );
-								
-								// move data in buffer to second "half"
-								cursor2.get().set( buffer );
-								
-								// move both cursors forward
-								cursor1.fwd( dim ); 
-								cursor2.fwd( dim ); 
-							}							
+						// update all positions except for the one we are currrently doing the fft on
+						cursorDim.localize( fakeSize );
+		
+						tmp[ dim ] = 0;								
+						countDim = 0;						
+						for ( int d = 0; d < numDimensions; ++d )
+							if ( d != dim )
+								tmp[ d ] = fakeSize[ countDim++ ];
+						
+						// update the first cursor in the image to the zero position
+						cursor1.setPosition( tmp );
+						
+						// and a second one to the middle for rapid exchange of the quadrants
+						tmp[ dim ] = halfSizeDim;
+						cursor2.setPosition( tmp );
+										
+						// now do a triangle-exchange
+						for ( int i = 0; i < halfSizeDim-1; ++i )
+						{
 							// cache first "half" to buffer
 							buffer.set( cursor1.get() );
 		
@@ -888,7 +775,19 @@ A:						while( cursorDim.hasNext() )
 							
 							// move data in buffer to second "half"
 							cursor2.get().set( buffer );
-						}
+							
+							// move both cursors forward
+							cursor1.fwd( dim ); 
+							cursor2.fwd( dim ); 
+						}							
+						// cache first "half" to buffer
+						buffer.set( cursor1.get() );
+	
+						// move second "half" to first "half"
+						cursor1.get().set( cursor2.get() );
+						
+						// move data in buffer to second "half"
+						cursor2.get().set( buffer );
 					}
 				}
 			});
@@ -900,8 +799,8 @@ A:						while( cursorDim.hasNext() )
 	{
 		final int numDimensions = fftImage.numDimensions();
 		
-		final AtomicInteger ai = new AtomicInteger(0);
-		Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		final LineBlocks lines = new LineBlocks( numLines( fftImage, dim ), numThreads );
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 		
 		for (int ithread = 0; ithread < threads.length; ++ithread)
 			threads[ithread] = new Thread(new Runnable()
@@ -909,8 +808,6 @@ A:						while( cursorDim.hasNext() )
 				@Override
 				public void run()
 				{
-					final int myNumber = ai.getAndIncrement();
-
 					final int sizeDim = (int)fftImage.dimension( dim );
 					final int sizeDimMinus1 = sizeDim - 1;
 					final int halfSizeDim = sizeDim / 2;
@@ -935,71 +832,68 @@ A:						while( cursorDim.hasNext() )
 						if ( d != dim )
 							fakeSize[ countDim++ ] = (int)fftImage.dimension( d );
 					
-					final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );
+					final LocalizingZeroMinIntervalIterator cursorDim = new LineBlockIterator( fakeSize, lines );
 		
 					// iterate over all dimensions except the one we are computing the fft in, which is dim=0 here
 					while( cursorDim.hasNext() )
 					{
 						cursorDim.fwd();
 						
-						if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-						{							
-							// update all positions except for the one we are currrently doing the fft on
-							cursorDim.localize( fakeSize );
-			
-							tmp[ dim ] = 0;								
-							countDim = 0;						
-							for ( int d = 0; d < numDimensions; ++d )
-								if ( d != dim )
-									tmp[ d ] = fakeSize[ countDim++ ];
-							
-							// update the first cursor in the image to the half position
-							tmp[ dim ] = halfSizeDim;
-							cursor1.setPosition( tmp );
-							
-							// and a second one to the last pixel for rapid exchange of the quadrants
+						// update all positions except for the one we are currrently doing the fft on
+						cursorDim.localize( fakeSize );
+		
+						tmp[ dim ] = 0;								
+						countDim = 0;						
+						for ( int d = 0; d < numDimensions; ++d )
+							if ( d != dim )
+								tmp[ d ] = fakeSize[ countDim++ ];
+						
+						// update the first cursor in the image to the half position
+						tmp[ dim ] = halfSizeDim;
+						cursor1.setPosition( tmp );
+						
+						// and a second one to the last pixel for rapid exchange of the quadrants
+						if ( forward )
+							tmp[ dim ] = sizeDimMinus1;
+						else
+							tmp[ dim ] = 0;
+						
+						cursor2.setPosition( tmp );
+
+						// cache middle entry
+						buffer1.set( cursor1.get() );
+
+						// now do a permutation
+						for ( int i = 0; i < halfSizeDim; ++i )
+						{								
+							// cache last entry
+							buffer2.set( cursor2.get() );
+		
+							// overwrite last entry
+							cursor2.get().set( buffer1 );
+
+							// move cursor backward
 							if ( forward )
-								tmp[ dim ] = sizeDimMinus1;
+								cursor1.bck( dim );
 							else
-								tmp[ dim ] = 0;
+								cursor1.fwd( dim ); 
 							
-							cursor2.setPosition( tmp );
-
 							// cache middle entry
 							buffer1.set( cursor1.get() );
-
-							// now do a permutation
-							for ( int i = 0; i < halfSizeDim; ++i )
-							{								
-								// cache last entry
-								buffer2.set( cursor2.get() );
-			
-								// overwrite last entry
-								cursor2.get().set( buffer1 );
-
-								// move cursor backward
-								if ( forward )
-									cursor1.bck( dim );
-								else
-									cursor1.fwd( dim ); 
-								
-								// cache middle entry
-								buffer1.set( cursor1.get() );
-			
-								// overwrite middle entry
-								cursor1.get().set( buffer2 );
-								
-								// move cursor backward
-								if ( forward )
-									cursor2.bck( dim );
-								else
-									cursor2.fwd( dim );
-							}
+		
+							// overwrite middle entry
+							cursor1.get().set( buffer2 );
 							
-							// set the last center pixel
-							cursor2.setPosition( halfSizeDim, dim );
-							cursor2.get().set( buffer1 );
-						}						
+							// move cursor backward
+							if ( forward )
+								cursor2.bck( dim );
+							else
+								cursor2.fwd( dim );
+						}
+						
+						// set the last center pixel
+						cursor2.setPosition( halfSizeDim, dim );
+						cursor2.get().set( buffer1 );
 					}
 				}
 			});
@@ -1007,6 +901,32 @@ A:						while( cursorDim.hasNext() )
 		SimpleMultiThreading.startAndJoin( threads );								
 	}
 
+	/**
+	 * Returns a view of an fft image that is not rearranged, which looks exactly like the result of
+	 * {@link #rearrangeFFTQuadrants(RandomAccessibleInterval, boolean, int)} (forward), i.e. dimension 0 is
+	 * reversed and the origin of all other dimensions is moved to their center. No data is copied, the
+	 * positions are remapped periodically on access, so the spectrum can be processed in centered
+	 * coordinates (e.g. by {@link Bandpass}) without rearranging it forth and back. Writing into the view
+	 * writes into the fft image.
+	 * 
+	 * @param fftImage - the fft image as computed by {@link #computeFFT}
+	 * @return - the centered view, with the same interval as fftImage
+	 */
+	final public static <T> RandomAccessibleInterval<T> centeredView( final RandomAccessibleInterval<T> fftImage )
+	{
+		final int numDimensions = fftImage.numDimensions();
+		final long[] translation = new long[ numDimensions ];
+
+		// relative to the min, centered(x) = fft(size-1-x) in dimension 0 and centered(x) = fft(x-size/2) in all others
+		translation[ 0 ] = fftImage.min( 0 ) + fftImage.dimension( 0 ) - 1;
+		for ( int d = 1; d < numDimensions; ++d )
+			translation[ d ] = fftImage.min( d ) + fftImage.dimension( d ) / 2;
+
+		final RandomAccessible<T> periodic = Views.invertAxis( Views.extendPeriodic( Views.zeroMin( fftImage ) ), 0 );
+
+		return Views.interval( Views.translate( periodic, translation ), fftImage );
+	}
+
 	final public static <T extends Type<T>> void rearrangeFFTQuadrants( final RandomAccessibleInterval<T> fftImage, final boolean forward, final int numThreads )
 	{
 		rearrangeQuadrantFFTDimZero( fftImage, numThreads );
@@ -1014,4 +934,557 @@ A:						while( cursorDim.hasNext() )
 		for ( int d = 1; d < fftImage.numDimensions(); ++d )
 			rearrangeQuadrantDim( fftImage, d, forward, numThreads );		
 	}	
+
+	/**
+	 * The maximal number of floats of a tile in {@link #computeComplexFFTBlocked}, so that it stays in the cache
+	 */
+	final static int maxTileSize = 1 << 16;
+
+	/**
+	 * The maximal number of lines transformed together in {@link #computeComplexFFTBlocked}
+	 */
+	final static int maxTileLines = 32;
+
+	/**
+	 * Computes the complex-to-complex fft of all lines along dimension dim &gt; 0 in place. Instead of
+	 * gathering one line at a time with a large stride, a tile of lines that are adjacent in dimension 0 is
+	 * gathered row by row (i.e. along contiguous memory for most containers), transformed together
+	 * by {@link FftComplex#complexToComplex2(int, int, float[][], float[][])} and scattered back.
+	 * 
+	 * @param complex - the image
+	 * @param dim - the dimension (&gt; 0)
+	 * @param sign - -1 for the forward, 1 for the inverse transform
+	 * @param scale - divide the result by the size of the dimension
+	 * @param numThreads - the number of threads
+	 * @param lineMin - the offset of the transformed lines relative to the min of complex, null for all lines
+	 * @param lineSize - the number of transformed lines in each dimension (except 0 and dim), null for all lines
+	 */
+	final private static <S extends ComplexType<S>> void computeComplexFFTBlocked( final RandomAccessibleInterval<S> complex, final int dim, final int sign, final boolean scale, final int numThreads,
+	                                                                               final long[] lineMin, final long[] lineSize )
+	{
+		final int numDimensions = complex.numDimensions();
+
+		final int size = (int)complex.dimension( dim );
+		final int width = (int)complex.dimension( 0 );
+		final int tileLines = Math.max( 1, Math.min( Math.min( width, maxTileLines ), maxTileSize / ( size * 2 ) ) );
+		final int tilesPerRow = ( width + tileLines - 1 ) / tileLines;
+
+		// all dimensions except 0 and dim
+		final long[] rowDimensions = new long[ Math.max( 1, numDimensions - 2 ) ];
+		rowDimensions[ 0 ] = 1;
+
+		int countDim = 0;
+		for ( int d = 1; d < numDimensions; ++d )
+			if ( d != dim )
+				rowDimensions[ countDim++ ] = lineSize == null ? complex.dimension( d ) : lineSize[ d ];
+
+		long numRows = 1;
+		for ( final long r : rowDimensions )
+			numRows *= r;
+
+		final LineBlocks tiles = new LineBlocks( numRows * tilesPerRow, numThreads );
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+
+		for (int ithread = 0; ithread < threads.length; ++ithread)
+			threads[ithread] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final FftComplex fftc = new FftComplex( size );
+					final float[][] tile = new float[ size ][ tileLines * 2 ];
+
+					final RandomAccess<S> cursor = complex.randomAccess();
+
+					final long[] rowPosition = new long[ rowDimensions.length ];
+					final long[] position = new long[ numDimensions ];
+
+					for ( long first = tiles.claim(); first < tiles.numLines; first = tiles.claim() )
+					{
+						final long last = Math.min( first + tiles.blockSize, tiles.numLines );
+
+						for ( long t = first; t < last; ++t )
+						{
+							final int x0 = (int)( t % tilesPerRow ) * tileLines;
+							final int n = Math.min( tileLines, width - x0 );
+
+							IntervalIndexer.indexToPosition( t / tilesPerRow, rowDimensions, rowPosition );
+
+							position[ 0 ] = complex.min( 0 ) + x0;
+							position[ dim ] = complex.min( dim );
+
+							int countRow = 0;
+							for ( int d = 1; d < numDimensions; ++d )
+								if ( d != dim )
+									position[ d ] = complex.min( d ) + ( lineMin == null ? 0 : lineMin[ d ] ) + rowPosition[ countRow++ ];
+
+							transformTile( cursor, position, dim, n, tile, fftc, sign, scale, 0 );
+						}
+					}
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * Transforms one tile of {@link #computeComplexFFTBlocked}: gathers n lines along dimension dim that are adjacent
+	 * in dimension 0, computes their complex-to-complex fft and scatters them back.
+	 * 
+	 * @param cursor - access to the image
+	 * @param position - the first pixel of the first line
+	 * @param dim - the dimension of the lines (&gt; 0)
+	 * @param n - the number of lines
+	 * @param tile - the buffer, one row of at least n interleaved complex values per pixel of a line
+	 * @param fft - the transform for lines of size tile.length
+	 * @param sign - -1 for the forward, 1 for the inverse transform
+	 * @param scale - divide the result by the size of the dimension
+	 * @param shift - the result of pixel i is written to pixel ( i + shift ) % size of the line, e.g. size / 2 to
+	 * rearrange the quadrants
+	 */
+	final static <S extends ComplexType<S>> void transformTile( final RandomAccess<S> cursor, final long[] position, final int dim, final int n,
+	                                                            final float[][] tile, final FftComplex fft, final int sign, final boolean scale, final int shift )
+	{
+		final int size = tile.length;
+
+		// gather the tile, the lines are the columns
+		cursor.setPosition( position );
+
+		for ( int i = 0; i < size; ++i )
+		{
+			final float[] row = tile[ i ];
+
+			for ( int j = 0; j < n; ++j )
+			{
+				final S value = cursor.get();
+				row[ j * 2 ] = value.getRealFloat();
+				row[ j * 2 + 1 ] = value.getImaginaryFloat();
+				cursor.fwd( 0 );
+			}
+
+			cursor.move( -n, 0 );
+			cursor.fwd( dim );
+		}
+
+		// compute the fft of all n columns in dimension dim (complex -> complex)
+		fft.complexToComplex2( sign, n, tile, tile );
+
+		// write back result
+		cursor.setPosition( position );
+		cursor.move( shift, dim );
+
+		for ( int i = 0; i < size; ++i )
+		{
+			// wrap around to the start of the line
+			if ( i == size - shift )
+				cursor.setPosition( position[ dim ], dim );
+
+			final float[] row = tile[ i ];
+
+			for ( int j = 0; j < n; ++j )
+			{
+				if ( scale )
+					cursor.get().setComplexNumber( row[ j * 2 ] / size, row[ j * 2 + 1 ] / size );
+				else
+					cursor.get().setComplexNumber( row[ j * 2 ], row[ j * 2 + 1 ] );
+				cursor.fwd( 0 );
+			}
+
+			cursor.move( -n, 0 );
+			cursor.fwd( dim );
+		}
+	}
+
+	/**
+	 * @return - the number of one-dimensional lines along dimension dim
+	 */
+	final private static long numLines( final Dimensions dimensions, final int dim )
+	{
+		long numLines = 1;
+
+		for ( int d = 0; d < dimensions.numDimensions(); ++d )
+			if ( d != dim )
+				numLines *= dimensions.dimension( d );
+
+		return numLines;
+	}
+
+	/**
+	 * Mirrors the input at its borders (with single boundary pixels, like
+	 * EXTEND_MIRROR) and lets the mirrored values fade out to zero with the
+	 * same weights as
+	 * {@link net.imglib2.outofbounds.OutOfBoundsMirrorExpWindowingFactory}, which it
+	 * replaces. Mirroring and fading are separable, so the source
+	 * position and the weight of every padded position are tabulated once per
+	 * dimension. A padded line along dimension 0 is then computed from a single
+	 * image line with one lookup and one multiplication per sample.
+	 */
+	final static class MirrorFading
+	{
+		// the fading never happens within less pixels
+		final static int minFadeOutDistance = 6;
+
+		// the exponent OutOfBoundsMirrorExpWindowingFactory uses by default
+		final static float exponent = 10;
+
+		// per dimension, the mirrored position inside the input (zero-min) of every padded position
+		final int[][] source;
+
+		// per dimension, the weight of every padded position, 1 inside of the input
+		final float[][] weight;
+
+		MirrorFading( final Dimensions input, final int[] imageOffset, final int[] imageSize, final float relativeFadeOutDistance )
+		{
+			final int numDimensions = input.numDimensions();
+
+			source = new int[ numDimensions ][];
+			weight = new float[ numDimensions ][];
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				final int size = (int)input.dimension( d );
+				final int period = 2 * size - 2;
+				final int fadeOutDistance = Math.max( minFadeOutDistance, Math.round( size * relativeFadeOutDistance ) / 2 );
+				final float[] fadeWeights = fadeWeights( fadeOutDistance );
+
+				source[ d ] = new int[ imageSize[ d ] ];
+				weight[ d ] = new float[ imageSize[ d ] ];
+
+				for ( int i = 0; i < imageSize[ d ]; ++i )
+				{
+					final int x = i - imageOffset[ d ];
+
+					if ( period == 0 )
+					{
+						source[ d ][ i ] = 0;
+					}
+					else
+					{
+						int m = x % period;
+
+						if ( m < 0 )
+							m += period;
+
+						source[ d ][ i ] = m < size ? m : period - m;
+					}
+
+					// the distance of the mirrored pixel from the image, the
+					// first one outside has distance 0 (and weight 1)
+					final int distance = x < 0 ? -x - 1 : ( x >= size ? x - size : -1 );
+
+					if ( distance < 0 )
+						weight[ d ][ i ] = 1;
+					else if ( distance < fadeOutDistance )
+						weight[ d ][ i ] = fadeWeights[ distance ];
+					else
+						weight[ d ][ i ] = 0;
+				}
+			}
+		}
+
+		/**
+		 * @return - the weights of the values mirrored from 0...fadeOutDistance-1
+		 *         pixels outside of the image, exactly as tabulated by
+		 *         OutOfBoundsMirrorExpWindowing (falling from 1 to 0)
+		 */
+		static float[] fadeWeights( final int fadeOutDistance )
+		{
+			final float[] weights = new float[ fadeOutDistance ];
+
+			for ( int pos = 0; pos < fadeOutDistance; ++pos )
+			{
+				final float relPos = pos / ( float ) ( fadeOutDistance - 1 );
+
+				weights[ pos ] = ( float ) ( 1 - ( 1 / Math.pow( exponent, 1 - relPos ) ) ) * ( 1 + 1 / ( exponent - 1 ) );
+			}
+
+			return weights;
+		}
+
+		/**
+		 * Fills line with the padded line along dimension 0 at paddedPosition
+		 * (position[ 0 ] is ignored). The image line it is mirrored from is read
+		 * into row, either from the storage or through the {@link RandomAccess}
+		 * of the input.
+		 */
+		< T extends RealType< T > > void readLine( final int[] paddedPosition, final RandomAccessibleInterval< T > input, final RandomAccess< T > inputAccess, final FloatStorage storage,
+				final int[] rowPosition, final float[] row, final float[] line )
+		{
+			float lineWeight = 1;
+
+			rowPosition[ 0 ] = 0;
+
+			for ( int d = 1; d < source.length; ++d )
+			{
+				lineWeight *= weight[ d ][ paddedPosition[ d ] ];
+				rowPosition[ d ] = source[ d ][ paddedPosition[ d ] ];
+			}
+
+			// completely faded out
+			if ( lineWeight == 0 )
+			{
+				Arrays.fill( line, 0 );
+				return;
+			}
+
+			if ( storage != null )
+			{
+				System.arraycopy( storage.plane( rowPosition ), storage.index( rowPosition ), row, 0, row.length );
+			}
+			else
+			{
+				for ( int d = 0; d < source.length; ++d )
+					inputAccess.setPosition( input.min( d ) + rowPosition[ d ], d );
+
+				for ( int x = 0; x < row.length - 1; ++x )
+				{
+					row[ x ] = inputAccess.get().getRealFloat();
+					inputAccess.fwd( 0 );
+				}
+				row[ row.length - 1 ] = inputAccess.get().getRealFloat();
+			}
+
+			final int[] source0 = source[ 0 ];
+			final float[] weight0 = weight[ 0 ];
+
+			for ( int i = 0; i < line.length; ++i )
+				line[ i ] = row[ source0[ i ] ] * weight0[ i ] * lineWeight;
+		}
+	}
+
+	/**
+	 * The float[] storage of an {@link ArrayImg} (a single array) or a
+	 * {@link PlanarImg} (one array per plane) of {@link FloatType} or
+	 * {@link ComplexFloatType}, used to read and write whole lines along
+	 * dimension 0 by array copies.
+	 */
+	final static class FloatStorage
+	{
+		final float[][] planes;
+		final long[] dimensions;
+
+		// the number of dimensions covered by one array
+		final int planeDimensions;
+
+		FloatStorage( final float[][] planes, final long[] dimensions, final int planeDimensions )
+		{
+			this.planes = planes;
+			this.dimensions = dimensions;
+			this.planeDimensions = planeDimensions;
+		}
+
+		/**
+		 * @return - the storage of img, or null if it is not stored in float[]
+		 */
+		static FloatStorage create( final RandomAccessibleInterval< ? > img )
+		{
+			final int n = img.numDimensions();
+			final long[] dimensions = new long[ n ];
+			img.dimensions( dimensions );
+
+			if ( img instanceof ArrayImg )
+			{
+				final Object access = ( ( ArrayImg< ?, ? > ) img ).update( null );
+
+				if ( access instanceof FloatArray )
+					return new FloatStorage( new float[][] { ( ( FloatArray ) access ).getCurrentStorageArray() }, dimensions, n );
+			}
+			else if ( img instanceof PlanarImg )
+			{
+				final PlanarImg< ?, ? > planar = ( PlanarImg< ?, ? > ) img;
+				final float[][] planes = new float[ planar.numSlices() ][];
+
+				for ( int i = 0; i < planes.length; ++i )
+				{
+					final Object plane = planar.getPlane( i );
+
+					if ( !( plane instanceof FloatArray ) )
+						return null;
+
+					planes[ i ] = ( ( FloatArray ) plane ).getCurrentStorageArray();
+				}
+
+				return new FloatStorage( planes, dimensions, Math.min( 2, n ) );
+			}
+
+			return null;
+		}
+
+		/**
+		 * @return - the array containing position
+		 */
+		float[] plane( final int[] position )
+		{
+			int plane = 0;
+
+			for ( int d = dimensions.length - 1; d >= planeDimensions; --d )
+				plane = plane * ( int ) dimensions[ d ] + position[ d ];
+
+			return planes[ plane ];
+		}
+
+		/**
+		 * @return - the index of position inside of its array, in pixels
+		 */
+		int index( final int[] position )
+		{
+			int index = 0;
+
+			for ( int d = planeDimensions - 1; d >= 0; --d )
+				index = index * ( int ) dimensions[ d ] + position[ d ];
+
+			return index;
+		}
+
+		/**
+		 * Fills line with the real values starting at position along dimension
+		 * 0. The part inside of the image is copied from the array, only the
+		 * values outside are read from the out of bounds {@link RandomAccess}.
+		 */
+		< T extends RealType< T > > void readLine( final int[] position, final RandomAccess< T > outOfBounds, final float[] line )
+		{
+			final int size = line.length;
+
+			boolean inside = true;
+			for ( int d = 1; d < dimensions.length; ++d )
+				if ( position[ d ] < 0 || position[ d ] >= dimensions[ d ] )
+					inside = false;
+
+			// the part [from, to) of the line lies inside of the image
+			int from = 0, to = 0;
+
+			if ( inside )
+			{
+				from = ( int ) Math.min( size, Math.max( 0, -position[ 0 ] ) );
+				to = ( int ) Math.max( from, Math.min( size, dimensions[ 0 ] - position[ 0 ] ) );
+			}
+
+			if ( to > from )
+			{
+				final int x = position[ 0 ];
+				position[ 0 ] = x + from;
+				System.arraycopy( plane( position ), index( position ), line, from, to - from );
+				position[ 0 ] = x;
+			}
+
+			if ( from > 0 )
+			{
+				outOfBounds.setPosition( position );
+
+				for ( int i = 0; i < from; ++i )
+				{
+					line[ i ] = outOfBounds.get().getRealFloat();
+					outOfBounds.fwd( 0 );
+				}
+			}
+
+			if ( to < size )
+			{
+				outOfBounds.setPosition( position );
+				outOfBounds.move( to, 0 );
+
+				for ( int i = to; i < size; ++i )
+				{
+					line[ i ] = outOfBounds.get().getRealFloat();
+					outOfBounds.fwd( 0 );
+				}
+			}
+		}
+
+		/**
+		 * Writes numPixels interleaved complex values divided by divisor into
+		 * the line starting at position along dimension 0.
+		 */
+		void writeComplexLine( final int[] position, final float[] line, final int numPixels, final int divisor )
+		{
+			final float[] plane = plane( position );
+			final int offset = index( position ) * 2;
+
+			if ( divisor == 1 )
+			{
+				System.arraycopy( line, 0, plane, offset, numPixels * 2 );
+			}
+			else
+			{
+				for ( int i = 0; i < numPixels * 2; ++i )
+					plane[ offset + i ] = line[ i ] / divisor;
+			}
+		}
+	}
+
+	/**
+	 * Splits the lines of one pass into contiguous blocks that the threads claim
+	 * one after the other. A thread that is done with its block takes the next
+	 * free one, so the load is balanced even if some lines take longer (e.g. are
+	 * skipped when cropping), and every thread touches neighbouring lines only.
+	 */
+	final static class LineBlocks
+	{
+		final long numLines, blockSize;
+
+		final AtomicLong nextBlock = new AtomicLong( 0 );
+
+		LineBlocks( final long numLines, final int numThreads )
+		{
+			this.numLines = numLines;
+
+			// a few blocks per thread so that threads finishing early can help out
+			this.blockSize = Math.max( 1, numLines / ( Math.max( 1, numThreads ) * 4 ) );
+		}
+
+		/**
+		 * @return - the index of the first line of the next free block, or a
+		 *         value &gt;= numLines if all blocks are taken
+		 */
+		long claim()
+		{
+			return nextBlock.getAndIncrement() * blockSize;
+		}
+	}
+
+	/**
+	 * A {@link LocalizingZeroMinIntervalIterator} over all lines that only visits
+	 * the blocks of lines claimed from a {@link LineBlocks} by the thread using it.
+	 */
+	final private static class LineBlockIterator extends LocalizingZeroMinIntervalIterator
+	{
+		final LineBlocks lines;
+
+		long remaining = 0;
+
+		LineBlockIterator( final int[] dimensions, final LineBlocks lines )
+		{
+			super( dimensions );
+
+			this.lines = lines;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if ( remaining > 0 )
+				return true;
+
+			final long first = lines.claim();
+
+			if ( first >= lines.numLines )
+				return false;
+
+			// place the iterator just before the first line of the block
+			reset();
+			if ( first > 0 )
+				jumpFwd( first );
+
+			remaining = Math.min( lines.blockSize, lines.numLines - first );
+
+			return true;
+		}
+
+		@Override
+		public void fwd()
+		{
+			super.fwd();
+			--remaining;
+		}
+	}
 }
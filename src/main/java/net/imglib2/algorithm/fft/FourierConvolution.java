@@ -27,7 +27,10 @@
 
 package net.imglib2.algorithm.fft;
 
+import java.util.Vector;
+
 import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.Benchmark;
@@ -38,7 +41,10 @@ import net.imglib2.algorithm.fft.FourierTransform.Rearrangement;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
-import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.complex.ComplexFloatType;
@@ -75,6 +81,17 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 		return convolution.getResult();
 	}
 
+	/**
+	 * Convolves an image with a Gaussian whose spectrum is computed
+	 * analytically, see {@link #setAnalyticGaussianKernel(double[])}.
+	 */
+	public static < T extends RealType< T > > Img< T > gaussianConvolve( final Img< T > img, final double[] sigmas ) throws IncompatibleTypeException
+	{
+		final FourierConvolution< T, FloatType > convolution = new FourierConvolution< T, FloatType >( img, sigmas, img.factory(), img.factory().imgFactory( new ComplexFloatType() ) );
+		convolution.process();
+		return convolution.getResult();
+	}
+
 	public static < T extends RealType< T >, S extends RealType< S > > Img< T > convolve( final RandomAccessibleInterval< T > input, final RandomAccessibleInterval< S > kernel, final ImgFactory< T > imgFactory, final ImgFactory< S > kernelImgFactory, final ImgFactory< ComplexFloatType > fftImgFactory )
 	{
 		final FourierConvolution< T, S > convolution = new FourierConvolution< T, S >( input, kernel, imgFactory, kernelImgFactory, fftImgFactory );
@@ -102,8 +119,12 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 
 	boolean keepImgFFT = true;
 
+	Bandpass< ? > frequencyFilter = null;
+
 	final int[] kernelDim;
 
+	double[] gaussianSigmas = null;
+
 	String errorMessage = "";
 
 	int numThreads;
@@ -146,6 +167,39 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 		setNumThreads();
 	}
 
+	/**
+	 * Computes a convolution with a Gaussian in Fourier space, see
+	 * {@link #setAnalyticGaussianKernel(double[])}.
+	 * 
+	 * @param image
+	 *            - the input to be convolved
+	 * @param sigmas
+	 *            - the sigmas of the Gaussian in each dimension
+	 * @param imgFactory
+	 *            - the {@link ImgFactory} that is used to compute the convolved
+	 *            image
+	 * @param fftImgFactory
+	 *            - the {@link ImgFactory} that is used to create the FFT's
+	 */
+	public FourierConvolution( final RandomAccessibleInterval< T > image, final double[] sigmas, final ImgFactory< T > imgFactory, final ImgFactory< ComplexFloatType > fftImgFactory )
+	{
+		this.numDimensions = image.numDimensions();
+
+		this.image = image;
+		this.kernel = null;
+		this.fftImgFactory = fftImgFactory;
+		this.imgFactory = imgFactory;
+		this.kernelImgFactory = null;
+
+		this.kernelDim = new int[ numDimensions ];
+		setAnalyticGaussianKernel( sigmas );
+
+		this.kernelFFT = null;
+		this.imgFFT = null;
+
+		setNumThreads();
+	}
+
 	/**
 	 * Computes a convolution in Fourier space.
 	 * 
@@ -218,14 +272,153 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 		return this.keepImgFFT;
 	}
 
+	/**
+	 * Applies a frequency filter during the multiplication in Fourier space,
+	 * i.e. without another pass over the spectrum. The {@link Bandpass.Profile},
+	 * radii and band-pass/band-stop setting of the filter are used, the
+	 * distances are measured from the zero frequency.
+	 * 
+	 * @param frequencyFilter
+	 *            - the filter, null for none
+	 */
+	public void setFrequencyFilter( final Bandpass< ? > frequencyFilter )
+	{
+		this.frequencyFilter = frequencyFilter;
+	}
+
+	public Bandpass< ? > getFrequencyFilter()
+	{
+		return frequencyFilter;
+	}
+
 	public boolean replaceKernel( final RandomAccessibleInterval< S > knl )
 	{
 		this.kernel = knl;
+		this.gaussianSigmas = null;
+
+		final int[] dim = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			dim[ d ] = ( int ) knl.dimension( d );
+		setKernelDim( dim );
+
 		// the fft has to be recomputed
 		this.kernelFFT = null;
 		return true;
 	}
 
+	/**
+	 * Uses a Gaussian as kernel whose Fourier transform is computed
+	 * analytically as a separable product of one-dimensional Gaussians
+	 * (exp(-2 pi^2 sigma^2 f^2) for the frequency f). The spectrum is written
+	 * directly and in parallel into the kernel fft, neither a kernel image nor
+	 * its fft are computed. The image is extended by the size of the kernel
+	 * {@link #createGaussianKernel(ImgFactory, double[])} would create.
+	 * 
+	 * @param sigmas
+	 *            - the sigmas of the Gaussian in each dimension
+	 */
+	public void setAnalyticGaussianKernel( final double[] sigmas )
+	{
+		this.gaussianSigmas = sigmas.clone();
+		this.kernel = null;
+		this.kernelFFT = null;
+
+		final int[] dim = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			dim[ d ] = Util.createGaussianKernel1DDouble( sigmas[ d ], true ).length;
+		setKernelDim( dim );
+	}
+
+	public double[] getAnalyticGaussianKernel()
+	{
+		return gaussianSigmas == null ? null : gaussianSigmas.clone();
+	}
+
+	/**
+	 * Updates the size of the kernel, the image fft has to be recomputed if the
+	 * size changes as the image is extended by the size of the kernel
+	 */
+	protected void setKernelDim( final int[] dim )
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			if ( kernelDim[ d ] != dim[ d ] )
+			{
+				kernelDim[ d ] = dim[ d ];
+				imgFFT = null;
+			}
+		}
+	}
+
+	/**
+	 * Computes the spectrum of a normalized Gaussian centered at the origin
+	 * for an image fft of the given size (whose quadrants are not rearranged)
+	 * 
+	 * @param sigmas
+	 *            - the sigmas of the Gaussian
+	 * @param imgFFT
+	 *            - the size of the fft
+	 * @return - the spectrum
+	 */
+	protected Img< ComplexFloatType > computeGaussianKernelFFT( final double[] sigmas, final Img< ComplexFloatType > imgFFT )
+	{
+		final Img< ComplexFloatType > kernelFFT = fftImgFactory.create( imgFFT, new ComplexFloatType() );
+
+		// the separable factors for every frequency of each dimension
+		final float[][] tables = new float[ numDimensions ][];
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final int size = ( int ) kernelFFT.dimension( d );
+
+			// dimension 0 only contains the positive half of the frequencies of the real image
+			final int realSize = d == 0 ? ( size - 1 ) * 2 : size;
+
+			tables[ d ] = new float[ size ];
+
+			for ( int i = 0; i < size; ++i )
+			{
+				final double f = ( double ) Math.min( i, realSize - i ) / realSize;
+				tables[ d ][ i ] = ( float ) Math.exp( -2 * Math.PI * Math.PI * sigmas[ d ] * sigmas[ d ] * f * f );
+			}
+		}
+
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( kernelFFT.size(), getNumThreads() );
+		final Thread[] threads = SimpleMultiThreading.newThreads( getNumThreads() );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+		{
+			final Chunk chunk = chunks.get( ithread );
+
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Cursor< ComplexFloatType > cursor = kernelFFT.localizingCursor();
+
+					cursor.jumpFwd( chunk.getStartPosition() );
+
+					for ( long j = 0; j < chunk.getLoopSize(); ++j )
+					{
+						cursor.fwd();
+
+						float value = 1;
+
+						for ( int d = 0; d < numDimensions; ++d )
+							value *= tables[ d ][ cursor.getIntPosition( d ) ];
+
+						cursor.get().set( value, 0 );
+					}
+				}
+			} );
+		}
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		return kernelFFT;
+	}
+
 	final public static Img< FloatType > createGaussianKernel( final ImgFactory< FloatType > factory, final double sigma, final int numDimensions )
 	{
 		final double[] sigmas = new double[ numDimensions ];
@@ -313,7 +506,11 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 		//
 		// create the kernel for fourier transform
 		//
-		if ( kernelFFT == null )
+		if ( kernelFFT == null && gaussianSigmas != null )
+		{
+			kernelFFT = computeGaussianKernelFFT( gaussianSigmas, imgFFT );
+		}
+		else if ( kernelFFT == null )
 		{
 			// get the size of the kernel image that will be fourier
 			// transformed,
@@ -336,37 +533,7 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 			// the key here is that the center pixel of the kernel (e.g.
 			// 13,13,13)
 			// is located at (0,0,0)
-			final RandomAccess< S > kernelCursor = kernel.randomAccess();
-			final RandomAccess< S > kernelTemplateCursor = kernelTemplate.randomAccess();
-
-			final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( kernel );
-
-			final int[] position = new int[ numDimensions ];
-			final int[] position2 = new int[ numDimensions ];
-
-			while ( cursorDim.hasNext() )
-			{
-				cursorDim.fwd();
-				cursorDim.localize( position );
-
-				for ( int d = 0; d < numDimensions; ++d )
-				{
-					// the kernel might not be zero-bounded
-					position2[ d ] = position[ d ] + ( int ) kernel.min( d );
-
-					position[ d ] = ( position[ d ] - kernelDim[ d ] / 2 + kernelTemplateDim[ d ] ) % kernelTemplateDim[ d ];
-					/*
-					 * final int tmp = ( position[ d ] - kernelDim[ d ]/2 );
-					 * 
-					 * if ( tmp < 0 ) position[ d ] = kernelTemplateDim[ d ] +
-					 * tmp; else position[ d ] = tmp;
-					 */
-				}
-
-				kernelCursor.setPosition( position2 );
-				kernelTemplateCursor.setPosition( position );
-				kernelTemplateCursor.get().set( kernelCursor.get() );
-			}
+			copyKernelIntoTemplate( kernel, kernelTemplate );
 
 			//
 			// compute FFT of kernel
@@ -403,6 +570,9 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 		final InverseFourierTransform< T, ComplexFloatType > invFFT = new InverseFourierTransform< T, ComplexFloatType >( copy, imgFactory, fftImage );
 		invFFT.setNumThreads( this.getNumThreads() );
 
+		// the product is not needed afterwards, only transform what ends up in the cropped result
+		invFFT.setPruned( true );
+
 		if ( !invFFT.checkInput() || !invFFT.process() )
 		{
 			errorMessage = "InverseFFT of image failed: " + invFFT.getErrorMessage();
@@ -422,6 +592,71 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 		return true;
 	}
 
+	/**
+	 * Copies the kernel into the kernel template so that its center pixel is
+	 * located at the origin (and the other pixels wrap around periodically).
+	 * The kernel is split into chunks processed by separate threads, the
+	 * template is only repositioned where a kernel line starts or wraps.
+	 * 
+	 * @param kernel
+	 * @param kernelTemplate
+	 */
+	protected void copyKernelIntoTemplate( final RandomAccessibleInterval< S > kernel, final Img< S > kernelTemplate )
+	{
+		final IterableInterval< S > iterableKernel = Views.flatIterable( kernel );
+
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( iterableKernel.size(), getNumThreads() );
+		final Thread[] threads = SimpleMultiThreading.newThreads( getNumThreads() );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+		{
+			final Chunk chunk = chunks.get( ithread );
+
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Cursor< S > kernelCursor = iterableKernel.localizingCursor();
+					final RandomAccess< S > kernelTemplateCursor = kernelTemplate.randomAccess();
+
+					final int[] position = new int[ numDimensions ];
+
+					kernelCursor.jumpFwd( chunk.getStartPosition() );
+
+					for ( long j = 0; j < chunk.getLoopSize(); ++j )
+					{
+						kernelCursor.fwd();
+
+						// the kernel might not be zero-bounded
+						final int x = kernelCursor.getIntPosition( 0 ) - ( int ) kernel.min( 0 );
+						final int templateX = ( x - kernelDim[ 0 ] / 2 + ( int ) kernelTemplate.dimension( 0 ) ) % ( int ) kernelTemplate.dimension( 0 );
+
+						if ( j > 0 && x > 0 && templateX > 0 )
+						{
+							// next pixel of the same line that did not wrap
+							kernelTemplateCursor.fwd( 0 );
+						}
+						else
+						{
+							for ( int d = 0; d < numDimensions; ++d )
+							{
+								final int templateDim = ( int ) kernelTemplate.dimension( d );
+								position[ d ] = ( kernelCursor.getIntPosition( d ) - ( int ) kernel.min( d ) - kernelDim[ d ] / 2 + templateDim ) % templateDim;
+							}
+
+							kernelTemplateCursor.setPosition( position );
+						}
+
+						kernelTemplateCursor.get().set( kernelCursor.get() );
+					}
+				}
+			} );
+		}
+
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
 	/**
 	 * Multiply in Fourier Space
 	 * 
@@ -430,16 +665,142 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 	 */
 	protected void multiply( final RandomAccessibleInterval< ComplexFloatType > a, final RandomAccessibleInterval< ComplexFloatType > b )
 	{
-		final Cursor< ComplexFloatType > cursorA = Views.iterable( a ).cursor();
-		final Cursor< ComplexFloatType > cursorB = Views.iterable( b ).cursor();
+		if ( frequencyFilter != null )
+		{
+			multiplyFiltered( a, b );
+			return;
+		}
+
+		final float[] arrayA = floatArray( a );
+		final float[] arrayB = floatArray( b );
+
+		final long numPixels = Views.iterable( a ).size();
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( numPixels, getNumThreads() );
+		final Thread[] threads = SimpleMultiThreading.newThreads( getNumThreads() );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+		{
+			final Chunk chunk = chunks.get( ithread );
+
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if ( arrayA != null && arrayB != null && arrayA.length == arrayB.length )
+					{
+						// both are ArrayImgs, multiply the interleaved complex numbers directly
+						final int from = ( int ) chunk.getStartPosition() * 2;
+						final int to = from + ( int ) chunk.getLoopSize() * 2;
+
+						for ( int i = from; i < to; i += 2 )
+						{
+							final float ar = arrayA[ i ];
+							final float ai = arrayA[ i + 1 ];
+							final float br = arrayB[ i ];
+							final float bi = arrayB[ i + 1 ];
+
+							arrayA[ i ] = ar * br - ai * bi;
+							arrayA[ i + 1 ] = ar * bi + ai * br;
+						}
+					}
+					else
+					{
+						final Cursor< ComplexFloatType > cursorA = Views.iterable( a ).cursor();
+						final Cursor< ComplexFloatType > cursorB = Views.iterable( b ).cursor();
+
+						cursorA.jumpFwd( chunk.getStartPosition() );
+						cursorB.jumpFwd( chunk.getStartPosition() );
+
+						for ( long j = 0; j < chunk.getLoopSize(); ++j )
+						{
+							cursorA.fwd();
+							cursorB.fwd();
+
+							cursorA.get().mul( cursorB.get() );
+						}
+					}
+				}
+			} );
+		}
+
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * Multiply in Fourier Space and apply the frequency filter
+	 * 
+	 * @param a
+	 * @param b
+	 */
+	protected void multiplyFiltered( final RandomAccessibleInterval< ComplexFloatType > a, final RandomAccessibleInterval< ComplexFloatType > b )
+	{
+		final double[][] tables = Bandpass.unshiftedSquaredDistanceTables( a );
 
-		while ( cursorA.hasNext() )
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( Views.iterable( a ).size(), getNumThreads() );
+		final Thread[] threads = SimpleMultiThreading.newThreads( getNumThreads() );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
 		{
-			cursorA.fwd();
-			cursorB.fwd();
+			final Chunk chunk = chunks.get( ithread );
+
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Cursor< ComplexFloatType > cursorA = Views.iterable( a ).localizingCursor();
+					final Cursor< ComplexFloatType > cursorB = Views.iterable( b ).cursor();
+
+					cursorA.jumpFwd( chunk.getStartPosition() );
+					cursorB.jumpFwd( chunk.getStartPosition() );
+
+					for ( long j = 0; j < chunk.getLoopSize(); ++j )
+					{
+						cursorA.fwd();
+						cursorB.fwd();
 
-			cursorA.get().mul( cursorB.get() );
+						double squaredDistance = 0;
+
+						for ( int d = 0; d < numDimensions; ++d )
+							squaredDistance += tables[ d ][ ( int ) ( cursorA.getLongPosition( d ) - a.min( d ) ) ];
+
+						final double weight = frequencyFilter.weight( squaredDistance );
+
+						if ( weight == 0 )
+						{
+							cursorA.get().setZero();
+						}
+						else
+						{
+							cursorA.get().mul( cursorB.get() );
+
+							if ( weight != 1 )
+								cursorA.get().mul( weight );
+						}
+					}
+				}
+			} );
 		}
+
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * @return - the interleaved complex values of a spectrum stored in an
+	 *         {@link ArrayImg}, null otherwise
+	 */
+	protected static float[] floatArray( final RandomAccessibleInterval< ComplexFloatType > img )
+	{
+		if ( img instanceof ArrayImg )
+		{
+			final Object access = ( ( ArrayImg< ?, ? > ) img ).update( null );
+
+			if ( access instanceof FloatArray )
+				return ( ( FloatArray ) access ).getCurrentStorageArray();
+		}
+
+		return null;
 	}
 
 	@Override
@@ -483,16 +844,16 @@ public class FourierConvolution< T extends RealType< T >, S extends RealType< S
 			return false;
 		}
 
-		if ( kernel == null )
+		if ( kernel == null && gaussianSigmas == null )
 		{
 			errorMessage = "Kernel image is null";
 			return false;
 		}
 
 		for ( int d = 0; d < numDimensions; ++d )
-			if ( kernel.dimension( d ) % 2 != 1 )
+			if ( kernelDim[ d ] % 2 != 1 )
 			{
-				errorMessage = "Kernel image has NO odd dimensionality in dim " + d + " (" + kernel.dimension( d ) + ")";
+				errorMessage = "Kernel image has NO odd dimensionality in dim " + d + " (" + kernelDim[ d ] + ")";
 				return false;
 			}
 
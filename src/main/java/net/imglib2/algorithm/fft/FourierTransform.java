@@ -34,12 +34,12 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.Benchmark;
 import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.OutputAlgorithm;
+import net.imglib2.algorithm.fft2.FFTSizePlanner;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
 import net.imglib2.outofbounds.OutOfBoundsFactory;
-import net.imglib2.outofbounds.OutOfBoundsMirrorExpWindowingFactory;
 import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
 import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
 import net.imglib2.type.numeric.ComplexType;
@@ -59,7 +59,11 @@ public class FourierTransform<T extends RealType<T>, S extends ComplexType<S>> i
 {
 	public static enum PreProcessing { NONE, EXTEND_MIRROR, EXTEND_MIRROR_FADING, USE_GIVEN_OUTOFBOUNDSSTRATEGY }
 	public static enum Rearrangement { REARRANGE_QUADRANTS, UNCHANGED }
-	public static enum FFTOptimization { SPEED, MEMORY }
+	/**
+	 * SPEED pads to {@link FftReal#nfftFast(int)}, MEMORY to {@link FftReal#nfftSmall(int)} (and the
+	 * complex equivalents), AUTO chooses per dimension with an {@link FFTCostModel} within the memory budget
+	 */
+	public static enum FFTOptimization { SPEED, MEMORY, AUTO }
 	
 	final RandomAccessibleInterval<T> input;
 	final Interval interval;
@@ -72,11 +76,17 @@ public class FourierTransform<T extends RealType<T>, S extends ComplexType<S>> i
 	PreProcessing preProcessing;
 	Rearrangement rearrangement;
 	FFTOptimization fftOptimization;	
+	FFTSizePlanner fftSizePlanner = null;
+	FFTCostModel fftCostModel = new FFTCostModel();
+	long memoryBudget = Long.MAX_VALUE;
 	float relativeImageExtensionRatio;
 	int[] imageExtension;
 	float relativeFadeOutDistance;
 	int minExtension;
 	int[] originalSize, originalOffset, extendedSize, extendedZeroPaddedSize;
+
+	// the strategy to extend the input with, set by computeSizes()
+	OutOfBoundsFactory<T, RandomAccessibleInterval<T>> outOfBoundsFactory;
 	
 	// if you want the image to be extended more use that
 	int[] inputSize = null, inputSizeOffset = null;
@@ -195,6 +205,18 @@ public class FourierTransform<T extends RealType<T>, S extends ComplexType<S>> i
 	}
 	public void setRearrangement( final Rearrangement rearrangement ) { this.rearrangement = rearrangement; }
 	public void setFFTOptimization( final FFTOptimization fftOptimization ) { this.fftOptimization = fftOptimization; }
+	/**
+	 * @param fftSizePlanner - if not null, the padded size is chosen by benchmarking instead of the {@link FFTOptimization}
+	 */
+	public void setFFTSizePlanner( final FFTSizePlanner fftSizePlanner ) { this.fftSizePlanner = fftSizePlanner; }
+	/**
+	 * @param fftCostModel - the model used by {@link FFTOptimization#AUTO}, e.g. with measured timings
+	 */
+	public void setFFTCostModel( final FFTCostModel fftCostModel ) { this.fftCostModel = fftCostModel; }
+	/**
+	 * @param memoryBudget - the maximal size of the spectrum in bytes for {@link FFTOptimization#AUTO}
+	 */
+	public void setMemoryBudget( final long memoryBudget ) { this.memoryBudget = memoryBudget; }
 	public void setRelativeFadeOutDistance( final float relativeFadeOutDistance ) { this.relativeFadeOutDistance = relativeFadeOutDistance; }
 	public void setMinExtension( final int minExtension ) { this.minExtension = minExtension; }	
 	public void setImageExtension( final int[] imageExtension ) { this.imageExtension = imageExtension.clone(); }
@@ -244,6 +266,9 @@ public class FourierTransform<T extends RealType<T>, S extends ComplexType<S>> i
 	public PreProcessing getPreProcessing() { return preProcessing; }
 	public Rearrangement getRearrangement() { return rearrangement; }
 	public FFTOptimization getFFOptimization() { return fftOptimization; }
+	public FFTSizePlanner getFFTSizePlanner() { return fftSizePlanner; }
+	public FFTCostModel getFFTCostModel() { return fftCostModel; }
+	public long getMemoryBudget() { return memoryBudget; }
 	public float getRelativeImageExtension() { return relativeImageExtensionRatio; } 
 	public int[] getImageExtension() { return imageExtension.clone(); }
 	public float getRelativeFadeOutDistance() { return relativeFadeOutDistance; }
@@ -269,10 +294,40 @@ public class FourierTransform<T extends RealType<T>, S extends ComplexType<S>> i
 	{		
 		final long startTime = System.currentTimeMillis();
 
+		if ( !computeSizes() )
+			return false;
+
 		//
 		// perform FFT on the temporary image
 		//			
-		final OutOfBoundsFactory<T, RandomAccessibleInterval<T>> outOfBoundsFactory;		
+		if ( preProcessing == PreProcessing.EXTEND_MIRROR_FADING )
+			fftImage = FFTFunctions.computeFFT( input, imgFactory, complexType, relativeFadeOutDistance, originalOffset, extendedZeroPaddedSize, getNumThreads(), false );
+		else
+			fftImage = FFTFunctions.computeFFT( input, imgFactory, complexType, outOfBoundsFactory, originalOffset, extendedZeroPaddedSize, getNumThreads(), false );
+		
+		if ( fftImage == null )
+		{
+			errorMessage = "Could not compute the FFT transformation, most likely out of memory";
+			return false;
+		}
+
+		// rearrange quadrants if wanted
+		if ( rearrangement == Rearrangement.REARRANGE_QUADRANTS )
+			FFTFunctions.rearrangeFFTQuadrants( fftImage, true, getNumThreads() );
+			
+        processingTime = System.currentTimeMillis() - startTime;
+
+        return true;
+	}	
+
+	/**
+	 * Computes the padded size, the offset of the input inside of it and the strategy to extend the input
+	 * with, without transforming anything (used by {@link #process()} and {@link FourierTransformStream}).
+	 * 
+	 * @return - false if the parameters are invalid, see {@link #getErrorMessage()}
+	 */
+	boolean computeSizes()
+	{
 		switch ( preProcessing )
 		{
 			case USE_GIVEN_OUTOFBOUNDSSTRATEGY:
@@ -295,8 +350,9 @@ public class FourierTransform<T extends RealType<T>, S extends ComplexType<S>> i
 			}			
 			case EXTEND_MIRROR_FADING:
 			{
+				// mirroring and fading are applied per line by FFTFunctions
 				extendedZeroPaddedSize = getZeroPaddingSize( getExtendedImageSize( input, imageExtension ), fftOptimization );
-				outOfBoundsFactory = new OutOfBoundsMirrorExpWindowingFactory< T, RandomAccessibleInterval<T> >( relativeFadeOutDistance );				
+				outOfBoundsFactory = null;
 				break;
 			}			
 			default: // or NONE
@@ -328,24 +384,9 @@ public class FourierTransform<T extends RealType<T>, S extends ComplexType<S>> i
 			
 			originalOffset[ d ] = ( extendedZeroPaddedSize[ d ] - (int)input.dimension( d ) ) / 2;			
 		}
-		
-		
-		fftImage = FFTFunctions.computeFFT( input, imgFactory, complexType, outOfBoundsFactory, originalOffset, extendedZeroPaddedSize, getNumThreads(), false );
-		
-		if ( fftImage == null )
-		{
-			errorMessage = "Could not compute the FFT transformation, most likely out of memory";
-			return false;
-		}
-
-		// rearrange quadrants if wanted
-		if ( rearrangement == Rearrangement.REARRANGE_QUADRANTS )
-			FFTFunctions.rearrangeFFTQuadrants( fftImage, true, getNumThreads() );
-			
-        processingTime = System.currentTimeMillis() - startTime;
 
-        return true;
-	}	
+		return true;
+	}
 				
 	protected int[] getExtendedImageSize( final RandomAccessibleInterval<?> input, final int[] imageExtension )
 	{
@@ -364,6 +405,19 @@ public class FourierTransform<T extends RealType<T>, S extends ComplexType<S>> i
 	{
 		final int[] fftSize = new int[ imageSize.length ];
 		
+		if ( fftSizePlanner != null )
+		{
+			fftSize[ 0 ] = fftSizePlanner.realSize( imageSize[ 0 ], imageSize.length );
+			
+			for ( int d = 1; d < fftSize.length; ++d )
+				fftSize[ d ] = fftSizePlanner.complexSize( imageSize[ d ], imageSize.length );
+			
+			return fftSize;
+		}
+		
+		if ( fftOptimization == FFTOptimization.AUTO )
+			return fftCostModel.paddedSize( imageSize, memoryBudget );
+
 		// the first dimension is real to complex
 		if ( fftOptimization == FFTOptimization.SPEED )
 			fftSize[ 0 ] = FftReal.nfftFast( imageSize[ 0 ] );
@@ -397,6 +451,19 @@ public class FourierTransform<T extends RealType<T>, S extends ComplexType<S>> i
 	@Override
 	public Img<S> getResult() { return fftImage; }
 
+	/**
+	 * @return - the result with the quadrants rearranged, if {@link Rearrangement#UNCHANGED} was used this is a
+	 * view (see {@link FFTFunctions#centeredView(RandomAccessibleInterval)}) so the spectrum does not need to
+	 * be rearranged (and rearranged back for the {@link InverseFourierTransform})
+	 */
+	public RandomAccessibleInterval<S> getCenteredResult()
+	{
+		if ( rearrangement == Rearrangement.REARRANGE_QUADRANTS || fftImage == null )
+			return fftImage;
+
+		return FFTFunctions.centeredView( fftImage );
+	}
+
 	@Override
 	public boolean checkInput() 
 	{
@@ -0,0 +1,461 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fft.FFTFunctions.FloatStorage;
+import net.imglib2.algorithm.fft.FFTFunctions.LineBlocks;
+import net.imglib2.algorithm.fft.FFTFunctions.MirrorFading;
+import net.imglib2.algorithm.fft.FourierTransform.PreProcessing;
+import net.imglib2.algorithm.fft.FourierTransform.Rearrangement;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.outofbounds.OutOfBoundsFactory;
+import net.imglib2.type.numeric.ComplexType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Computes the Fourier transforms of a stream of frames of identical size (e.g. the time points of a 2d+t
+ * acquisition) with the parameters of a {@link FourierTransform}. {@link FourierTransform#process()} creates the
+ * spectrum, the threads, the {@link FftReal}/{@link FftComplex} instances and the line buffers for every image,
+ * which for small frames costs more than the transform itself. Here everything is set up once: the padded size
+ * and the offset are computed from the {@link FourierTransform} given, a fixed pool of threads is started and every
+ * thread keeps its own transforms and buffers for all frames. The spectra are written into images supplied by the
+ * caller, or taken from a pool that images can be returned to by {@link #recycle(Img)}.
+ * 
+ * The spectra are the same as computed by {@link FourierTransform#process()}. The quadrants are rearranged by the
+ * same threads while they write the transformed lines, without another pass over the spectrum. {@link #close()}
+ * stops the threads.
+ *
+ * @param <T> - the frames, {@link RealType}
+ * @param <S> - the spectra, {@link ComplexType}
+ */
+public class FourierTransformStream< T extends RealType< T >, S extends ComplexType< S > > implements AutoCloseable
+{
+	final int numDimensions;
+	final long[] frameSize, complexSize;
+	final int[] paddedSize, offset;
+
+	final ImgFactory< S > imgFactory;
+	final S complexType;
+	final Rearrangement rearrangement;
+
+	// the lines are written rearranged, reversed in dimension 0 and shifted by half of the size in all others
+	final boolean rearrange;
+
+	// either the out of bounds strategy or the fading windows are used to extend the frames
+	final OutOfBoundsFactory< T, RandomAccessibleInterval< T > > outOfBoundsFactory;
+	final MirrorFading fading;
+
+	// the lines along dimension 0 and, for all other dimensions, the tiles of lines transformed together
+	final long[] lineDimensions;
+	final int[] tileLines, tilesPerRow;
+	final long[][] rowDimensions;
+
+	final int numThreads;
+	final ExecutorService service;
+	final ArrayList< Worker > workers = new ArrayList< Worker >();
+
+	final ArrayDeque< Img< S > > pool = new ArrayDeque< Img< S > >();
+
+	// the frame that is transformed right now, read by all workers
+	RandomAccessibleInterval< T > frame;
+	Img< S > spectrum;
+	FloatStorage inputStorage, outputStorage;
+	LineBlocks blocks;
+	int dim;
+
+	/**
+	 * @param configuration - defines the size of the frames (the size of its input), how they are extended and
+	 * padded, the rearrangement of the spectra and the number of threads
+	 */
+	public FourierTransformStream( final FourierTransform< T, S > configuration )
+	{
+		if ( !configuration.computeSizes() )
+			throw new IllegalArgumentException( configuration.getErrorMessage() );
+
+		this.numDimensions = configuration.numDimensions;
+		this.frameSize = Intervals.dimensionsAsLongArray( configuration.input );
+		this.paddedSize = configuration.extendedZeroPaddedSize.clone();
+		this.offset = configuration.getOriginalOffset();
+		this.imgFactory = configuration.imgFactory;
+		this.complexType = configuration.complexType;
+		this.rearrangement = configuration.getRearrangement();
+		this.rearrange = rearrangement == Rearrangement.REARRANGE_QUADRANTS;
+		this.numThreads = Math.max( 1, configuration.getNumThreads() );
+
+		if ( configuration.getPreProcessing() == PreProcessing.EXTEND_MIRROR_FADING )
+		{
+			this.outOfBoundsFactory = null;
+			this.fading = new MirrorFading( configuration.input, offset, paddedSize, configuration.getRelativeFadeOutDistance() );
+		}
+		else
+		{
+			this.outOfBoundsFactory = configuration.outOfBoundsFactory;
+			this.fading = null;
+		}
+
+		complexSize = new long[ numDimensions ];
+		complexSize[ 0 ] = paddedSize[ 0 ] / 2 + 1;
+
+		for ( int d = 1; d < numDimensions; ++d )
+			complexSize[ d ] = paddedSize[ d ];
+
+		lineDimensions = new long[ numDimensions - 1 ];
+
+		for ( int d = 1; d < numDimensions; ++d )
+			lineDimensions[ d - 1 ] = complexSize[ d ];
+
+		// the same tiling as FFTFunctions uses for the complex passes
+		tileLines = new int[ numDimensions ];
+		tilesPerRow = new int[ numDimensions ];
+		rowDimensions = new long[ numDimensions ][];
+
+		final int width = ( int ) complexSize[ 0 ];
+
+		for ( int d = 1; d < numDimensions; ++d )
+		{
+			tileLines[ d ] = Math.max( 1, Math.min( Math.min( width, FFTFunctions.maxTileLines ), FFTFunctions.maxTileSize / ( paddedSize[ d ] * 2 ) ) );
+			tilesPerRow[ d ] = ( width + tileLines[ d ] - 1 ) / tileLines[ d ];
+
+			rowDimensions[ d ] = new long[ numDimensions - 2 ];
+
+			int countDim = 0;
+			for ( int e = 1; e < numDimensions; ++e )
+				if ( e != d )
+					rowDimensions[ d ][ countDim++ ] = complexSize[ e ];
+		}
+
+		service = Executors.newFixedThreadPool( numThreads );
+
+		for ( int i = 0; i < numThreads; ++i )
+			workers.add( new Worker() );
+	}
+
+	/**
+	 * @return - the dimensions of the spectra
+	 */
+	public long[] getSpectrumSize() { return complexSize.clone(); }
+	public int[] getPaddedSize() { return paddedSize.clone(); }
+	public int[] getOffset() { return offset.clone(); }
+	public Rearrangement getRearrangement() { return rearrangement; }
+	public int getNumThreads() { return numThreads; }
+
+	/**
+	 * Transforms a frame into an image taken from the pool, or a new one if the pool is empty.
+	 * 
+	 * @param frame - the frame, same size as the input of the {@link FourierTransform} given
+	 * @return - the spectrum, can be returned to the pool by {@link #recycle(Img)}
+	 */
+	public Img< S > transform( final RandomAccessibleInterval< T > frame )
+	{
+		Img< S > output;
+
+		synchronized ( pool )
+		{
+			output = pool.poll();
+		}
+
+		if ( output == null )
+			output = imgFactory.create( complexSize, complexType );
+
+		transform( frame, output );
+
+		return output;
+	}
+
+	/**
+	 * Returns a spectrum to the pool, it is overwritten by one of the next frames.
+	 */
+	public void recycle( final Img< S > spectrum )
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+			if ( spectrum.dimension( d ) != complexSize[ d ] )
+				throw new IllegalArgumentException( "Spectrum has size " + Util.printInterval( spectrum ) + ", expected " + Util.printCoordinates( complexSize ) );
+
+		synchronized ( pool )
+		{
+			pool.push( spectrum );
+		}
+	}
+
+	/**
+	 * Transforms a frame into a given spectrum.
+	 * 
+	 * @param frame - the frame, same size as the input of the {@link FourierTransform} given
+	 * @param output - the spectrum, of size {@link #getSpectrumSize()}
+	 */
+	public synchronized void transform( final RandomAccessibleInterval< T > frame, final Img< S > output )
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			if ( frame.dimension( d ) != frameSize[ d ] )
+				throw new IllegalArgumentException( "Frame has size " + Util.printInterval( frame ) + ", expected " + Util.printCoordinates( frameSize ) );
+
+			if ( output.dimension( d ) != complexSize[ d ] )
+				throw new IllegalArgumentException( "Spectrum has size " + Util.printInterval( output ) + ", expected " + Util.printCoordinates( complexSize ) );
+		}
+
+		this.frame = frame;
+		this.spectrum = output;
+		this.inputStorage = Util.getTypeFromInterval( frame ) instanceof FloatType ? FloatStorage.create( frame ) : null;
+		this.outputStorage = Util.getTypeFromInterval( output ) instanceof ComplexFloatType ? FloatStorage.create( output ) : null;
+
+		try
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				dim = d;
+
+				if ( d == 0 )
+					blocks = new LineBlocks( Intervals.numElements( lineDimensions ), numThreads );
+				else
+					blocks = new LineBlocks( Intervals.numElements( rowDimensions[ d ] ) * tilesPerRow[ d ], numThreads );
+
+				for ( final Future< Void > future : service.invokeAll( workers ) )
+					future.get();
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Fourier transform was interrupted.", e );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new RuntimeException( "Fourier transform failed: " + e.getCause(), e.getCause() );
+		}
+		finally
+		{
+			this.frame = null;
+			this.spectrum = null;
+			this.inputStorage = this.outputStorage = null;
+		}
+	}
+
+	/**
+	 * Stops the threads, the stream cannot be used anymore.
+	 */
+	@Override
+	public void close()
+	{
+		service.shutdown();
+	}
+
+	/**
+	 * One thread of the stream, keeps its transforms and buffers for all frames.
+	 */
+	final class Worker implements Callable< Void >
+	{
+		final FftReal fftReal;
+		final FftComplex[] fftComplex;
+
+		final float[] tempIn, tempOut, row;
+		final float[][][] tiles;
+
+		final int[] paddedPosition, framePosition, rowPosition;
+		final long[] linePosition, tilePosition, position;
+
+		Worker()
+		{
+			fftReal = new FftReal( paddedSize[ 0 ] );
+			fftComplex = new FftComplex[ numDimensions ];
+			tiles = new float[ numDimensions ][][];
+
+			for ( int d = 1; d < numDimensions; ++d )
+			{
+				fftComplex[ d ] = new FftComplex( paddedSize[ d ] );
+				tiles[ d ] = new float[ paddedSize[ d ] ][ tileLines[ d ] * 2 ];
+			}
+
+			tempIn = new float[ paddedSize[ 0 ] ];
+			tempOut = new float[ ( int ) complexSize[ 0 ] * 2 ];
+			row = new float[ ( int ) frameSize[ 0 ] ];
+
+			paddedPosition = new int[ numDimensions ];
+			framePosition = new int[ numDimensions ];
+			rowPosition = new int[ numDimensions ];
+			linePosition = new long[ Math.max( 1, numDimensions - 1 ) ];
+			tilePosition = new long[ Math.max( 1, numDimensions - 2 ) ];
+			position = new long[ numDimensions ];
+		}
+
+		@Override
+		public Void call()
+		{
+			if ( dim == 0 )
+				realToComplex();
+			else
+				complexToComplex( dim );
+
+			return null;
+		}
+
+		/**
+		 * Reads, extends and transforms the lines along dimension 0.
+		 */
+		private void realToComplex()
+		{
+			final RandomAccess< T > in = fading == null ? Views.extend( frame, outOfBoundsFactory ).randomAccess() : frame.randomAccess();
+			final RandomAccess< S > out = spectrum.randomAccess();
+
+			final int realSize = paddedSize[ 0 ];
+			final int complexSize0 = ( int ) complexSize[ 0 ];
+
+			for ( long first = blocks.claim(); first < blocks.numLines; first = blocks.claim() )
+			{
+				final long last = Math.min( first + blocks.blockSize, blocks.numLines );
+
+				for ( long l = first; l < last; ++l )
+				{
+					if ( numDimensions > 1 )
+						IntervalIndexer.indexToPosition( l, lineDimensions, linePosition );
+
+					paddedPosition[ 0 ] = 0;
+					framePosition[ 0 ] = -offset[ 0 ] + ( int ) frame.min( 0 );
+
+					for ( int d = 1; d < numDimensions; ++d )
+					{
+						paddedPosition[ d ] = ( int ) linePosition[ d - 1 ];
+						framePosition[ d ] = paddedPosition[ d ] - offset[ d ] + ( int ) frame.min( d );
+					}
+
+					if ( fading != null )
+					{
+						fading.readLine( paddedPosition, frame, in, inputStorage, rowPosition, row, tempIn );
+					}
+					else if ( inputStorage != null )
+					{
+						inputStorage.readLine( framePosition, in, tempIn );
+					}
+					else
+					{
+						in.setPosition( framePosition );
+
+						for ( int x = 0; x < realSize; ++x )
+						{
+							tempIn[ x ] = in.get().getRealFloat();
+							in.fwd( 0 );
+						}
+					}
+
+					fftReal.realToComplex( -1, tempIn, tempOut );
+
+					if ( rearrange )
+						reverse( tempOut, complexSize0 );
+
+					if ( outputStorage != null )
+					{
+						outputStorage.writeComplexLine( paddedPosition, tempOut, complexSize0, 1 );
+					}
+					else
+					{
+						out.setPosition( paddedPosition );
+
+						for ( int x = 0; x < complexSize0; ++x )
+						{
+							out.get().setComplexNumber( tempOut[ x * 2 ], tempOut[ x * 2 + 1 ] );
+							out.fwd( 0 );
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Reverses the order of the first numPixels interleaved complex values.
+		 */
+		private void reverse( final float[] line, final int numPixels )
+		{
+			for ( int i = 0, j = ( numPixels - 1 ) * 2; i < j; i += 2, j -= 2 )
+			{
+				final float re = line[ i ];
+				final float im = line[ i + 1 ];
+
+				line[ i ] = line[ j ];
+				line[ i + 1 ] = line[ j + 1 ];
+				line[ j ] = re;
+				line[ j + 1 ] = im;
+			}
+		}
+
+		/**
+		 * Transforms tiles of lines along dimension d that are adjacent in dimension 0 (see
+		 * FFTFunctions.computeComplexFFTBlocked).
+		 */
+		private void complexToComplex( final int d )
+		{
+			final RandomAccess< S > cursor = spectrum.randomAccess();
+
+			final int size = paddedSize[ d ];
+			final int width = ( int ) complexSize[ 0 ];
+
+			for ( long first = blocks.claim(); first < blocks.numLines; first = blocks.claim() )
+			{
+				final long last = Math.min( first + blocks.blockSize, blocks.numLines );
+
+				for ( long t = first; t < last; ++t )
+				{
+					final int x0 = ( int ) ( t % tilesPerRow[ d ] ) * tileLines[ d ];
+					final int n = Math.min( tileLines[ d ], width - x0 );
+
+					if ( numDimensions > 2 )
+						IntervalIndexer.indexToPosition( t / tilesPerRow[ d ], rowDimensions[ d ], tilePosition );
+
+					position[ 0 ] = spectrum.min( 0 ) + x0;
+					position[ d ] = spectrum.min( d );
+
+					int countRow = 0;
+					for ( int e = 1; e < numDimensions; ++e )
+						if ( e != d )
+							position[ e ] = spectrum.min( e ) + tilePosition[ countRow++ ];
+
+					FFTFunctions.transformTile( cursor, position, d, n, tiles[ d ], fftComplex[ d ], -1, false, rearrange ? size / 2 : 0 );
+				}
+			}
+		}
+	}
+}
@@ -63,7 +63,7 @@ public class InverseFourierTransform<T extends RealType<T>, S extends ComplexTyp
 	String errorMessage = "";
 	int numThreads;
 	long processingTime;
-	boolean scale, cropBack;
+	boolean scale, cropBack, pruned;
 	int[] originalSize, originalOffset; 
 	float additionalNormalization;
 
@@ -170,12 +170,22 @@ public class InverseFourierTransform<T extends RealType<T>, S extends ComplexTyp
 	public void setOriginalOffset( final int[] originalOffset ) { this.originalOffset = originalOffset; }
 	public void setAdditionalNormalization( final float additionalNormalization ) { this.additionalNormalization = additionalNormalization; }
 
+	/**
+	 * If the result is cropped back to the original size, only the lines that intersect the crop
+	 * window are transformed in each pass. This saves a large share of the work for strongly padded
+	 * images, but the input then contains partially transformed garbage afterwards.
+	 * 
+	 * @param pruned - skip the lines outside of the crop window
+	 */
+	public void setPruned( final boolean pruned ) { this.pruned = pruned; }
+
 	public Rearrangement getRearrangement() { return rearrangement; }
 	public boolean getDoScaling() { return scale; }
 	public boolean getCropBackToOriginalSize() { return cropBack; }
 	public int[] getOriginalSize() { return originalSize.clone(); }
 	public int[] getOriginalOffset() { return originalOffset.clone(); }
 	public float getAdditionalNormalization() { return additionalNormalization; }
+	public boolean getPruned() { return pruned; }
 
 	@Override
 	public boolean process() 
@@ -189,7 +199,7 @@ public class InverseFourierTransform<T extends RealType<T>, S extends ComplexTyp
 			FFTFunctions.rearrangeFFTQuadrants( complex, false, getNumThreads() );
 
 		// perform inverse FFT 					
-		image = FFTFunctions.computeInverseFFT( complex, imgFactory, type, getNumThreads(), scale, cropBack, originalSize, originalOffset, additionalNormalization );
+		image = FFTFunctions.computeInverseFFT( complex, imgFactory, type, getNumThreads(), scale, cropBack, originalSize, originalOffset, additionalNormalization, pruned );
 		
 		processingTime = System.currentTimeMillis() - startTime;
 
@@ -0,0 +1,883 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
+import net.imglib2.view.ExtendedRandomAccessibleInterval;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.MixedTransformView;
+import net.imglib2.view.TransformView;
+import net.imglib2.view.Views;
+
+/**
+ * Convolves an image with an arbitrary kernel using the fastest of three
+ * strategies: Fourier space ({@link FFTConvolution}), direct summation in
+ * image space, or one 1d convolution per axis if the kernel is separable
+ * (rank-1, e.g. a Gaussian as created by
+ * {@link net.imglib2.algorithm.fft.FourierConvolution#createGaussianKernel(net.imglib2.img.ImgFactory, double, int)}).
+ *
+ * The strategy is chosen by a {@link CostModel} that estimates the runtime of
+ * each strategy from the image and kernel size. By default the cost model is
+ * calibrated once on this machine the first time it is needed. All strategies
+ * compute the same result as {@link FFTConvolution}, the image is extended by
+ * mirroring with single boundary and the center of the kernel is at
+ * kernelMin + kernelDimension / 2. Deconvolution ({@link #setDiv(boolean)})
+ * is only possible in Fourier space.
+ *
+ * The output may be the image itself (or a view of it). Direct and separable
+ * convolution read the image while writing the output, so in that case the
+ * automatic selection uses {@link Strategy#FFT} and an explicitly selected
+ * {@link Strategy#DIRECT} or {@link Strategy#SEPARABLE} writes through a
+ * temporary image.
+ */
+public class AdaptiveConvolution< R extends RealType< R > >
+{
+	public static enum Strategy { FFT, DIRECT, SEPARABLE }
+
+	final RandomAccessible< R > img;
+
+	final Interval imgInterval;
+
+	final RandomAccessibleInterval< R > kernel, output;
+
+	final ImgFactory< ComplexFloatType > fftFactory;
+
+	// null means automatic selection
+	Strategy strategy = null;
+
+	Strategy chosenStrategy = null;
+
+	boolean complexConjugate = false;
+
+	boolean div = false;
+
+	double separableTolerance = 1e-5;
+
+	// null means the model calibrated on this machine
+	CostModel costModel = null;
+
+	// passed to the FFTConvolution, null disables caching
+	KernelFFTCache kernelFFTCache = KernelFFTCache.shared();
+
+	private ExecutorService service;
+
+	/**
+	 * @param img
+	 *            - the image, will be extended by mirroring with single
+	 *            boundary
+	 * @param kernel
+	 *            - the convolution kernel, will be zero-padded
+	 * @param output
+	 *            - the output, same size as the image
+	 * @param factory
+	 *            - the {@link ImgFactory} to create the fourier transforms if
+	 *            convolving in Fourier space
+	 * @param service
+	 *            - service providing threads for multi-threading, if null one
+	 *            will be created on {@link #convolve()}
+	 */
+	public AdaptiveConvolution( final RandomAccessibleInterval< R > img, final RandomAccessibleInterval< R > kernel, final RandomAccessibleInterval< R > output, final ImgFactory< ComplexFloatType > factory, final ExecutorService service )
+	{
+		this( Views.extendMirrorSingle( img ), img, kernel, output, factory, service );
+	}
+
+	/**
+	 * @param img
+	 *            - the input, needs to be extended or infinite already
+	 * @param imgInterval
+	 *            - the input interval (i.e. the area to be convolved)
+	 * @param kernel
+	 *            - the convolution kernel, will be zero-padded
+	 * @param output
+	 *            - the output, same size as imgInterval
+	 * @param factory
+	 *            - the {@link ImgFactory} to create the fourier transforms if
+	 *            convolving in Fourier space
+	 * @param service
+	 *            - service providing threads for multi-threading, if null one
+	 *            will be created on {@link #convolve()}
+	 */
+	public AdaptiveConvolution( final RandomAccessible< R > img, final Interval imgInterval, final RandomAccessibleInterval< R > kernel, final RandomAccessibleInterval< R > output, final ImgFactory< ComplexFloatType > factory, final ExecutorService service )
+	{
+		this.img = img;
+		this.imgInterval = imgInterval;
+		this.kernel = kernel;
+		this.output = output;
+		this.fftFactory = factory;
+		this.service = service;
+	}
+
+	/**
+	 * @param strategy
+	 *            - the strategy to use, null selects it automatically
+	 */
+	public void setStrategy( final Strategy strategy )
+	{
+		this.strategy = strategy;
+	}
+
+	public Strategy getStrategy()
+	{
+		return strategy;
+	}
+
+	/**
+	 * @return - the strategy used by the last call of {@link #convolve()}
+	 */
+	public Strategy getChosenStrategy()
+	{
+		return chosenStrategy;
+	}
+
+	/**
+	 * @param complexConjugate
+	 *            - compute the correlation instead of the convolution
+	 */
+	public void setComputeComplexConjugate( final boolean complexConjugate )
+	{
+		this.complexConjugate = complexConjugate;
+	}
+
+	public boolean getComplexConjugate()
+	{
+		return complexConjugate;
+	}
+
+	/**
+	 * @param div - perform deconvolution instead of convolution (always in
+	 *            Fourier space).
+	 */
+	public void setDiv( final boolean div )
+	{
+		this.div = div;
+	}
+
+	public boolean getDiv()
+	{
+		return div;
+	}
+
+	/**
+	 * @param separableTolerance
+	 *            - the maximal deviation of the kernel from the product of its
+	 *            1d factors, relative to the largest kernel value
+	 */
+	public void setSeparableTolerance( final double separableTolerance )
+	{
+		this.separableTolerance = separableTolerance;
+	}
+
+	/**
+	 * @param costModel
+	 *            - the cost model, null uses the one calibrated on this
+	 *            machine
+	 */
+	public void setCostModel( final CostModel costModel )
+	{
+		this.costModel = costModel;
+	}
+
+	/**
+	 * @param kernelFFTCache
+	 *            - the cache for kernel spectra used by {@link Strategy#FFT},
+	 *            null disables caching
+	 */
+	public void setKernelFFTCache( final KernelFFTCache kernelFFTCache )
+	{
+		this.kernelFFTCache = kernelFFTCache;
+	}
+
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	public void convolve()
+	{
+		if ( service == null )
+		{
+			final ExecutorService executor = FFTConvolution.createExecutorService();
+			try
+			{
+				convolve( executor );
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		else
+		{
+			convolve( service );
+		}
+	}
+
+	private void convolve( final ExecutorService executor )
+	{
+		final double[][] factors = div ? null : separableFactors( kernel, separableTolerance );
+
+		final boolean aliased = outputAliasesImage();
+
+		chosenStrategy = chooseStrategy( factors, aliased, executor );
+
+		if ( chosenStrategy == Strategy.FFT )
+		{
+			convolveFFT( executor );
+			return;
+		}
+
+		if ( chosenStrategy == Strategy.SEPARABLE && factors == null )
+			throw new IllegalStateException( "The kernel is not separable." );
+
+		// do not overwrite pixels that are still to be read
+		final RandomAccessibleInterval< ? extends RealType< ? > > target;
+
+		if ( aliased )
+			target = Views.translate( createTmp( imgInterval ), Intervals.minAsLongArray( imgInterval ) );
+		else
+			target = outputInImageCoordinates();
+
+		if ( chosenStrategy == Strategy.DIRECT )
+			convolveDirect( target, executor );
+		else
+			convolveSeparable( factors, target, executor );
+
+		if ( aliased )
+			copy( target, outputInImageCoordinates() );
+	}
+
+	protected Strategy chooseStrategy( final double[][] factors, final boolean aliased, final ExecutorService executor )
+	{
+		if ( strategy != null )
+			return strategy;
+
+		if ( div || aliased )
+			return Strategy.FFT;
+
+		final CostModel model = costModel == null ? CostModel.calibrated( executor ) : costModel;
+
+		final double fft = model.fft( imgInterval, kernel );
+		final double direct = model.direct( imgInterval, kernel );
+		final double separable = factors == null ? Double.MAX_VALUE : model.separable( imgInterval, kernel );
+
+		if ( separable <= direct && separable <= fft )
+			return Strategy.SEPARABLE;
+		else if ( direct <= fft )
+			return Strategy.DIRECT;
+		else
+			return Strategy.FFT;
+	}
+
+	protected void convolveFFT( final ExecutorService executor )
+	{
+		final FFTConvolution< R > fftConvolution = new FFTConvolution< R >(
+				img, imgInterval,
+				Views.extendValue( kernel, Util.getTypeFromInterval( kernel ).createVariable() ), kernel,
+				output, fftFactory, executor );
+
+		fftConvolution.setComputeComplexConjugate( complexConjugate );
+		fftConvolution.setDiv( div );
+		fftConvolution.setKernelFFTCache( kernelFFTCache );
+		fftConvolution.convolve();
+	}
+
+	/**
+	 * Sums up the kernel-weighted neighborhood of every output pixel.
+	 */
+	protected void convolveDirect( final RandomAccessibleInterval< ? extends RealType< ? > > target, final ExecutorService executor )
+	{
+		final int numDimensions = imgInterval.numDimensions();
+
+		// the non-zero kernel values and the offset of the image pixel they
+		// are multiplied with, stored as the step from the previous offset
+		final ArrayList< Double > weightList = new ArrayList< Double >();
+		final ArrayList< long[] > offsetList = new ArrayList< long[] >();
+
+		final Cursor< R > kernelCursor = Views.flatIterable( kernel ).localizingCursor();
+
+		while ( kernelCursor.hasNext() )
+		{
+			final double w = kernelCursor.next().getRealDouble();
+
+			if ( w == 0 )
+				continue;
+
+			final long[] offset = new long[ numDimensions ];
+
+			for ( int d = 0; d < numDimensions; ++d )
+				offset[ d ] = offset( kernelCursor.getLongPosition( d ), kernel, d, complexConjugate );
+
+			weightList.add( w );
+			offsetList.add( offset );
+		}
+
+		final int numWeights = weightList.size();
+		final double[] weights = new double[ numWeights ];
+		final long[][] steps = new long[ numWeights ][ numDimensions ];
+
+		for ( int i = 0; i < numWeights; ++i )
+		{
+			weights[ i ] = weightList.get( i );
+
+			for ( int d = 0; d < numDimensions; ++d )
+				steps[ i ][ d ] = offsetList.get( i )[ d ] - ( i == 0 ? 0 : offsetList.get( i - 1 )[ d ] );
+		}
+
+		final long numPixels = Intervals.numElements( target );
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( numPixels, FFTConvolution.numTasks( executor, numPixels, numWeights ) );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( final Chunk chunk : chunks )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final Cursor< ? extends RealType< ? > > cursor = Views.flatIterable( target ).localizingCursor();
+					final RandomAccess< R > ra = img.randomAccess();
+
+					cursor.jumpFwd( chunk.getStartPosition() );
+
+					for ( long j = 0; j < chunk.getLoopSize(); ++j )
+					{
+						cursor.fwd();
+						ra.setPosition( cursor );
+
+						double sum = 0;
+
+						for ( int i = 0; i < numWeights; ++i )
+						{
+							ra.move( steps[ i ] );
+							sum += weights[ i ] * ra.get().getRealDouble();
+						}
+
+						cursor.get().setReal( sum );
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		FFTConvolution.invokeAll( tasks, executor );
+	}
+
+	/**
+	 * Convolves with one 1d kernel per dimension. The pass along dimension d
+	 * covers the image interval extended by the kernel in all dimensions
+	 * larger than d, so that the following passes find all the values they
+	 * need.
+	 */
+	protected void convolveSeparable( final double[][] factors, final RandomAccessibleInterval< ? extends RealType< ? > > target, final ExecutorService executor )
+	{
+		final int numDimensions = imgInterval.numDimensions();
+
+		// how far the 1d kernels reach below and above a pixel
+		final long[] lowReach = new long[ numDimensions ];
+		final long[] highReach = new long[ numDimensions ];
+		final double[][] kernels1D = new double[ numDimensions ][];
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final int size = ( int ) kernel.dimension( d );
+
+			final long o1 = offset( kernel.min( d ), kernel, d, complexConjugate );
+			final long o2 = offset( kernel.max( d ), kernel, d, complexConjugate );
+
+			lowReach[ d ] = -Math.min( o1, o2 );
+			highReach[ d ] = Math.max( o1, o2 );
+
+			// ordered by offset, i.e. kernels1D[ d ][ o + lowReach ]
+			kernels1D[ d ] = new double[ size ];
+
+			for ( int j = 0; j < size; ++j )
+				kernels1D[ d ][ ( int ) ( offset( kernel.min( d ) + j, kernel, d, complexConjugate ) + lowReach[ d ] ) ] = factors[ d ][ j ];
+		}
+
+		RandomAccessible< ? extends RealType< ? > > source = img;
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			if ( d == numDimensions - 1 )
+			{
+				convolveLines( source, target, d, kernels1D[ d ], lowReach[ d ], executor );
+			}
+			else
+			{
+				final long[] min = new long[ numDimensions ];
+				final long[] max = new long[ numDimensions ];
+
+				for ( int e = 0; e < numDimensions; ++e )
+				{
+					min[ e ] = imgInterval.min( e ) - ( e > d ? lowReach[ e ] : 0 );
+					max[ e ] = imgInterval.max( e ) + ( e > d ? highReach[ e ] : 0 );
+				}
+
+				final FinalInterval interval = new FinalInterval( min, max );
+				final RandomAccessibleInterval< DoubleType > tmp = Views.translate( createTmp( interval ), min );
+
+				convolveLines( source, tmp, d, kernels1D[ d ], lowReach[ d ], executor );
+
+				source = tmp;
+			}
+		}
+	}
+
+	/**
+	 * Convolves all lines of the target along dimension d with a 1d kernel,
+	 * target( x ) = sum_j kernel[ j ] * source( x + j - lowReach ).
+	 */
+	protected static void convolveLines(
+			final RandomAccessible< ? extends RealType< ? > > source,
+			final RandomAccessibleInterval< ? extends RealType< ? > > target,
+			final int d,
+			final double[] kernel1D,
+			final long lowReach,
+			final ExecutorService executor )
+	{
+		final int numDimensions = target.numDimensions();
+		final int length = ( int ) target.dimension( d );
+		final int kernelLength = kernel1D.length;
+
+		// iterate over all lines, i.e. the target with dimension d collapsed
+		final long[] lineDimensions = Intervals.dimensionsAsLongArray( target );
+		lineDimensions[ d ] = 1;
+
+		final long numLines = Intervals.numElements( lineDimensions );
+
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( numLines, FFTConvolution.numTasks( executor, numLines, ( long ) length * kernelLength ) );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( final Chunk chunk : chunks )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final LocalizingZeroMinIntervalIterator it = new LocalizingZeroMinIntervalIterator( lineDimensions );
+					final RandomAccess< ? extends RealType< ? > > in = source.randomAccess();
+					final RandomAccess< ? extends RealType< ? > > out = target.randomAccess();
+
+					final long[] position = new long[ numDimensions ];
+					final double[] line = new double[ length + kernelLength - 1 ];
+
+					it.jumpFwd( chunk.getStartPosition() );
+
+					for ( long l = 0; l < chunk.getLoopSize(); ++l )
+					{
+						it.fwd();
+						it.localize( position );
+
+						for ( int e = 0; e < numDimensions; ++e )
+							position[ e ] += target.min( e );
+
+						// read the line including the values the kernel reaches
+						position[ d ] = target.min( d ) - lowReach;
+						in.setPosition( position );
+
+						for ( int i = 0; i < line.length; ++i )
+						{
+							line[ i ] = in.get().getRealDouble();
+							in.fwd( d );
+						}
+
+						position[ d ] = target.min( d );
+						out.setPosition( position );
+
+						for ( int i = 0; i < length; ++i )
+						{
+							double sum = 0;
+
+							for ( int j = 0; j < kernelLength; ++j )
+								sum += kernel1D[ j ] * line[ i + j ];
+
+							out.get().setReal( sum );
+							out.fwd( d );
+						}
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		FFTConvolution.invokeAll( tasks, executor );
+	}
+
+	/**
+	 * @return - the output translated to the coordinates of the image interval
+	 */
+	protected RandomAccessibleInterval< R > outputInImageCoordinates()
+	{
+		final long[] translation = new long[ imgInterval.numDimensions() ];
+
+		for ( int d = 0; d < translation.length; ++d )
+			translation[ d ] = imgInterval.min( d ) - output.min( d );
+
+		return Views.translate( output, translation );
+	}
+
+	/**
+	 * @return - true if the output may share pixels with the part of the
+	 *         image the convolution reads, i.e. both are views of the same
+	 *         source and the output overlaps the image interval extended by
+	 *         the kernel (always if a view transforms the coordinates)
+	 */
+	protected boolean outputAliasesImage()
+	{
+		if ( source( img ) != source( output ) )
+			return false;
+
+		if ( !preservesCoordinates( img ) || !preservesCoordinates( output ) )
+			return true;
+
+		final long[] border = Intervals.dimensionsAsLongArray( kernel );
+		final Interval read = Intervals.expand( imgInterval, border );
+
+		return !Intervals.isEmpty( Intervals.intersect( read, output ) );
+	}
+
+	/**
+	 * @return - the object underneath all views
+	 */
+	protected static Object source( Object view )
+	{
+		while ( true )
+		{
+			if ( view instanceof IntervalView )
+				view = ( ( IntervalView< ? > ) view ).getSource();
+			else if ( view instanceof ExtendedRandomAccessibleInterval )
+				view = ( ( ExtendedRandomAccessibleInterval< ?, ? > ) view ).getSource();
+			else if ( view instanceof MixedTransformView )
+				view = ( ( MixedTransformView< ? > ) view ).getSource();
+			else if ( view instanceof TransformView )
+				view = ( ( TransformView< ? > ) view ).getSource();
+			else
+				return view;
+		}
+	}
+
+	/**
+	 * @return - true if all views on the way to the source keep its
+	 *         coordinates
+	 */
+	protected static boolean preservesCoordinates( Object view )
+	{
+		while ( true )
+		{
+			if ( view instanceof IntervalView )
+				view = ( ( IntervalView< ? > ) view ).getSource();
+			else if ( view instanceof ExtendedRandomAccessibleInterval )
+				view = ( ( ExtendedRandomAccessibleInterval< ?, ? > ) view ).getSource();
+			else
+				return !( view instanceof MixedTransformView || view instanceof TransformView );
+		}
+	}
+
+	protected static void copy( final RandomAccessibleInterval< ? extends RealType< ? > > source, final RandomAccessibleInterval< ? extends RealType< ? > > target )
+	{
+		final Cursor< ? extends RealType< ? > > in = Views.flatIterable( source ).cursor();
+		final Cursor< ? extends RealType< ? > > out = Views.flatIterable( target ).cursor();
+
+		while ( in.hasNext() )
+			out.next().setReal( in.next().getRealDouble() );
+	}
+
+	protected static Img< DoubleType > createTmp( final Interval interval )
+	{
+		final long[] dimensions = Intervals.dimensionsAsLongArray( interval );
+
+		if ( Intervals.numElements( dimensions ) > Integer.MAX_VALUE )
+			return new CellImgFactory<>( new DoubleType(), 256 ).create( dimensions );
+
+		return ArrayImgs.doubles( dimensions );
+	}
+
+	/**
+	 * @return - the offset of the image pixel that is multiplied with the
+	 *         kernel value at the given position (in dimension d), relative
+	 *         to the output pixel
+	 */
+	protected static long offset( final long kernelPosition, final Interval kernel, final int d, final boolean complexConjugate )
+	{
+		final long center = kernel.min( d ) + kernel.dimension( d ) / 2;
+
+		if ( complexConjugate )
+			return kernelPosition - center;
+		else
+			return center - kernelPosition;
+	}
+
+	/**
+	 * Tests whether the kernel is separable (rank-1), i.e. the product of one
+	 * 1d kernel per dimension. The factors are derived from the lines through
+	 * the largest absolute kernel value.
+	 *
+	 * @param kernel
+	 *            - the kernel
+	 * @param tolerance
+	 *            - the maximal deviation of each kernel value from the product
+	 *            of the factors, relative to the largest absolute kernel value
+	 * @return - the 1d factors (factors[ d ][ j ] for kernel position min( d )
+	 *         + j) or null if the kernel is not separable
+	 */
+	public static < R extends RealType< R > > double[][] separableFactors( final RandomAccessibleInterval< R > kernel, final double tolerance )
+	{
+		final int numDimensions = kernel.numDimensions();
+
+		if ( Intervals.numElements( kernel ) > Integer.MAX_VALUE )
+			return null;
+
+		final double[] values = new double[ ( int ) Intervals.numElements( kernel ) ];
+
+		int i = 0;
+		int maxIndex = 0;
+
+		for ( final R t : Views.flatIterable( kernel ) )
+		{
+			values[ i ] = t.getRealDouble();
+
+			if ( Math.abs( values[ i ] ) > Math.abs( values[ maxIndex ] ) )
+				maxIndex = i;
+
+			++i;
+		}
+
+		final double max = values[ maxIndex ];
+
+		if ( max == 0 )
+			return null;
+
+		final int[] dimensions = new int[ numDimensions ];
+		final int[] strides = new int[ numDimensions ];
+		final int[] maxPosition = new int[ numDimensions ];
+
+		for ( int d = 0, stride = 1; d < numDimensions; ++d )
+		{
+			dimensions[ d ] = ( int ) kernel.dimension( d );
+			strides[ d ] = stride;
+			maxPosition[ d ] = ( maxIndex / stride ) % dimensions[ d ];
+			stride *= dimensions[ d ];
+		}
+
+		// the lines through the maximum, all but the first normalized to 1 at
+		// the maximum
+		final double[][] factors = new double[ numDimensions ][];
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			factors[ d ] = new double[ dimensions[ d ] ];
+
+			final int lineStart = maxIndex - maxPosition[ d ] * strides[ d ];
+
+			for ( int j = 0; j < dimensions[ d ]; ++j )
+				factors[ d ][ j ] = values[ lineStart + j * strides[ d ] ] / ( d == 0 ? 1 : max );
+		}
+
+		// verify every value
+		final double maxError = tolerance * Math.abs( max );
+
+		for ( int index = 0; index < values.length; ++index )
+		{
+			double product = 1;
+
+			for ( int d = 0; d < numDimensions; ++d )
+				product *= factors[ d ][ ( index / strides[ d ] ) % dimensions[ d ] ];
+
+			if ( Math.abs( product - values[ index ] ) > maxError )
+				return null;
+		}
+
+		return factors;
+	}
+
+	/**
+	 * Estimates the runtime of the strategies. The direct and separable
+	 * convolution are modeled as a cost per multiply-add, the convolution in
+	 * Fourier space as a cost per N*log2(N) of the padded size N (including
+	 * forward and inverse transform and the multiplication).
+	 */
+	public static class CostModel
+	{
+		private static CostModel calibrated = null;
+
+		final double nsPerDirectMultiplyAdd, nsPerSeparableMultiplyAdd, nsPerFFTElement;
+
+		/**
+		 * @param nsPerDirectMultiplyAdd
+		 *            - nanoseconds per multiply-add of the direct convolution
+		 * @param nsPerSeparableMultiplyAdd
+		 *            - nanoseconds per multiply-add of the separable
+		 *            convolution
+		 * @param nsPerFFTElement
+		 *            - nanoseconds per N*log2(N) of the Fourier convolution
+		 */
+		public CostModel( final double nsPerDirectMultiplyAdd, final double nsPerSeparableMultiplyAdd, final double nsPerFFTElement )
+		{
+			this.nsPerDirectMultiplyAdd = nsPerDirectMultiplyAdd;
+			this.nsPerSeparableMultiplyAdd = nsPerSeparableMultiplyAdd;
+			this.nsPerFFTElement = nsPerFFTElement;
+		}
+
+		public double direct( final Interval imgInterval, final Interval kernel )
+		{
+			return nsPerDirectMultiplyAdd * Intervals.numElements( imgInterval ) * Intervals.numElements( kernel );
+		}
+
+		public double separable( final Interval imgInterval, final Interval kernel )
+		{
+			final int numDimensions = imgInterval.numDimensions();
+
+			double multiplyAdds = 0;
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				// the pass along d covers the image extended in all larger
+				// dimensions
+				double size = kernel.dimension( d );
+
+				for ( int e = 0; e < numDimensions; ++e )
+					size *= imgInterval.dimension( e ) + ( e > d ? kernel.dimension( e ) - 1 : 0 );
+
+				multiplyAdds += size;
+			}
+
+			return nsPerSeparableMultiplyAdd * multiplyAdds;
+		}
+
+		public double fft( final Interval imgInterval, final Interval kernel )
+		{
+			final long[] min = new long[ imgInterval.numDimensions() ];
+			final long[] max = new long[ imgInterval.numDimensions() ];
+
+			final Pair< Interval, Interval > fftIntervals = FFTConvolution.setupFFTs( imgInterval, kernel, min, max );
+			final double n = Intervals.numElements( fftIntervals.getA() );
+
+			return nsPerFFTElement * n * Math.max( 1, Math.log( n ) / Math.log( 2 ) );
+		}
+
+		/**
+		 * @return - the cost model calibrated on this machine, calibrated on
+		 *         the first call
+		 */
+		public static synchronized CostModel calibrated( final ExecutorService service )
+		{
+			if ( calibrated == null )
+				calibrated = calibrate( service );
+
+			return calibrated;
+		}
+
+		/**
+		 * Measures the cost of every strategy on a synthetic 2d image.
+		 */
+		public static CostModel calibrate( final ExecutorService service )
+		{
+			final Random rnd = new Random( 1 );
+
+			final Img< FloatType > image = ArrayImgs.floats( 128, 128 );
+			for ( final FloatType t : image )
+				t.set( rnd.nextFloat() );
+
+			// a separable kernel
+			final Img< FloatType > kernel = ArrayImgs.floats( 7, 7 );
+			final Cursor< FloatType > c = kernel.localizingCursor();
+			while ( c.hasNext() )
+			{
+				c.fwd();
+				c.get().set( ( 1 + c.getIntPosition( 0 ) ) * ( 7 - c.getIntPosition( 1 ) ) );
+			}
+
+			final Img< FloatType > output = ArrayImgs.floats( 128, 128 );
+
+			final double direct = time( image, kernel, output, Strategy.DIRECT, service );
+			final double separable = time( image, kernel, output, Strategy.SEPARABLE, service );
+			final double fft = time( image, kernel, output, Strategy.FFT, service );
+
+			// normalize by the units of work of the unit cost model
+			final CostModel unit = new CostModel( 1, 1, 1 );
+
+			return new CostModel(
+					direct / unit.direct( image, kernel ),
+					separable / unit.separable( image, kernel ),
+					fft / unit.fft( image, kernel ) );
+		}
+
+		/**
+		 * @return - the fastest of five runs in nanoseconds
+		 */
+		private static double time( final Img< FloatType > image, final Img< FloatType > kernel, final Img< FloatType > output, final Strategy strategy, final ExecutorService service )
+		{
+			final AdaptiveConvolution< FloatType > convolution = new AdaptiveConvolution< FloatType >(
+					image, kernel, output, new ArrayImgFactory<>( new ComplexFloatType() ), service );
+			convolution.setStrategy( strategy );
+
+			// repeated runs must not hit the spectrum cached by the first one
+			convolution.setKernelFFTCache( null );
+
+			long best = Long.MAX_VALUE;
+
+			for ( int i = 0; i < 5; ++i )
+			{
+				final long start = System.nanoTime();
+				convolution.convolve();
+				best = Math.min( best, System.nanoTime() - start );
+			}
+
+			return best;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import net.imglib2.img.basictypeaccess.FloatAccess;
+
+/**
+ * A {@link FloatAccess} stored outside of the Java heap, either in direct
+ * {@link ByteBuffer}s or in a memory-mapped file. As a single buffer is limited
+ * to 2^31 bytes, the values are split into chunks of 2^28 floats.
+ *
+ * The memory is released by {@link #release()}, afterwards the access must
+ * not be used anymore. If it is never released, the memory is freed once the
+ * access is garbage collected (and a mapped file is deleted on exit).
+ */
+public class BufferFloatAccess implements FloatAccess
+{
+	final static int chunkBits = 28;
+
+	final static int chunkSize = 1 << chunkBits;
+
+	final static int chunkMask = chunkSize - 1;
+
+	final long numEntities;
+
+	private ByteBuffer[] buffers;
+
+	private FloatBuffer[] chunks;
+
+	// the mapped file if it could not be deleted while mapped
+	private File file;
+
+	/**
+	 * Allocates direct {@link ByteBuffer}s.
+	 *
+	 * @param numEntities
+	 *            - the number of floats
+	 */
+	public BufferFloatAccess( final long numEntities )
+	{
+		this.numEntities = numEntities;
+
+		final int numChunks = numChunks( numEntities );
+
+		this.buffers = new ByteBuffer[ numChunks ];
+		this.chunks = new FloatBuffer[ numChunks ];
+
+		for ( int c = 0; c < numChunks; ++c )
+		{
+			buffers[ c ] = ByteBuffer.allocateDirect( chunkLength( c ) * 4 ).order( ByteOrder.nativeOrder() );
+			chunks[ c ] = buffers[ c ].asFloatBuffer();
+		}
+	}
+
+	/**
+	 * Maps a new temporary file.
+	 *
+	 * @param numEntities
+	 *            - the number of floats
+	 * @param directory
+	 *            - the directory of the temporary file, null for the default
+	 *            temporary directory
+	 */
+	public BufferFloatAccess( final long numEntities, final File directory ) throws IOException
+	{
+		this.numEntities = numEntities;
+
+		final int numChunks = numChunks( numEntities );
+
+		this.buffers = new ByteBuffer[ numChunks ];
+		this.chunks = new FloatBuffer[ numChunks ];
+
+		final File f = File.createTempFile( "imglib2-fft", ".raw", directory );
+		final RandomAccessFile raf = new RandomAccessFile( f, "rw" );
+
+		try
+		{
+			raf.setLength( numEntities * 4 );
+
+			final FileChannel channel = raf.getChannel();
+
+			for ( int c = 0; c < numChunks; ++c )
+			{
+				buffers[ c ] = channel.map( MapMode.READ_WRITE, ( long ) c * chunkSize * 4, chunkLength( c ) * 4L ).order( ByteOrder.nativeOrder() );
+				chunks[ c ] = buffers[ c ].asFloatBuffer();
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		// the mapping stays valid after deleting the file on most systems
+		if ( !f.delete() )
+		{
+			f.deleteOnExit();
+			this.file = f;
+		}
+	}
+
+	@Override
+	public float getValue( final int index )
+	{
+		return chunks[ index >>> chunkBits ].get( index & chunkMask );
+	}
+
+	@Override
+	public void setValue( final int index, final float value )
+	{
+		chunks[ index >>> chunkBits ].put( index & chunkMask, value );
+	}
+
+	public long numEntities()
+	{
+		return numEntities;
+	}
+
+	/**
+	 * Frees the memory (or unmaps the file) immediately if the JVM allows it,
+	 * otherwise it is freed on the next garbage collection.
+	 */
+	public synchronized void release()
+	{
+		if ( buffers == null )
+			return;
+
+		for ( final ByteBuffer buffer : buffers )
+			clean( buffer );
+
+		buffers = null;
+		chunks = null;
+
+		if ( file != null && file.delete() )
+			file = null;
+	}
+
+	public synchronized boolean isReleased()
+	{
+		return buffers == null;
+	}
+
+	private int chunkLength( final int c )
+	{
+		return ( int ) Math.min( chunkSize, numEntities - ( long ) c * chunkSize );
+	}
+
+	private static int numChunks( final long numEntities )
+	{
+		return ( int ) Math.max( 1, ( numEntities + chunkSize - 1 ) / chunkSize );
+	}
+
+	/**
+	 * Best effort to free a direct or mapped buffer without waiting for the
+	 * garbage collector, using sun.misc.Unsafe.invokeCleaner (Java 9+) or the
+	 * cleaner of the buffer (Java 8).
+	 */
+	private static void clean( final ByteBuffer buffer )
+	{
+		try
+		{
+			final Class< ? > unsafeClass = Class.forName( "sun.misc.Unsafe" );
+			final Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+			theUnsafe.setAccessible( true );
+			final Method invokeCleaner = unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class );
+			invokeCleaner.invoke( theUnsafe.get( null ), buffer );
+			return;
+		}
+		catch ( final Exception e )
+		{
+			// not Java 9+
+		}
+
+		try
+		{
+			final Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+			cleanerMethod.setAccessible( true );
+			final Object cleaner = cleanerMethod.invoke( buffer );
+
+			if ( cleaner != null )
+				cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+		}
+		catch ( final Exception e )
+		{
+			// the garbage collector will free it
+		}
+	}
+}
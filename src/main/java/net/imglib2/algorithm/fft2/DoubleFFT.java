@@ -0,0 +1,550 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexDoubleType;
+import net.imglib2.util.Intervals;
+
+/**
+ * Fourier transforms computed entirely in double precision, the counterpart
+ * of {@link FFT#realToComplex(RandomAccessibleInterval, RandomAccessibleInterval, ExecutorService)}
+ * and {@link FFT#complexToRealUnpad(RandomAccessibleInterval, RandomAccessibleInterval, ExecutorService)}
+ * for {@link ComplexDoubleType} spectra. The FFTs of {@link FFTMethods} always
+ * compute in float, even if the spectrum is stored as double.
+ *
+ * An instance is a one-dimensional mixed-radix transform of a fixed length,
+ * it is efficient for lengths with small prime factors such as the sizes
+ * chosen by {@link FFTMethods#dimensionsRealToComplexFast}. Instances keep
+ * scratch arrays and must not be shared between threads.
+ */
+public class DoubleFFT
+{
+	final int n;
+
+	// the radices the length is decomposed into
+	final int[] factors;
+
+	// cos and sin of 2 * pi * k / n
+	final double[] cos, sin;
+
+	// scratch space for the input and output of a transform and the values of one butterfly
+	final double[] tmpRe, tmpIm, bufRe, bufIm, yRe, yIm;
+
+	public DoubleFFT( final int n )
+	{
+		this.n = n;
+		this.factors = factorize( n );
+
+		cos = new double[ n ];
+		sin = new double[ n ];
+
+		for ( int k = 0; k < n; ++k )
+		{
+			cos[ k ] = Math.cos( 2 * Math.PI * k / n );
+			sin[ k ] = Math.sin( 2 * Math.PI * k / n );
+		}
+
+		int maxFactor = 1;
+		for ( final int f : factors )
+			maxFactor = Math.max( maxFactor, f );
+
+		tmpRe = new double[ n ];
+		tmpIm = new double[ n ];
+		bufRe = new double[ n ];
+		bufIm = new double[ n ];
+		yRe = new double[ maxFactor ];
+		yIm = new double[ maxFactor ];
+	}
+
+	public int size()
+	{
+		return n;
+	}
+
+	/**
+	 * Computes the unscaled complex-to-complex transform in place,
+	 * X[ k ] = sum_j x[ j ] exp( sign * 2 * pi * i * j * k / n ).
+	 * 
+	 * @param sign
+	 *            - -1 for the forward, 1 for the inverse transform
+	 */
+	public void complexToComplex( final int sign, final double[] re, final double[] im )
+	{
+		System.arraycopy( re, 0, tmpRe, 0, n );
+		System.arraycopy( im, 0, tmpIm, 0, n );
+
+		transform( tmpRe, tmpIm, 0, 1, re, im, 0, n, 0, sign );
+	}
+
+	/**
+	 * Computes the forward transform of a real line of length n into n/2+1
+	 * interleaved complex values.
+	 */
+	public void realToComplex( final double[] in, final double[] out )
+	{
+		System.arraycopy( in, 0, tmpRe, 0, n );
+
+		for ( int i = 0; i < n; ++i )
+			tmpIm[ i ] = 0;
+
+		transform( tmpRe, tmpIm, 0, 1, bufRe, bufIm, 0, n, 0, -1 );
+
+		for ( int k = 0; k <= n / 2; ++k )
+		{
+			out[ k * 2 ] = bufRe[ k ];
+			out[ k * 2 + 1 ] = bufIm[ k ];
+		}
+	}
+
+	/**
+	 * Computes the unscaled inverse transform of n/2+1 interleaved complex
+	 * values (the non-redundant half of a hermitian spectrum) into a real
+	 * line of length n.
+	 */
+	public void complexToReal( final double[] in, final double[] out )
+	{
+		// the second half of the spectrum is conjugate symmetric to the first
+		for ( int k = 0; k <= n / 2; ++k )
+		{
+			tmpRe[ k ] = in[ k * 2 ];
+			tmpIm[ k ] = in[ k * 2 + 1 ];
+		}
+
+		for ( int k = n / 2 + 1; k < n; ++k )
+		{
+			tmpRe[ k ] = in[ ( n - k ) * 2 ];
+			tmpIm[ k ] = -in[ ( n - k ) * 2 + 1 ];
+		}
+
+		transform( tmpRe, tmpIm, 0, 1, bufRe, bufIm, 0, n, 0, 1 );
+
+		System.arraycopy( bufRe, 0, out, 0, n );
+	}
+
+	/**
+	 * Decimation in time, the length is split into factors[ factor ] decimated
+	 * sequences that are transformed recursively into consecutive blocks of the
+	 * output and combined by butterflies of that radix. The input is never
+	 * modified and must not overlap the output.
+	 */
+	private void transform( final double[] inRe, final double[] inIm, final int inOffset, final int stride,
+			final double[] outRe, final double[] outIm, final int outOffset, final int length, final int factor, final int sign )
+	{
+		if ( length == 1 )
+		{
+			outRe[ outOffset ] = inRe[ inOffset ];
+			outIm[ outOffset ] = inIm[ inOffset ];
+			return;
+		}
+
+		final int p = factors[ factor ];
+		final int m = length / p;
+
+		for ( int j = 0; j < p; ++j )
+			transform( inRe, inIm, inOffset + j * stride, stride * p, outRe, outIm, outOffset + j * m, m, factor + 1, sign );
+
+		// exponents of the twiddle factors of this length and of the radix
+		final int lengthStep = n / length;
+		final int radixStep = n / p;
+
+		for ( int k = 0; k < m; ++k )
+		{
+			// the k-th value of all sub transforms, multiplied by the twiddle factors
+			for ( int j = 0; j < p; ++j )
+			{
+				final int index = outOffset + j * m + k;
+				final int w = ( j * k * lengthStep ) % n;
+				final double wr = cos[ w ];
+				final double wi = sign * sin[ w ];
+
+				yRe[ j ] = outRe[ index ] * wr - outIm[ index ] * wi;
+				yIm[ j ] = outRe[ index ] * wi + outIm[ index ] * wr;
+			}
+
+			// a DFT of length p, writes to the positions the values were read from
+			for ( int q = 0; q < p; ++q )
+			{
+				double sumRe = yRe[ 0 ];
+				double sumIm = yIm[ 0 ];
+
+				for ( int j = 1; j < p; ++j )
+				{
+					final int w = ( ( j * q ) % p ) * radixStep;
+					final double wr = cos[ w ];
+					final double wi = sign * sin[ w ];
+
+					sumRe += yRe[ j ] * wr - yIm[ j ] * wi;
+					sumIm += yRe[ j ] * wi + yIm[ j ] * wr;
+				}
+
+				outRe[ outOffset + q * m + k ] = sumRe;
+				outIm[ outOffset + q * m + k ] = sumIm;
+			}
+		}
+	}
+
+	/**
+	 * @return - the prime factors of n (fours first), the radices of the
+	 *         transform
+	 */
+	protected static int[] factorize( int n )
+	{
+		final ArrayList< Integer > factors = new ArrayList< Integer >();
+
+		while ( n % 4 == 0 )
+		{
+			factors.add( 4 );
+			n /= 4;
+		}
+
+		for ( int f = 2; f * f <= n; ++f )
+		{
+			while ( n % f == 0 )
+			{
+				factors.add( f );
+				n /= f;
+			}
+		}
+
+		if ( n > 1 )
+			factors.add( n );
+
+		final int[] array = new int[ factors.size() ];
+
+		for ( int i = 0; i < array.length; ++i )
+			array[ i ] = factors.get( i );
+
+		return array;
+	}
+
+	/**
+	 * Computes the unscaled forward FFT of a real-valued image into a
+	 * {@link ComplexDoubleType} image in double precision. The input is read
+	 * starting at its min, the output has the dimensions of the input except
+	 * for dimension 0, which is input.dimension( 0 ) / 2 + 1.
+	 * 
+	 * @param input
+	 *            - the real-valued (padded) input
+	 * @param output
+	 *            - the spectrum
+	 * @param service
+	 *            - service providing threads for multi-threading
+	 */
+	public static < R extends RealType< R > > void realToComplex(
+			final RandomAccessibleInterval< R > input,
+			final RandomAccessibleInterval< ComplexDoubleType > output,
+			final ExecutorService service )
+	{
+		final int realSize = ( int ) input.dimension( 0 );
+		final int complexSize = ( int ) output.dimension( 0 );
+
+		final long[] lineDimensions = Intervals.dimensionsAsLongArray( output );
+		lineDimensions[ 0 ] = 1;
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( final Chunk chunk : chunks( lineDimensions, realSize, service ) )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final DoubleFFT fft = new DoubleFFT( realSize );
+					final LocalizingZeroMinIntervalIterator it = new LocalizingZeroMinIntervalIterator( lineDimensions );
+					final RandomAccess< R > in = input.randomAccess();
+					final RandomAccess< ComplexDoubleType > out = output.randomAccess();
+
+					final long[] position = new long[ lineDimensions.length ];
+					final double[] line = new double[ realSize ];
+					final double[] spectrum = new double[ complexSize * 2 ];
+
+					it.jumpFwd( chunk.getStartPosition() );
+
+					for ( long l = 0; l < chunk.getLoopSize(); ++l )
+					{
+						it.fwd();
+						it.localize( position );
+
+						for ( int d = 0; d < position.length; ++d )
+							in.setPosition( input.min( d ) + position[ d ], d );
+
+						for ( int i = 0; i < realSize; ++i )
+						{
+							line[ i ] = in.get().getRealDouble();
+							in.fwd( 0 );
+						}
+
+						fft.realToComplex( line, spectrum );
+
+						for ( int d = 0; d < position.length; ++d )
+							out.setPosition( output.min( d ) + position[ d ], d );
+
+						for ( int i = 0; i < complexSize; ++i )
+						{
+							out.get().set( spectrum[ i * 2 ], spectrum[ i * 2 + 1 ] );
+							out.fwd( 0 );
+						}
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		FFTConvolution.invokeAll( tasks, service );
+
+		for ( int d = 1; d < output.numDimensions(); ++d )
+			complexToComplex( output, d, -1, null, service );
+	}
+
+	/**
+	 * Computes the inverse FFT of a {@link ComplexDoubleType} spectrum in
+	 * double precision and writes the center of the (padded) real-valued result
+	 * into the output, like {@link FFT#complexToRealUnpad}. The result is
+	 * scaled by the number of pixels. Only the lines that end up in the output
+	 * are transformed in each pass. The spectrum is destroyed.
+	 * 
+	 * @param input
+	 *            - the spectrum, will be overwritten
+	 * @param output
+	 *            - the real-valued output
+	 * @param service
+	 *            - service providing threads for multi-threading
+	 */
+	public static < R extends RealType< R > > void complexToRealUnpad(
+			final RandomAccessibleInterval< ComplexDoubleType > input,
+			final RandomAccessibleInterval< R > output,
+			final ExecutorService service )
+	{
+		final int numDimensions = input.numDimensions();
+		final int complexSize = ( int ) input.dimension( 0 );
+		final int realSize = ( complexSize - 1 ) * 2;
+
+		final long[] realDimensions = Intervals.dimensionsAsLongArray( input );
+		realDimensions[ 0 ] = realSize;
+
+		// where the output lies inside of the padded real-valued result
+		final Interval unpadded = FFTMethods.unpaddingIntervalCentered( new FinalInterval( realDimensions ), output );
+
+		// dimensions that are already transformed are restricted to the lines in the output
+		final long[] lineMin = new long[ numDimensions ];
+		final long[] lineDimensions = Intervals.dimensionsAsLongArray( input );
+
+		for ( int d = numDimensions - 1; d > 0; --d )
+		{
+			complexToComplex( input, d, 1, new FinalInterval( lineMin, maxOf( lineMin, lineDimensions ) ), service );
+
+			lineMin[ d ] = unpadded.min( d );
+			lineDimensions[ d ] = unpadded.dimension( d );
+		}
+
+		double norm = 1;
+		for ( final long dim : realDimensions )
+			norm *= dim;
+
+		final double scale = 1.0 / norm;
+		final int from = ( int ) unpadded.min( 0 );
+		final int to = ( int ) unpadded.max( 0 );
+
+		lineDimensions[ 0 ] = 1;
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( final Chunk chunk : chunks( lineDimensions, realSize, service ) )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final DoubleFFT fft = new DoubleFFT( realSize );
+					final LocalizingZeroMinIntervalIterator it = new LocalizingZeroMinIntervalIterator( lineDimensions );
+					final RandomAccess< ComplexDoubleType > in = input.randomAccess();
+					final RandomAccess< R > out = output.randomAccess();
+
+					final long[] position = new long[ numDimensions ];
+					final double[] spectrum = new double[ complexSize * 2 ];
+					final double[] line = new double[ realSize ];
+
+					it.jumpFwd( chunk.getStartPosition() );
+
+					for ( long l = 0; l < chunk.getLoopSize(); ++l )
+					{
+						it.fwd();
+						it.localize( position );
+
+						in.setPosition( input.min( 0 ), 0 );
+						for ( int d = 1; d < numDimensions; ++d )
+							in.setPosition( input.min( d ) + lineMin[ d ] + position[ d ], d );
+
+						for ( int i = 0; i < complexSize; ++i )
+						{
+							final ComplexDoubleType c = in.get();
+							spectrum[ i * 2 ] = c.getRealDouble();
+							spectrum[ i * 2 + 1 ] = c.getImaginaryDouble();
+							in.fwd( 0 );
+						}
+
+						fft.complexToReal( spectrum, line );
+
+						out.setPosition( output.min( 0 ), 0 );
+						for ( int d = 1; d < numDimensions; ++d )
+							out.setPosition( output.min( d ) + position[ d ], d );
+
+						for ( int x = from; x <= to; ++x )
+						{
+							out.get().setReal( line[ x ] * scale );
+							out.fwd( 0 );
+						}
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		FFTConvolution.invokeAll( tasks, service );
+	}
+
+	/**
+	 * Computes the unscaled complex-to-complex FFT of the lines along dimension
+	 * dim in place.
+	 * 
+	 * @param lines
+	 *            - the lines to transform (relative to the min of the
+	 *            spectrum, dimension dim is ignored), null for all
+	 */
+	protected static void complexToComplex(
+			final RandomAccessibleInterval< ComplexDoubleType > spectrum,
+			final int dim,
+			final int sign,
+			final Interval lines,
+			final ExecutorService service )
+	{
+		final int numDimensions = spectrum.numDimensions();
+		final int size = ( int ) spectrum.dimension( dim );
+
+		final long[] lineMin = new long[ numDimensions ];
+		final long[] lineDimensions = Intervals.dimensionsAsLongArray( lines == null ? spectrum : lines );
+
+		if ( lines != null )
+			lines.min( lineMin );
+
+		lineDimensions[ dim ] = 1;
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( final Chunk chunk : chunks( lineDimensions, size, service ) )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final DoubleFFT fft = new DoubleFFT( size );
+					final LocalizingZeroMinIntervalIterator it = new LocalizingZeroMinIntervalIterator( lineDimensions );
+					final RandomAccess< ComplexDoubleType > ra = spectrum.randomAccess();
+
+					final long[] position = new long[ numDimensions ];
+					final double[] re = new double[ size ];
+					final double[] im = new double[ size ];
+
+					it.jumpFwd( chunk.getStartPosition() );
+
+					for ( long l = 0; l < chunk.getLoopSize(); ++l )
+					{
+						it.fwd();
+						it.localize( position );
+
+						for ( int d = 0; d < numDimensions; ++d )
+							position[ d ] += spectrum.min( d ) + ( d == dim ? 0 : lineMin[ d ] );
+
+						ra.setPosition( position );
+
+						for ( int i = 0; i < size; ++i )
+						{
+							final ComplexDoubleType c = ra.get();
+							re[ i ] = c.getRealDouble();
+							im[ i ] = c.getImaginaryDouble();
+							ra.fwd( dim );
+						}
+
+						fft.complexToComplex( sign, re, im );
+
+						ra.setPosition( position );
+
+						for ( int i = 0; i < size; ++i )
+						{
+							ra.get().set( re[ i ], im[ i ] );
+							ra.fwd( dim );
+						}
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		FFTConvolution.invokeAll( tasks, service );
+	}
+
+	private static long[] maxOf( final long[] min, final long[] dimensions )
+	{
+		final long[] max = new long[ min.length ];
+
+		for ( int d = 0; d < min.length; ++d )
+			max[ d ] = min[ d ] + dimensions[ d ] - 1;
+
+		return max;
+	}
+
+	/**
+	 * @return - the lines partitioned into one chunk per thread of the
+	 *         service
+	 */
+	private static Vector< Chunk > chunks( final long[] lineDimensions, final long lineLength, final ExecutorService service )
+	{
+		final long numLines = Intervals.numElements( lineDimensions );
+
+		return SimpleMultiThreading.divideIntoChunks( numLines, FFTConvolution.numTasks( service, numLines, lineLength ) );
+	}
+}
@@ -27,8 +27,18 @@
 
 package net.imglib2.algorithm.fft2;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import net.imglib2.Cursor;
 import net.imglib2.FinalDimensions;
@@ -39,10 +49,17 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexDoubleType;
 import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
@@ -78,13 +95,48 @@ import net.imglib2.view.Views;
  * influenced by whether the computation is performed in-place or not, just the
  * FFT of the kernel is kept.
  * 
+ * With {@link #setOutputROI(boolean)}, the output is a region of interest
+ * inside the image interval (e.g. {@code Views.interval( img, roi )}) and only
+ * this region plus the kernel extent is transformed, the neighborhood of the
+ * region is read from the image. This makes it cheap to compute e.g. the
+ * visible tile of a large volume. FFTs kept from previous runs are recomputed
+ * if the region changes.
+ * 
+ * To convolve the same image with a whole bank of kernels use
+ * {@link #convolveFilterBank(List, List)}, which computes the image spectrum
+ * once and reuses a single scratch spectrum for all kernels.
+ * 
+ * Spectra can be stored outside of the Java heap by using an
+ * {@link OffHeapComplexFloatImgFactory}, in this case all spectra computed by
+ * the convolution that are not kept are released at the end of every
+ * convolution. Spectra passed in by {@link #setImgFFT(Img)} belong to the
+ * caller and are never released, off-heap kernel spectra are not cached.
+ * 
+ * Kernel spectra are additionally stored in a memory-bounded
+ * {@link KernelFFTCache}, by default the one shared by all instances. New
+ * instances convolving with the same kernel (e.g. many tiles with the same PSF)
+ * will therefore not recompute its FFT. Use
+ * {@link #setKernelFFTCache(KernelFFTCache)} to change or disable this.
+ * 
+ * {@link #setUseDoublePrecision(boolean)} switches {@link #convolve()} to
+ * {@link ComplexDoubleType} spectra that are computed entirely in double
+ * precision by {@link DoubleFFT}, for data where the round-off of float FFTs
+ * matters. These spectra are kept separately and are not cached.
+ * 
  * @author Stephan Preibisch
  * @author Jonathan Hale
  */
 public class FFTConvolution< R extends RealType< R > >
 {
+	// the smallest part of an image that is worth a task of its own
+	final static long minPixelsPerTask = 1 << 14;
+
 	Img< ComplexFloatType > fftImg, fftKernel;
 
+	// the padded intervals fftImg and fftKernel were computed for, null if
+	// they were set from outside
+	Interval fftImgInterval, fftKernelInterval;
+
 	ImgFactory< ComplexFloatType > fftFactory;
 
 	RandomAccessible< R > img, kernel;
@@ -104,6 +156,27 @@ public class FFTConvolution< R extends RealType< R > >
 	// by default we do not keep the image
 	boolean keepImgFFT = false;
 
+	// fftImg was computed by this instance (and may be released), false if
+	// it was set from outside
+	boolean ownsImgFFT = false;
+
+	// null means no caching of the kernel FFT
+	KernelFFTCache kernelFFTCache = KernelFFTCache.shared();
+
+	// null means FFTMethods.dimensionsRealToComplexFast
+	FFTSizePlanner fftSizePlanner = null;
+
+	// compute convolve() with ComplexDoubleType spectra
+	boolean useDoublePrecision = false;
+
+	// the output is a region of interest in image coordinates
+	boolean outputROI = false;
+
+	// the spectra and their padded intervals of the double precision convolution
+	Img< ComplexDoubleType > fftImgDouble, fftKernelDouble;
+
+	Interval fftImgDoubleInterval, fftKernelDoubleInterval;
+
 	private ExecutorService service;
 
 	/**
@@ -400,6 +473,7 @@ public class FFTConvolution< R extends RealType< R > >
 		this.img = Views.extendMirrorSingle( img );
 		this.imgInterval = img;
 		this.fftImg = null;
+		this.fftImgDouble = null;
 	}
 
 	public void setImg( final RandomAccessible< R > img, final Interval imgInterval )
@@ -407,6 +481,7 @@ public class FFTConvolution< R extends RealType< R > >
 		this.img = img;
 		this.imgInterval = imgInterval;
 		this.fftImg = null;
+		this.fftImgDouble = null;
 	}
 
 	public void setKernel( final RandomAccessibleInterval< R > kernel )
@@ -414,6 +489,7 @@ public class FFTConvolution< R extends RealType< R > >
 		this.kernel = Views.extendValue( kernel, Util.getTypeFromInterval( kernel ).createVariable() );
 		this.kernelInterval = kernel;
 		this.fftKernel = null;
+		this.fftKernelDouble = null;
 	}
 
 	public void setKernel( final RandomAccessible< R > kernel, final Interval kernelInterval )
@@ -421,8 +497,15 @@ public class FFTConvolution< R extends RealType< R > >
 		this.kernel = kernel;
 		this.kernelInterval = kernelInterval;
 		this.fftKernel = null;
+		this.fftKernelDouble = null;
 	}
 
+	/**
+	 * @param output
+	 *            - the output, of the size of the image interval, or a region
+	 *            of interest inside the image interval if
+	 *            {@link #setOutputROI(boolean)} is set
+	 */
 	public void setOutput( final RandomAccessibleInterval< R > output )
 	{
 		this.output = output;
@@ -437,6 +520,7 @@ public class FFTConvolution< R extends RealType< R > >
 	{
 		this.complexConjugate = complexConjugate;
 		this.fftKernel = null;
+		this.fftKernelDouble = null;
 	}
 
 	public boolean getComplexConjugate()
@@ -477,6 +561,73 @@ public class FFTConvolution< R extends RealType< R > >
 		return fftFactory;
 	}
 
+	/**
+	 * @param kernelFFTCache
+	 *            - the cache to look up and store kernel spectra, null disables
+	 *            caching
+	 */
+	public void setKernelFFTCache( final KernelFFTCache kernelFFTCache )
+	{
+		this.kernelFFTCache = kernelFFTCache;
+	}
+
+	public KernelFFTCache kernelFFTCache()
+	{
+		return kernelFFTCache;
+	}
+
+	/**
+	 * @param fftSizePlanner
+	 *            - chooses the padded size of the FFTs by benchmarking, null
+	 *            uses the sizes of
+	 *            {@link FFTMethods#dimensionsRealToComplexFast(net.imglib2.Dimensions, long[], long[])}
+	 */
+	public void setFFTSizePlanner( final FFTSizePlanner fftSizePlanner )
+	{
+		this.fftSizePlanner = fftSizePlanner;
+	}
+
+	public FFTSizePlanner fftSizePlanner()
+	{
+		return fftSizePlanner;
+	}
+
+	/**
+	 * @param useDoublePrecision
+	 *            - compute {@link #convolve()} with {@link ComplexDoubleType}
+	 *            spectra in double precision instead of
+	 *            {@link ComplexFloatType} spectra. The image and kernel spectra
+	 *            are kept as with float precision, but not cached in the
+	 *            {@link KernelFFTCache}.
+	 */
+	public void setUseDoublePrecision( final boolean useDoublePrecision )
+	{
+		this.useDoublePrecision = useDoublePrecision;
+	}
+
+	public boolean useDoublePrecision()
+	{
+		return useDoublePrecision;
+	}
+
+	/**
+	 * @param outputROI
+	 *            - if true, the output is a region of interest inside the image
+	 *            interval (in image coordinates) and only this region is
+	 *            convolved, reading the neighboring pixels it requires from
+	 *            the image. If false (default), the whole image interval is
+	 *            convolved.
+	 */
+	public void setOutputROI( final boolean outputROI )
+	{
+		this.outputROI = outputROI;
+	}
+
+	public boolean outputROI()
+	{
+		return outputROI;
+	}
+
 	public Img< ComplexFloatType > imgFFT()
 	{
 		return fftImg;
@@ -495,6 +646,7 @@ public class FFTConvolution< R extends RealType< R > >
 	public void setKernelFFT( final Img< ComplexFloatType > fftKernel )
 	{
 		this.fftKernel = fftKernel;
+		this.fftKernelInterval = null;
 	}
 
 	/**
@@ -506,6 +658,8 @@ public class FFTConvolution< R extends RealType< R > >
 	public void setImgFFT( final Img< ComplexFloatType > fftImg )
 	{
 		this.fftImg = fftImg;
+		this.fftImgInterval = null;
+		this.ownsImgFFT = false;
 	}
 
 	public void convolve()
@@ -529,25 +683,368 @@ public class FFTConvolution< R extends RealType< R > >
 		}
 	}
 
+	/**
+	 * Convolves a series of images of identical size in-place with the kernel
+	 * of this instance (e.g. all timepoints of a movie). The padded FFT
+	 * intervals and the kernel FFT are computed once and a single complex
+	 * workspace is reused for all images. The image set for this instance is
+	 * not used. Each image will be extended by mirroring with single boundary.
+	 * The images are iterated only once, so a one-shot {@link Iterable} (e.g.
+	 * backed by a stream) can be passed.
+	 * 
+	 * @param imgs
+	 *            - the images, will be replaced by their convolution
+	 */
+	public void convolveBatch( final Iterable< ? extends RandomAccessibleInterval< R > > imgs )
+	{
+		runBatch( imgs, null );
+	}
+
+	/**
+	 * Convolves a series of images of identical size with the kernel of this
+	 * instance (e.g. all timepoints of a movie). The padded FFT intervals and
+	 * the kernel FFT are computed once and a single complex workspace is reused
+	 * for all images. The image set for this instance is not used. Each image
+	 * will be extended by mirroring with single boundary. Images and outputs
+	 * are iterated only once.
+	 * 
+	 * @param imgs
+	 *            - the images
+	 * @param outputs
+	 *            - one output for each image, same size as the images
+	 */
+	public void convolveBatch( final Iterable< ? extends RandomAccessibleInterval< R > > imgs, final Iterable< ? extends RandomAccessibleInterval< R > > outputs )
+	{
+		runBatch( imgs, outputs );
+	}
+
+	/**
+	 * @param outputs
+	 *            - the outputs, null to convolve the images in-place
+	 */
+	private void runBatch( final Iterable< ? extends RandomAccessibleInterval< R > > imgs, final Iterable< ? extends RandomAccessibleInterval< R > > outputs )
+	{
+		if ( service == null )
+		{
+			final ExecutorService executor = createExecutorService();
+			try
+			{
+				convolveBatch( imgs, outputs, executor );
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		else
+		{
+			convolveBatch( imgs, outputs, service );
+		}
+	}
+
+	private void convolveBatch( final Iterable< ? extends RandomAccessibleInterval< R > > imgs, final Iterable< ? extends RandomAccessibleInterval< R > > outputs, final ExecutorService executor )
+	{
+		final Iterator< ? extends RandomAccessibleInterval< R > > imgIterator = imgs.iterator();
+
+		// in-place, every image is its own output
+		final Iterator< ? extends RandomAccessibleInterval< R > > outputIterator = outputs == null ? null : outputs.iterator();
+
+		RandomAccessibleInterval< R > first = null;
+		Img< ComplexFloatType > workspace = null;
+		long[] paddedDimensions = null;
+
+		try
+		{
+			while ( imgIterator.hasNext() )
+			{
+				final RandomAccessibleInterval< R > input = imgIterator.next();
+
+				if ( outputIterator != null && !outputIterator.hasNext() )
+					throw new IllegalArgumentException( "Less outputs than images given." );
+
+				final RandomAccessibleInterval< R > out = outputIterator == null ? input : outputIterator.next();
+
+				if ( first == null )
+				{
+					first = input;
+
+					final long[] min = new long[ input.numDimensions() ];
+					final long[] max = new long[ input.numDimensions() ];
+
+					final Pair< Interval, Interval > fftIntervals = setupFFTs( input, kernelInterval, min, max, fftSizePlanner );
+
+					paddedDimensions = new long[ input.numDimensions() ];
+					fftIntervals.getA().dimensions( paddedDimensions );
+
+					// the FFT of the image of this instance is not used here
+					if ( fftKernel != null && fftKernelInterval != null && !Intervals.equals( fftKernelInterval, fftIntervals.getB() ) )
+						fftKernel = null;
+
+					if ( fftKernel == null )
+					{
+						fftKernel = computeKernelFFT( fftIntervals.getB(), min, max, complexConjugate, kernel, fftFactory, executor, kernelFFTCache );
+						fftKernelInterval = fftIntervals.getB();
+					}
+
+					workspace = fftFactory.create( fftDimensions( fftIntervals.getA() ) );
+				}
+				else if ( !Intervals.equalDimensions( first, input ) )
+				{
+					throw new IllegalArgumentException( "All images of a batch need to have the same size." );
+				}
+
+				// the images might be located at different positions
+				final Interval imgConvolutionInterval = FFTMethods.paddingIntervalCentered( input, FinalDimensions.wrap( paddedDimensions ) );
+
+				computeImgFFT( imgConvolutionInterval, Views.extendMirrorSingle( input ), workspace, executor );
+
+				multiplyDivideComplex( workspace, fftKernel, div, executor );
+
+				FFT.complexToRealUnpad( workspace, out, executor );
+			}
+		}
+		finally
+		{
+			// also if an image fails, e.g. because its size differs
+			if ( workspace != null )
+				OffHeapComplexFloatImgFactory.release( workspace );
+		}
+	}
+
+	/**
+	 * Convolves the image of this instance with a bank of kernels (e.g. several
+	 * Gaussian scales or steerable filters), writing each result into its own
+	 * output. The FFT of the image is computed only once, padded for the
+	 * largest kernel in every dimension. For each kernel the product of the
+	 * spectra is written into a single scratch spectrum that is reused for all
+	 * kernels and transformed back into the output, the image spectrum is
+	 * never copied. The kernel set for this instance is not used, the kernels
+	 * will be zero-padded. Kernel spectra are looked up in and stored into the
+	 * {@link KernelFFTCache} of this instance.
+	 * 
+	 * @param kernels
+	 *            - the convolution kernels
+	 * @param outputs
+	 *            - one output for each kernel, same size as the image
+	 */
+	public void convolveFilterBank( final List< ? extends RandomAccessibleInterval< R > > kernels, final List< ? extends RandomAccessibleInterval< R > > outputs )
+	{
+		if ( kernels.size() != outputs.size() )
+			throw new IllegalArgumentException( "Number of kernels (" + kernels.size() + ") and outputs (" + outputs.size() + ") differs." );
+
+		if ( kernels.isEmpty() )
+			return;
+
+		if ( service == null )
+		{
+			final ExecutorService executor = createExecutorService();
+			try
+			{
+				convolveFilterBank( kernels, outputs, executor );
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		else
+		{
+			convolveFilterBank( kernels, outputs, service );
+		}
+	}
+
+	private void convolveFilterBank( final List< ? extends RandomAccessibleInterval< R > > kernels, final List< ? extends RandomAccessibleInterval< R > > outputs, final ExecutorService executor )
+	{
+		final int numDimensions = imgInterval.numDimensions();
+
+		// pad for the largest kernel in every dimension, all smaller kernels
+		// fit into the same padded interval
+		final long[] maxKernelDimensions = new long[ numDimensions ];
+
+		for ( final RandomAccessibleInterval< R > k : kernels )
+			for ( int d = 0; d < numDimensions; ++d )
+				maxKernelDimensions[ d ] = Math.max( maxKernelDimensions[ d ], k.dimension( d ) );
+
+		final long[] min = new long[ numDimensions ];
+		final long[] max = new long[ numDimensions ];
+
+		final Pair< Interval, Interval > fftIntervals = setupFFTs( imgInterval, new FinalInterval( maxKernelDimensions ), min, max, fftSizePlanner );
+
+		final long[] paddedDimensions = new long[ numDimensions ];
+		fftIntervals.getA().dimensions( paddedDimensions );
+
+		final long[] fftDimensions = fftDimensions( fftIntervals.getA() );
+
+		// the image spectrum is computed once (or reused if it was kept and
+		// matches the padding) and never modified
+		final Img< ComplexFloatType > imgSpectrum;
+
+		if ( fftImg != null && ( fftImgInterval == null ?
+				Arrays.equals( Intervals.dimensionsAsLongArray( fftImg ), fftDimensions ) :
+				Intervals.equals( fftImgInterval, fftIntervals.getA() ) ) )
+			imgSpectrum = fftImg;
+		else
+			imgSpectrum = computeImgFFT( fftIntervals.getA(), img, fftFactory, executor );
+
+		if ( keepImgFFT && imgSpectrum != fftImg )
+		{
+			fftImg = imgSpectrum;
+			fftImgInterval = fftIntervals.getA();
+			ownsImgFFT = true;
+		}
+
+		final Img< ComplexFloatType > scratch = fftFactory.create( fftDimensions );
+
+		for ( int i = 0; i < kernels.size(); ++i )
+		{
+			final RandomAccessibleInterval< R > k = kernels.get( i );
+
+			final Interval kernelConvolutionInterval = FFTMethods.paddingIntervalCentered( k, FinalDimensions.wrap( paddedDimensions ) );
+			kernelPlacement( k, kernelConvolutionInterval, min, max );
+
+			final Img< ComplexFloatType > kernelSpectrum = computeKernelFFT(
+					kernelConvolutionInterval, min, max, complexConjugate,
+					Views.extendValue( k, Util.getTypeFromInterval( k ).createVariable() ),
+					fftFactory, executor, kernelFFTCache );
+
+			multiplyDivideComplex( imgSpectrum, kernelSpectrum, scratch, div, executor );
+
+			FFT.complexToRealUnpad( scratch, outputs.get( i ), executor );
+		}
+
+		OffHeapComplexFloatImgFactory.release( scratch );
+
+		if ( imgSpectrum != fftImg )
+			OffHeapComplexFloatImgFactory.release( imgSpectrum );
+	}
+
 	private void convolve( final ExecutorService executor )
 	{
+		if ( useDoublePrecision )
+		{
+			convolveDouble( executor );
+			return;
+		}
+
 		final long[] min = new long[ img.numDimensions() ];
 		final long[] max = new long[ img.numDimensions() ];
 
-		final Pair< Interval, Interval > fftIntervals = setupFFTs( imgInterval, kernelInterval, min, max );
+		// only transform what is required for the output
+		final Pair< Interval, Interval > fftIntervals = setupFFTs( convolutionInterval(), kernelInterval, min, max, fftSizePlanner );
+
+		invalidateFFTs( fftIntervals );
 
 		// compute the FFT of the image if it does not exist yet
 		if ( fftImg == null )
+		{
 			fftImg = computeImgFFT( fftIntervals.getA(), img, fftFactory, executor );
+			fftImgInterval = fftIntervals.getA();
+			ownsImgFFT = true;
+		}
 
 		// compute the FFT of the kernel if it does not exist yet
 		if ( fftKernel == null )
-			fftKernel = computeKernelFFT( fftIntervals.getB(), min, max, complexConjugate, kernel, fftFactory, executor );
+		{
+			fftKernel = computeKernelFFT( fftIntervals.getB(), min, max, complexConjugate, kernel, fftFactory, executor, kernelFFTCache );
+			fftKernelInterval = fftIntervals.getB();
+		}
 
 		computeConvolution( fftImg, fftKernel, output, keepImgFFT, div, executor );
+
+		// the image spectrum was overwritten, free it right away if it is
+		// stored off-heap and was not handed in by the caller
+		if ( !keepImgFFT && ownsImgFFT && OffHeapComplexFloatImgFactory.release( fftImg ) )
+		{
+			fftImg = null;
+			fftImgInterval = null;
+		}
+	}
+
+	private void convolveDouble( final ExecutorService executor )
+	{
+		final long[] min = new long[ img.numDimensions() ];
+		final long[] max = new long[ img.numDimensions() ];
+
+		final Pair< Interval, Interval > fftIntervals = setupFFTs( convolutionInterval(), kernelInterval, min, max, fftSizePlanner );
+
+		if ( fftImgDouble != null && !Intervals.equals( fftImgDoubleInterval, fftIntervals.getA() ) )
+			fftImgDouble = null;
+
+		if ( fftKernelDouble != null && !Intervals.equals( fftKernelDoubleInterval, fftIntervals.getB() ) )
+			fftKernelDouble = null;
+
+		final ImgFactory< ComplexDoubleType > factory = getDoubleFFTFactory( fftFactory, fftDimensions( fftIntervals.getA() ) );
+
+		if ( fftImgDouble == null )
+		{
+			fftImgDouble = computeImgFFTDouble( fftIntervals.getA(), img, factory, executor );
+			fftImgDoubleInterval = fftIntervals.getA();
+		}
+
+		if ( fftKernelDouble == null )
+		{
+			fftKernelDouble = computeKernelFFTDouble( fftIntervals.getB(), min, max, complexConjugate, kernel, factory, executor );
+			fftKernelDoubleInterval = fftIntervals.getB();
+		}
+
+		computeConvolutionDouble( fftImgDouble, fftKernelDouble, output, keepImgFFT, div, executor );
+
+		// the image spectrum was overwritten
+		if ( !keepImgFFT )
+		{
+			fftImgDouble = null;
+			fftImgDoubleInterval = null;
+		}
+	}
+
+	/**
+	 * The interval of the image that is convolved. If
+	 * {@link #setOutputROI(boolean)} is set, only the output interval is
+	 * convolved, reading the neighboring pixels it requires from the image.
+	 * This way a small region of interest (e.g. the visible tile of a viewer)
+	 * only pays for its own size plus the kernel instead of the whole image.
+	 * Otherwise the whole image interval is convolved.
+	 * 
+	 * @return - the interval to convolve
+	 */
+	protected Interval convolutionInterval()
+	{
+		if ( !outputROI )
+			return imgInterval;
+
+		if ( output.numDimensions() != imgInterval.numDimensions() || !Intervals.contains( imgInterval, output ) )
+			throw new IllegalArgumentException( "The output region of interest " + Util.printInterval( output ) + " is not inside the image interval " + Util.printInterval( imgInterval ) + "." );
+
+		return output;
+	}
+
+	/**
+	 * Drops the FFTs of image and kernel if they were computed for different
+	 * padded intervals, e.g. because the output region changed in between.
+	 */
+	protected void invalidateFFTs( final Pair< Interval, Interval > fftIntervals )
+	{
+		if ( fftImg != null && fftImgInterval != null && !Intervals.equals( fftImgInterval, fftIntervals.getA() ) )
+			fftImg = null;
+
+		if ( fftKernel != null && fftKernelInterval != null && !Intervals.equals( fftKernelInterval, fftIntervals.getB() ) )
+			fftKernel = null;
 	}
 
 	public static Pair< Interval, Interval > setupFFTs( final Interval imgInterval, final Interval kernelInterval, final long[] min, final long[] max )
+	{
+		return setupFFTs( imgInterval, kernelInterval, min, max, null );
+	}
+
+	/**
+	 * Computes the padded intervals of image and kernel and where to place the
+	 * kernel.
+	 * 
+	 * @param planner
+	 *            - chooses the padded size, null uses
+	 *            {@link FFTMethods#dimensionsRealToComplexFast(net.imglib2.Dimensions, long[], long[])}
+	 */
+	public static Pair< Interval, Interval > setupFFTs( final Interval imgInterval, final Interval kernelInterval, final long[] min, final long[] max, final FFTSizePlanner planner )
 	{
 		final int numDimensions = imgInterval.numDimensions();
 
@@ -565,7 +1062,10 @@ public class FFTConvolution< R extends RealType< R > >
 		final long[] paddedDimensions = new long[ numDimensions ];
 		final long[] fftDimensions = new long[ numDimensions ];
 
-		FFTMethods.dimensionsRealToComplexFast( FinalDimensions.wrap( newDimensions ), paddedDimensions, fftDimensions );
+		if ( planner == null )
+			FFTMethods.dimensionsRealToComplexFast( FinalDimensions.wrap( newDimensions ), paddedDimensions, fftDimensions );
+		else
+			planner.dimensionsRealToComplex( FinalDimensions.wrap( newDimensions ), paddedDimensions, fftDimensions );
 
 		// compute the new interval for the input image
 		final Interval imgConvolutionInterval = FFTMethods.paddingIntervalCentered( imgInterval, FinalDimensions.wrap( paddedDimensions ) );
@@ -576,13 +1076,31 @@ public class FFTConvolution< R extends RealType< R > >
 		// compute where to place the final Interval for the kernel so that the
 		// coordinate in the center
 		// of the kernel is at position (0,0)
-		for ( int d = 0; d < numDimensions; ++d )
+		kernelPlacement( kernelInterval, kernelConvolutionInterval, min, max );
+
+		return new ValuePair< Interval, Interval >( imgConvolutionInterval, kernelConvolutionInterval );
+	}
+
+	/**
+	 * Computes where to place the final interval for the kernel so that the
+	 * coordinate in the center of the kernel is at position (0,0).
+	 * 
+	 * @param kernelInterval
+	 *            - the interval of the kernel
+	 * @param kernelConvolutionInterval
+	 *            - the padded interval of the kernel
+	 * @param min
+	 *            - the min of the final kernel interval, will be filled
+	 * @param max
+	 *            - the max of the final kernel interval, will be filled
+	 */
+	public static void kernelPlacement( final Interval kernelInterval, final Interval kernelConvolutionInterval, final long[] min, final long[] max )
+	{
+		for ( int d = 0; d < kernelInterval.numDimensions(); ++d )
 		{
 			min[ d ] = kernelInterval.min( d ) + kernelInterval.dimension( d ) / 2;
 			max[ d ] = min[ d ] + kernelConvolutionInterval.dimension( d ) - 1;
 		}
-
-		return new ValuePair< Interval, Interval >( imgConvolutionInterval, kernelConvolutionInterval );
 	}
 
 	public static < R extends RealType< R > > Img< ComplexFloatType > computeImgFFT(
@@ -595,10 +1113,59 @@ public class FFTConvolution< R extends RealType< R > >
 		// top left at center of input kernel)
 		final RandomAccessibleInterval< R > imgInput = Views.interval( img, imgConvolutionInterval );
 
+		// create the output explicitly, FFT.realToComplex( imgInput,
+		// fftFactory, service ) would pad to its own size again, ignoring the
+		// size chosen by an FFTSizePlanner
+		final Img< ComplexFloatType > fftImg = fftFactory.create( fftDimensions( imgConvolutionInterval ) );
+
 		// compute the FFT's
-		return FFT.realToComplex( imgInput, fftFactory, service );
+		FFT.realToComplex( imgInput, fftImg, service );
+
+		return fftImg;
 	}
 
+	/**
+	 * Computes the FFT of the image into an existing complex {@link Img}, e.g.
+	 * a workspace that is reused for several images.
+	 * 
+	 * @param imgConvolutionInterval
+	 *            - the padded interval of the image
+	 * @param img
+	 *            - the (extended) image
+	 * @param fftImg
+	 *            - the output, size as given by
+	 *            {@link #fftDimensions(Interval)}
+	 * @param service
+	 *            - service providing threads for multi-threading
+	 */
+	public static < R extends RealType< R > > void computeImgFFT(
+			final Interval imgConvolutionInterval,
+			final RandomAccessible< R > img,
+			final RandomAccessibleInterval< ComplexFloatType > fftImg,
+			final ExecutorService service )
+	{
+		FFT.realToComplex( Views.interval( img, imgConvolutionInterval ), fftImg, service );
+	}
+
+	/**
+	 * @param paddedInterval
+	 *            - the padded, real-valued interval
+	 * @return - the dimensions of its complex-valued Fourier transform
+	 */
+	public static long[] fftDimensions( final Interval paddedInterval )
+	{
+		final long[] fftDimensions = new long[ paddedInterval.numDimensions() ];
+		paddedInterval.dimensions( fftDimensions );
+		fftDimensions[ 0 ] = fftDimensions[ 0 ] / 2 + 1;
+
+		return fftDimensions;
+	}
+
+	/**
+	 * Computes the FFT of the kernel without caching, the result is owned by
+	 * the caller. Instances of {@link FFTConvolution} look up the kernel
+	 * spectrum in their {@link KernelFFTCache} instead.
+	 */
 	public static < R extends RealType< R > > Img< ComplexFloatType > computeKernelFFT(
 			final Interval kernelConvolutionInterval,
 			final long[] min,
@@ -608,11 +1175,36 @@ public class FFTConvolution< R extends RealType< R > >
 			final ImgFactory< ComplexFloatType > fftFactory,
 			final ExecutorService service )
 	{
+		return computeKernelFFT( kernelConvolutionInterval, min, max, complexConjugate, kernel, fftFactory, service, null );
+	}
+
+	/**
+	 * Computes the FFT of the kernel or returns it from the cache if it was
+	 * computed before. If a cache is given, the result must not be modified.
+	 * 
+	 * @param cache
+	 *            - the cache of kernel spectra, null computes the FFT without
+	 *            caching
+	 */
+	public static < R extends RealType< R > > Img< ComplexFloatType > computeKernelFFT(
+			final Interval kernelConvolutionInterval,
+			final long[] min,
+			final long[] max,
+			final boolean complexConjugate,
+			final RandomAccessible< R > kernel,
+			final ImgFactory< ComplexFloatType > fftFactory,
+			final ExecutorService service,
+			final KernelFFTCache cache )
+	{
+		if ( cache != null )
+			return cache.getKernelFFT( kernelConvolutionInterval, min, max, complexConjugate, kernel, fftFactory, service );
+
 		// assemble the correct kernel (size of the input + extended periodic +
 		// top left at center of input kernel)
 		final RandomAccessibleInterval< R > kernelInput = Views.interval( Views.extendPeriodic( Views.interval( kernel, kernelConvolutionInterval ) ), new FinalInterval( min, max ) );
 
-		final Img< ComplexFloatType > fftKernel = FFT.realToComplex( kernelInput, fftFactory, service );
+		final Img< ComplexFloatType > fftKernel = fftFactory.create( fftDimensions( kernelInput ) );
+		FFT.realToComplex( kernelInput, fftKernel, service );
 
 		// if complexConjugate is set we are computing the correlation  
 		// instead of the convolution (same as mirroring the kernel)
@@ -633,16 +1225,140 @@ public class FFTConvolution< R extends RealType< R > >
 	{
 		final Img< ComplexFloatType > fftconvolved;
 
+		// the product is written into a new image instead of multiplying a
+		// copy, this saves one pass over the image spectrum
 		if ( keepImgFFT )
-			fftconvolved = fftImg.copy();
+			fftconvolved = fftImg.factory().create( fftImg );
 		else
 			fftconvolved = fftImg;
 
-		// multiply in place
-		multiplyDivideComplex( fftconvolved, fftKernel, div );
+		multiplyDivideComplex( fftImg, fftKernel, fftconvolved, div, service );
 
 		// inverse FFT in place
 		FFT.complexToRealUnpad( fftconvolved, output, service );
+
+		if ( keepImgFFT )
+			OffHeapComplexFloatImgFactory.release( fftconvolved );
+	}
+
+	/**
+	 * Computes the FFT of the image in double precision, see
+	 * {@link #computeImgFFT(Interval, RandomAccessible, ImgFactory, ExecutorService)}.
+	 */
+	public static < R extends RealType< R > > Img< ComplexDoubleType > computeImgFFTDouble(
+			final Interval imgConvolutionInterval,
+			final RandomAccessible< R > img,
+			final ImgFactory< ComplexDoubleType > fftFactory,
+			final ExecutorService service )
+	{
+		final Img< ComplexDoubleType > fftImg = fftFactory.create( fftDimensions( imgConvolutionInterval ) );
+
+		DoubleFFT.realToComplex( Views.interval( img, imgConvolutionInterval ), fftImg, service );
+
+		return fftImg;
+	}
+
+	/**
+	 * Computes the FFT of the kernel in double precision, see
+	 * {@link #computeKernelFFT(Interval, long[], long[], boolean, RandomAccessible, ImgFactory, ExecutorService, KernelFFTCache)}.
+	 * The result is not cached.
+	 */
+	public static < R extends RealType< R > > Img< ComplexDoubleType > computeKernelFFTDouble(
+			final Interval kernelConvolutionInterval,
+			final long[] min,
+			final long[] max,
+			final boolean complexConjugate,
+			final RandomAccessible< R > kernel,
+			final ImgFactory< ComplexDoubleType > fftFactory,
+			final ExecutorService service )
+	{
+		// assemble the correct kernel (size of the input + extended periodic +
+		// top left at center of input kernel)
+		final RandomAccessibleInterval< R > kernelInput = Views.interval( Views.extendPeriodic( Views.interval( kernel, kernelConvolutionInterval ) ), new FinalInterval( min, max ) );
+
+		final Img< ComplexDoubleType > fftKernel = fftFactory.create( fftDimensions( kernelInput ) );
+		DoubleFFT.realToComplex( kernelInput, fftKernel, service );
+
+		if ( complexConjugate )
+			for ( final ComplexDoubleType c : fftKernel )
+				c.complexConjugate();
+
+		return fftKernel;
+	}
+
+	/**
+	 * Computes the convolution from spectra in double precision, see
+	 * {@link #computeConvolution(Img, Img, RandomAccessibleInterval, boolean, boolean, ExecutorService)}.
+	 */
+	public static < R extends RealType< R > > void computeConvolutionDouble(
+			final Img< ComplexDoubleType > fftImg,
+			final Img< ComplexDoubleType > fftKernel,
+			final RandomAccessibleInterval< R > output,
+			final boolean keepImgFFT,
+			final boolean div,
+			final ExecutorService service )
+	{
+		final Img< ComplexDoubleType > fftconvolved;
+
+		if ( keepImgFFT )
+			fftconvolved = fftImg.factory().create( fftImg );
+		else
+			fftconvolved = fftImg;
+
+		multiplyDivideComplexDouble( fftImg, fftKernel, fftconvolved, div, service );
+
+		// inverse FFT in place
+		DoubleFFT.complexToRealUnpad( fftconvolved, output, service );
+	}
+
+	/**
+	 * Multiplies (or divides) double precision spectra, out = img * kernel (or
+	 * out = img / kernel), partitioned into one chunk per thread of the
+	 * {@link ExecutorService} (see {@link #numTasks(ExecutorService, long)}).
+	 * The output may be identical to the image spectrum.
+	 */
+	final public static void multiplyDivideComplexDouble( final Img< ComplexDoubleType > img, final Img< ComplexDoubleType > kernel, final Img< ComplexDoubleType > out, final boolean div, final ExecutorService service )
+	{
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( img.size(), numTasks( service, img.size() ) );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( final Chunk chunk : chunks )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final Cursor< ComplexDoubleType > cursorA = img.cursor();
+					final Cursor< ComplexDoubleType > cursorB = kernel.cursor();
+					final Cursor< ComplexDoubleType > cursorOut = out == img ? cursorA : out.cursor();
+
+					cursorA.jumpFwd( chunk.getStartPosition() );
+					cursorB.jumpFwd( chunk.getStartPosition() );
+
+					if ( cursorOut != cursorA )
+						cursorOut.jumpFwd( chunk.getStartPosition() );
+
+					for ( long j = 0; j < chunk.getLoopSize(); ++j )
+					{
+						final ComplexDoubleType a = cursorA.next();
+						final ComplexDoubleType o = cursorOut == cursorA ? a : cursorOut.next();
+
+						if ( o != a )
+							o.set( a );
+
+						if ( div )
+							o.div( cursorB.next() );
+						else
+							o.mul( cursorB.next() );
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		invokeAll( tasks, service );
 	}
 
 	final public static < R extends RealType< R > > void convolve(
@@ -701,7 +1417,7 @@ public class FFTConvolution< R extends RealType< R > >
 		final Img< ComplexFloatType > fftKernel = FFT.realToComplex( kernelInput, factory, service );
 
 		// multiply in place
-		multiplyDivideComplex( fftImg, fftKernel, div );
+		multiplyDivideComplex( fftImg, fftKernel, div, service );
 
 		// inverse FFT in place
 		FFT.complexToRealUnpad( fftImg, output, service );
@@ -720,6 +1436,295 @@ public class FFTConvolution< R extends RealType< R > >
 				cursorA.next().mul( cursorB.next() );
 	}
 
+	/**
+	 * Multiplies (or divides) the image spectrum in place by the kernel
+	 * spectrum, partitioned into one chunk per thread of the
+	 * {@link ExecutorService} (see {@link #numTasks(ExecutorService, long)}). Spectra stored in
+	 * {@link ArrayImg}s or {@link PlanarImg}s backed by float arrays are
+	 * processed directly on the interleaved real and imaginary values.
+	 * 
+	 * @param img
+	 *            - the image spectrum, will be overwritten
+	 * @param kernel
+	 *            - the kernel spectrum, same size and iteration order
+	 * @param div
+	 *            - divide instead of multiply
+	 * @param service
+	 *            - service providing threads for multi-threading
+	 */
+	final public static void multiplyDivideComplex( final Img< ComplexFloatType > img, final Img< ComplexFloatType > kernel, final boolean div, final ExecutorService service )
+	{
+		multiplyDivideComplex( img, kernel, img, div, service );
+	}
+
+	/**
+	 * Multiplies (or divides) the image spectrum by the kernel spectrum and
+	 * writes the result into a third spectrum, out = img * kernel (or out = img
+	 * / kernel). Neither input is modified, which allows to multiply one image
+	 * spectrum with several kernel spectra without copying it. The output may
+	 * be identical to the image spectrum.
+	 * 
+	 * @param img
+	 *            - the image spectrum
+	 * @param kernel
+	 *            - the kernel spectrum, same size and iteration order
+	 * @param out
+	 *            - the result, same size and iteration order
+	 * @param div
+	 *            - divide instead of multiply
+	 * @param service
+	 *            - service providing threads for multi-threading
+	 */
+	final public static void multiplyDivideComplex( final Img< ComplexFloatType > img, final Img< ComplexFloatType > kernel, final Img< ComplexFloatType > out, final boolean div, final ExecutorService service )
+	{
+		final int numTasks = numTasks( service, img.size() );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		final float[][] arraysA = floatArrays( img );
+		final float[][] arraysB = floatArrays( kernel );
+		final float[][] arraysOut = out == img ? arraysA : floatArrays( out );
+
+		if ( sameLayout( arraysA, arraysB ) && sameLayout( arraysA, arraysOut ) )
+		{
+			// all arrays of an ArrayImg or PlanarImg have the same length
+			final long pixelsPerArray = arraysA[ 0 ].length / 2;
+			final long numPixels = pixelsPerArray * arraysA.length;
+
+			for ( int t = 0; t < numTasks; ++t )
+			{
+				final long start = numPixels * t / numTasks;
+				final long end = numPixels * ( t + 1 ) / numTasks;
+
+				tasks.add( new Callable< Void >()
+				{
+					@Override
+					public Void call()
+					{
+						long i = start;
+
+						while ( i < end )
+						{
+							final int array = ( int ) ( i / pixelsPerArray );
+							final long arrayStart = array * pixelsPerArray;
+							final int from = ( int ) ( i - arrayStart );
+							final int to = ( int ) ( Math.min( end, arrayStart + pixelsPerArray ) - arrayStart );
+
+							multiplyDivideComplex( arraysA[ array ], arraysB[ array ], arraysOut[ array ], from * 2, to * 2, div );
+
+							i = arrayStart + to;
+						}
+
+						return null;
+					}
+				} );
+			}
+		}
+		else
+		{
+			final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( img.size(), numTasks );
+
+			for ( final Chunk chunk : chunks )
+			{
+				tasks.add( new Callable< Void >()
+				{
+					@Override
+					public Void call()
+					{
+						final Cursor< ComplexFloatType > cursorA = img.cursor();
+						final Cursor< ComplexFloatType > cursorB = kernel.cursor();
+						final Cursor< ComplexFloatType > cursorOut = out == img ? cursorA : out.cursor();
+
+						cursorA.jumpFwd( chunk.getStartPosition() );
+						cursorB.jumpFwd( chunk.getStartPosition() );
+
+						if ( cursorOut != cursorA )
+							cursorOut.jumpFwd( chunk.getStartPosition() );
+
+						for ( long j = 0; j < chunk.getLoopSize(); ++j )
+						{
+							final ComplexFloatType a = cursorA.next();
+							final ComplexFloatType o = cursorOut == cursorA ? a : cursorOut.next();
+
+							if ( o != a )
+								o.set( a );
+
+							if ( div )
+								o.div( cursorB.next() );
+							else
+								o.mul( cursorB.next() );
+						}
+
+						return null;
+					}
+				} );
+			}
+		}
+
+		invokeAll( tasks, service );
+	}
+
+	/**
+	 * Multiplies (or divides) interleaved complex numbers, out = a * b (or
+	 * out = a / b). The output array may be identical to a.
+	 * 
+	 * @param from
+	 *            - first index (real part) in the arrays
+	 * @param to
+	 *            - last index (exclusive) in the arrays
+	 */
+	final protected static void multiplyDivideComplex( final float[] a, final float[] b, final float[] out, final int from, final int to, final boolean div )
+	{
+		if ( div )
+		{
+			for ( int i = from; i < to; i += 2 )
+			{
+				final float ar = a[ i ];
+				final float ai = a[ i + 1 ];
+				final float br = b[ i ];
+				final float bi = b[ i + 1 ];
+				final float dn = br * br + bi * bi;
+
+				out[ i ] = ( ar * br + ai * bi ) / dn;
+				out[ i + 1 ] = ( ai * br - ar * bi ) / dn;
+			}
+		}
+		else
+		{
+			for ( int i = from; i < to; i += 2 )
+			{
+				final float ar = a[ i ];
+				final float ai = a[ i + 1 ];
+				final float br = b[ i ];
+				final float bi = b[ i + 1 ];
+
+				out[ i ] = ar * br - ai * bi;
+				out[ i + 1 ] = ar * bi + ai * br;
+			}
+		}
+	}
+
+	/**
+	 * @return - true if both are non-null and consist of the same number of
+	 *         arrays of the same length
+	 */
+	protected static boolean sameLayout( final float[][] a, final float[][] b )
+	{
+		return a != null && b != null && a.length == b.length && a[ 0 ].length == b[ 0 ].length;
+	}
+
+	/**
+	 * @return - the float arrays backing an {@link ArrayImg} or
+	 *         {@link PlanarImg} (in iteration order), or null if the
+	 *         {@link Img} is stored differently
+	 */
+	protected static float[][] floatArrays( final Img< ComplexFloatType > img )
+	{
+		if ( img instanceof ArrayImg )
+		{
+			final Object access = ( ( ArrayImg< ?, ? > ) img ).update( null );
+
+			if ( access instanceof ArrayDataAccess && ( ( ArrayDataAccess< ? > ) access ).getCurrentStorageArray() instanceof float[] )
+			{
+				final float[] array = ( float[] ) ( ( ArrayDataAccess< ? > ) access ).getCurrentStorageArray();
+
+				if ( array.length == img.size() * 2 )
+					return new float[][] { array };
+			}
+		}
+		else if ( img instanceof PlanarImg )
+		{
+			final PlanarImg< ?, ? > planar = ( PlanarImg< ?, ? > ) img;
+			final float[][] arrays = new float[ planar.numSlices() ][];
+
+			for ( int i = 0; i < arrays.length; ++i )
+			{
+				final Object array = planar.getPlane( i ).getCurrentStorageArray();
+
+				if ( !( array instanceof float[] ) )
+					return null;
+
+				arrays[ i ] = ( float[] ) array;
+			}
+
+			if ( ( long ) arrays[ 0 ].length * arrays.length == img.size() * 2 )
+				return arrays;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return - the number of tasks to partition numPixels pixels into for the
+	 *         {@link ExecutorService}, see
+	 *         {@link #numTasks(ExecutorService, long, long)}
+	 */
+	protected static int numTasks( final ExecutorService service, final long numPixels )
+	{
+		return numTasks( service, numPixels, 1 );
+	}
+
+	/**
+	 * @param numElements
+	 *            - the number of elements, e.g. lines, that are distributed
+	 * @param elementSize
+	 *            - the number of pixels of one element
+	 * @return - the number of tasks to partition the elements into, one per
+	 *         thread of the {@link ExecutorService} but not less than
+	 *         minPixelsPerTask pixels per task, at least one
+	 */
+	protected static int numTasks( final ExecutorService service, final long numElements, final long elementSize )
+	{
+		final long maxTasks = Math.max( 1, Math.min( numElements, numElements * elementSize / minPixelsPerTask ) );
+
+		return ( int ) Math.min( numThreads( service ), maxTasks );
+	}
+
+	/**
+	 * @return - the number of threads of a {@link ThreadPoolExecutor} or
+	 *         {@link ForkJoinPool}, the number of processors for any other
+	 *         {@link ExecutorService}
+	 */
+	protected static int numThreads( final ExecutorService service )
+	{
+		final int numProcessors = Runtime.getRuntime().availableProcessors();
+
+		if ( service instanceof ThreadPoolExecutor )
+		{
+			final ThreadPoolExecutor pool = ( ThreadPoolExecutor ) service;
+
+			// an unbounded pool (e.g. a cached thread pool) grows with the
+			// number of tasks
+			return Math.max( 1, Math.min( pool.getMaximumPoolSize(), Math.max( pool.getCorePoolSize(), numProcessors ) ) );
+		}
+
+		if ( service instanceof ForkJoinPool )
+			return ( ( ForkJoinPool ) service ).getParallelism();
+
+		return numProcessors;
+	}
+
+	/**
+	 * Runs all tasks using the {@link ExecutorService} and waits until they
+	 * are finished.
+	 */
+	protected static void invokeAll( final List< Callable< Void > > tasks, final ExecutorService service )
+	{
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Computation was interrupted.", e );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new RuntimeException( "Computation failed: " + e.getCause(), e.getCause() );
+		}
+	}
+
 	protected static ImgFactory< ComplexFloatType > getFFTFactory( final Img< ? extends RealType< ? > > img )
 	{
 		try
@@ -734,6 +1739,40 @@ public class FFTConvolution< R extends RealType< R > >
 		}
 	}
 
+	/**
+	 * @return - the factory for double precision spectra derived from the one
+	 *         for float spectra (e.g. with the same cell size), or
+	 *         {@link #getDoubleFFTFactory(long[])} if it does not support
+	 *         {@link ComplexDoubleType}
+	 */
+	protected static ImgFactory< ComplexDoubleType > getDoubleFFTFactory( final ImgFactory< ComplexFloatType > fftFactory, final long[] fftDimensions )
+	{
+		try
+		{
+			final ImgFactory< ComplexDoubleType > factory = fftFactory.imgFactory( new ComplexDoubleType() );
+
+			if ( !( factory instanceof ArrayImgFactory ) || Intervals.numElements( fftDimensions ) <= Integer.MAX_VALUE / 2 )
+				return factory;
+		}
+		catch ( final IncompatibleTypeException e )
+		{
+			// use the default factory below
+		}
+
+		return getDoubleFFTFactory( fftDimensions );
+	}
+
+	/**
+	 * @return - an {@link ArrayImgFactory} for double precision spectra, or a
+	 *         {@link CellImgFactory} if they do not fit into an array
+	 */
+	protected static ImgFactory< ComplexDoubleType > getDoubleFFTFactory( final long[] fftDimensions )
+	{
+		if ( Intervals.numElements( fftDimensions ) > Integer.MAX_VALUE / 2 )
+			return new CellImgFactory<>( new ComplexDoubleType(), 1024 );
+		return new ArrayImgFactory<>( new ComplexDoubleType() );
+	}
+
 	/**
 	 * Set the executor service to use.
 	 *
@@ -0,0 +1,402 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Convolves a stream of images of identical size (e.g. the frames of a
+ * time-lapse) with one kernel asynchronously. Every frame passes through two
+ * stages, the forward FFT ({@link #computeImgFFTAsync(RandomAccessibleInterval)})
+ * and the multiplication with the kernel spectrum followed by the inverse FFT
+ * ({@link #computeConvolutionAsync(CompletableFuture, RandomAccessibleInterval)}).
+ * Both return a {@link CompletableFuture}, so the forward FFT of frame t+1
+ * overlaps with the multiplication and inverse FFT of frame t and the
+ * {@link ExecutorService} does not idle at the end of each stage.
+ *
+ * The number of frames in flight is bounded, {@link #computeImgFFTAsync}
+ * blocks the caller until a frame finished if the limit is reached. Every
+ * frame occupies one complex workspace, the workspaces are recycled. The
+ * kernel spectrum is computed once for the first frame.
+ *
+ * The stages are executed by threads owned by the pipeline (one per frame in
+ * flight), the FFTs themselves are multi-threaded using the given
+ * {@link ExecutorService}. Call {@link #close()} when done, it waits for the
+ * frames in flight.
+ */
+public class FFTConvolutionPipeline< R extends RealType< R > > implements AutoCloseable
+{
+	final RandomAccessible< R > kernel;
+
+	final Interval kernelInterval;
+
+	final ImgFactory< ComplexFloatType > fftFactory;
+
+	final ExecutorService service;
+
+	final ExecutorService stageExecutor;
+
+	final int maxFramesInFlight;
+
+	final Semaphore framesInFlight;
+
+	final ConcurrentLinkedQueue< Img< ComplexFloatType > > workspaces = new ConcurrentLinkedQueue< Img< ComplexFloatType > >();
+
+	KernelFFTCache kernelFFTCache = KernelFFTCache.shared();
+
+	boolean div = false;
+
+	// set by close(), no new frames are admitted afterwards
+	final AtomicBoolean closed = new AtomicBoolean( false );
+
+	// set up from the first frame
+	private Interval firstFrame;
+
+	private long[] paddedDimensions, fftDimensions, kernelMin, kernelMax;
+
+	private Interval kernelConvolutionInterval;
+
+	private Img< ComplexFloatType > fftKernel;
+
+	/**
+	 * @param kernel
+	 *            - the convolution kernel, will be zero-padded
+	 * @param factory
+	 *            - the {@link ImgFactory} to create the fourier transforms
+	 * @param service
+	 *            - service providing threads for the FFTs
+	 * @param maxFramesInFlight
+	 *            - the maximal number of frames that are processed at the same
+	 *            time
+	 */
+	public FFTConvolutionPipeline( final RandomAccessibleInterval< R > kernel, final ImgFactory< ComplexFloatType > factory, final ExecutorService service, final int maxFramesInFlight )
+	{
+		this( Views.extendValue( kernel, Util.getTypeFromInterval( kernel ).createVariable() ), kernel, factory, service, maxFramesInFlight );
+	}
+
+	/**
+	 * @param kernel
+	 *            - the kernel, needs to be extended or infinite
+	 * @param kernelInterval
+	 *            - the kernel interval
+	 * @param factory
+	 *            - the {@link ImgFactory} to create the fourier transforms
+	 * @param service
+	 *            - service providing threads for the FFTs
+	 * @param maxFramesInFlight
+	 *            - the maximal number of frames that are processed at the same
+	 *            time
+	 */
+	public FFTConvolutionPipeline( final RandomAccessible< R > kernel, final Interval kernelInterval, final ImgFactory< ComplexFloatType > factory, final ExecutorService service, final int maxFramesInFlight )
+	{
+		if ( maxFramesInFlight < 1 )
+			throw new IllegalArgumentException( "At least one frame needs to be in flight." );
+
+		this.kernel = kernel;
+		this.kernelInterval = kernelInterval;
+		this.fftFactory = factory;
+		this.service = service;
+		this.maxFramesInFlight = maxFramesInFlight;
+		this.framesInFlight = new Semaphore( maxFramesInFlight );
+
+		// the stages wait for the FFT tasks submitted to the service, sharing
+		// its threads could dead-lock
+		this.stageExecutor = Executors.newFixedThreadPool( maxFramesInFlight );
+	}
+
+	/**
+	 * @param div - perform deconvolution instead of convolution.
+	 */
+	public void setDiv( final boolean div )
+	{
+		this.div = div;
+	}
+
+	public boolean getDiv()
+	{
+		return div;
+	}
+
+	/**
+	 * @param kernelFFTCache
+	 *            - the cache to look up and store the kernel spectrum, null
+	 *            disables caching
+	 */
+	public void setKernelFFTCache( final KernelFFTCache kernelFFTCache )
+	{
+		this.kernelFFTCache = kernelFFTCache;
+	}
+
+	/**
+	 * Convolves one frame asynchronously, identical to passing the result of
+	 * {@link #computeImgFFTAsync(RandomAccessibleInterval)} to
+	 * {@link #computeConvolutionAsync(CompletableFuture, RandomAccessibleInterval)}.
+	 *
+	 * @param input
+	 *            - the frame, will be extended by mirroring with single
+	 *            boundary
+	 * @param output
+	 *            - the output, same size as the frame (may be the input)
+	 * @return - completes with the output once it contains the convolution
+	 */
+	public CompletableFuture< RandomAccessibleInterval< R > > convolveAsync( final RandomAccessibleInterval< R > input, final RandomAccessibleInterval< R > output )
+	{
+		return computeConvolutionAsync( computeImgFFTAsync( input ), output );
+	}
+
+	/**
+	 * Starts the forward FFT of a frame. Blocks until the frame can be
+	 * admitted if the maximal number of frames is in flight. The frame leaves
+	 * the pipeline once the returned spectrum was passed to
+	 * {@link #computeConvolutionAsync(CompletableFuture, RandomAccessibleInterval)}
+	 * and that stage completed, every spectrum therefore has to be passed on.
+	 *
+	 * @param input
+	 *            - the frame, will be extended by mirroring with single
+	 *            boundary
+	 * @return - completes with the spectrum of the frame
+	 * @throws IllegalStateException
+	 *             - if the pipeline was closed
+	 */
+	public CompletableFuture< Img< ComplexFloatType > > computeImgFFTAsync( final RandomAccessibleInterval< R > input )
+	{
+		if ( closed.get() )
+			throw new IllegalStateException( "The pipeline was closed." );
+
+		final Interval imgConvolutionInterval = setup( input );
+
+		try
+		{
+			framesInFlight.acquire();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Interrupted while waiting for a frame to finish.", e );
+		}
+
+		// closed while waiting for the permit, close() waits for all frames
+		// that hold a permit once closed is set
+		if ( closed.get() )
+		{
+			framesInFlight.release();
+			throw new IllegalStateException( "The pipeline was closed." );
+		}
+
+		try
+		{
+			return computeImgFFTAsync( input, imgConvolutionInterval );
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			framesInFlight.release();
+			throw new IllegalStateException( "The pipeline was closed.", e );
+		}
+	}
+
+	private CompletableFuture< Img< ComplexFloatType > > computeImgFFTAsync( final RandomAccessibleInterval< R > input, final Interval imgConvolutionInterval )
+	{
+		return CompletableFuture.supplyAsync( new Supplier< Img< ComplexFloatType > >()
+		{
+			@Override
+			public Img< ComplexFloatType > get()
+			{
+				final Img< ComplexFloatType > workspace = acquireWorkspace();
+
+				try
+				{
+					FFTConvolution.computeImgFFT( imgConvolutionInterval, Views.extendMirrorSingle( input ), workspace, service );
+				}
+				catch ( final RuntimeException e )
+				{
+					workspaces.add( workspace );
+					throw e;
+				}
+
+				return workspace;
+			}
+		}, stageExecutor );
+	}
+
+	/**
+	 * Multiplies the spectrum of a frame with the kernel spectrum and computes
+	 * the inverse FFT into the output once the spectrum is available. The
+	 * spectrum is recycled afterwards and must not be used anymore.
+	 *
+	 * @param fftImg
+	 *            - the spectrum as returned by
+	 *            {@link #computeImgFFTAsync(RandomAccessibleInterval)}
+	 * @param output
+	 *            - the output, same size as the frame
+	 * @return - completes with the output once it contains the convolution
+	 */
+	public CompletableFuture< RandomAccessibleInterval< R > > computeConvolutionAsync( final CompletableFuture< Img< ComplexFloatType > > fftImg, final RandomAccessibleInterval< R > output )
+	{
+		return fftImg.thenApplyAsync( new Function< Img< ComplexFloatType >, RandomAccessibleInterval< R > >()
+		{
+			@Override
+			public RandomAccessibleInterval< R > apply( final Img< ComplexFloatType > spectrum )
+			{
+				try
+				{
+					FFTConvolution.multiplyDivideComplex( spectrum, getKernelFFT(), div, service );
+					FFT.complexToRealUnpad( spectrum, output, service );
+				}
+				finally
+				{
+					workspaces.add( spectrum );
+				}
+
+				return output;
+			}
+		}, stageExecutor ).whenComplete( new BiConsumer< RandomAccessibleInterval< R >, Throwable >()
+		{
+			@Override
+			public void accept( final RandomAccessibleInterval< R > result, final Throwable t )
+			{
+				framesInFlight.release();
+			}
+		} );
+	}
+
+	/**
+	 * Rejects new frames, waits until all frames in flight left the pipeline
+	 * and shuts down the threads executing the stages. Every spectrum returned
+	 * by {@link #computeImgFFTAsync(RandomAccessibleInterval)} therefore has to
+	 * be passed on before. The off-heap workspaces and kernel spectrum are
+	 * released afterwards (off-heap spectra are never cached). The
+	 * {@link ExecutorService} for the FFTs is not shut down.
+	 */
+	@Override
+	public void close()
+	{
+		if ( !closed.compareAndSet( false, true ) )
+			return;
+
+		// a frame returns its workspace before it releases its permit
+		framesInFlight.acquireUninterruptibly( maxFramesInFlight );
+
+		try
+		{
+			stageExecutor.shutdown();
+
+			Img< ComplexFloatType > workspace;
+
+			while ( ( workspace = workspaces.poll() ) != null )
+				OffHeapComplexFloatImgFactory.release( workspace );
+
+			synchronized ( this )
+			{
+				if ( fftKernel != null )
+					OffHeapComplexFloatImgFactory.release( fftKernel );
+
+				fftKernel = null;
+			}
+		}
+		finally
+		{
+			// callers blocked in computeImgFFTAsync are rejected
+			framesInFlight.release( maxFramesInFlight );
+		}
+	}
+
+	/**
+	 * Sets up the padding on the first frame and returns the padded interval
+	 * of the given frame.
+	 */
+	protected synchronized Interval setup( final RandomAccessibleInterval< R > input )
+	{
+		if ( firstFrame == null )
+		{
+			final int numDimensions = input.numDimensions();
+
+			final long[] min = new long[ numDimensions ];
+			final long[] max = new long[ numDimensions ];
+
+			final Pair< Interval, Interval > fftIntervals = FFTConvolution.setupFFTs( input, kernelInterval, min, max );
+
+			paddedDimensions = new long[ numDimensions ];
+			fftIntervals.getA().dimensions( paddedDimensions );
+			fftDimensions = FFTConvolution.fftDimensions( fftIntervals.getA() );
+
+			firstFrame = input;
+
+			// the kernel FFT is computed by the first convolution stage
+			kernelMin = min;
+			kernelMax = max;
+			kernelConvolutionInterval = fftIntervals.getB();
+		}
+		else if ( !Intervals.equalDimensions( firstFrame, input ) )
+		{
+			throw new IllegalArgumentException( "All frames need to have the same size." );
+		}
+
+		// the frames might be located at different positions
+		return FFTMethods.paddingIntervalCentered( input, FinalDimensions.wrap( paddedDimensions ) );
+	}
+
+	protected synchronized Img< ComplexFloatType > getKernelFFT()
+	{
+		if ( fftKernel == null )
+			fftKernel = FFTConvolution.computeKernelFFT( kernelConvolutionInterval, kernelMin, kernelMax, false, kernel, fftFactory, service, kernelFFTCache );
+
+		return fftKernel;
+	}
+
+	protected Img< ComplexFloatType > acquireWorkspace()
+	{
+		final Img< ComplexFloatType > workspace = workspaces.poll();
+
+		if ( workspace != null )
+			return workspace;
+
+		return fftFactory.create( fftDimensions );
+	}
+}
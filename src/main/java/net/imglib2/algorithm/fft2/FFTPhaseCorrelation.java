@@ -0,0 +1,751 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Phase correlation of pairs of tiles, e.g. to compute the pairwise shifts
+ * for stitching. An {@link FFTConvolution} with
+ * {@link FFTConvolution#setComputeComplexConjugate(boolean)} computes the
+ * cross-correlation, but transforms both images for every pair and writes the
+ * full correlation into a new output image. Here the spectrum of every tile
+ * is computed once (see
+ * {@link FFTConvolution#computeImgFFT(Interval, net.imglib2.RandomAccessible, ImgFactory, ExecutorService)})
+ * and cached until it is released, so a tile is transformed only once for all
+ * of its neighbours. For each pair the normalized cross-power spectrum is
+ * computed in a single pass into a resident workspace, inverse transformed
+ * into a resident real buffer and only the highest k local maxima of the
+ * buffer are returned.
+ * 
+ * {@link #correlate(RandomAccessibleInterval, RandomAccessibleInterval, int)}
+ * can be called by several threads at once, every concurrent caller takes its
+ * own workspace and buffer from a pool, so the number of workspaces equals
+ * the number of pairs that were correlated at the same time. A spectrum that
+ * is released while it is correlated is freed once the last correlation using
+ * it finished.
+ * 
+ * The mean of every tile is subtracted and the tiles are zero-padded to at
+ * least twice their size, therefore the shifts are unambiguous. Several peaks
+ * can be checked against the cross-correlation in real space to reject
+ * spurious ones.
+ * 
+ * The cached spectra are keyed by the identity of the tiles, pass the same
+ * {@link RandomAccessibleInterval} instance for every pair a tile is part of.
+ */
+public class FFTPhaseCorrelation< R extends RealType< R > >
+{
+	/**
+	 * A peak of the phase correlation.
+	 */
+	public static class Peak
+	{
+		final long[] shift;
+
+		final float value;
+
+		public Peak( final long[] shift, final float value )
+		{
+			this.shift = shift;
+			this.value = value;
+		}
+
+		/**
+		 * @return - the offset of the second tile relative to the first one,
+		 *         i.e. tileA( x ) = tileB( x - shift )
+		 */
+		public long[] getShift()
+		{
+			return shift.clone();
+		}
+
+		/**
+		 * @return - the height of the peak in the phase correlation
+		 */
+		public float getValue()
+		{
+			return value;
+		}
+
+		@Override
+		public String toString()
+		{
+			return Util.printCoordinates( shift ) + ": " + value;
+		}
+	}
+
+	final int numDimensions;
+
+	final long[] maxTileSize, paddedDimensions;
+
+	final Interval paddedInterval;
+
+	final ImgFactory< ComplexFloatType > fftFactory;
+
+	/**
+	 * A cached spectrum and the number of correlations currently using it.
+	 */
+	protected static class TileFFT
+	{
+		final Img< ComplexFloatType > fft;
+
+		// guarded by tileFFTs
+		int users = 0;
+
+		boolean removed = false;
+
+		public TileFFT( final Img< ComplexFloatType > fft )
+		{
+			this.fft = fft;
+		}
+	}
+
+	/**
+	 * The normalized cross-power spectrum and its inverse of one pair.
+	 */
+	protected static class Workspace
+	{
+		final Img< ComplexFloatType > spectrum;
+
+		final ArrayImg< FloatType, FloatArray > correlation;
+
+		public Workspace( final Img< ComplexFloatType > spectrum, final ArrayImg< FloatType, FloatArray > correlation )
+		{
+			this.spectrum = spectrum;
+			this.correlation = correlation;
+		}
+	}
+
+	// the spectra of all tiles that were not released yet
+	final IdentityHashMap< RandomAccessibleInterval< R >, TileFFT > tileFFTs = new IdentityHashMap< RandomAccessibleInterval< R >, TileFFT >();
+
+	// the idle workspaces, reused by all pairs
+	final ConcurrentLinkedQueue< Workspace > workspaces = new ConcurrentLinkedQueue< Workspace >();
+
+	// spectra below this magnitude are set to zero instead of normalized
+	float minMagnitude = 1e-10f;
+
+	private ExecutorService service;
+
+	/**
+	 * @param maxTileSize
+	 *            - the largest tiles that will be correlated, defines the
+	 *            padded size
+	 * @param fftFactory
+	 *            - the {@link ImgFactory} to create the spectra
+	 * @param service
+	 *            - service providing threads for multi-threading, if null one
+	 *            will be created for every call
+	 */
+	public FFTPhaseCorrelation( final Dimensions maxTileSize, final ImgFactory< ComplexFloatType > fftFactory, final ExecutorService service )
+	{
+		this.numDimensions = maxTileSize.numDimensions();
+		this.maxTileSize = Intervals.dimensionsAsLongArray( maxTileSize );
+		this.fftFactory = fftFactory;
+		this.service = service;
+
+		// pad to at least 2 * size - 1 so that no two shifts overlap
+		final long[] minDimensions = new long[ numDimensions ];
+
+		for ( int d = 0; d < numDimensions; ++d )
+			minDimensions[ d ] = this.maxTileSize[ d ] * 2 - 1;
+
+		paddedDimensions = new long[ numDimensions ];
+		FFTMethods.dimensionsRealToComplexFast( FinalDimensions.wrap( minDimensions ), paddedDimensions, new long[ numDimensions ] );
+
+		if ( Intervals.numElements( paddedDimensions ) > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "The padded phase correlation " + Util.printCoordinates( paddedDimensions ) + " does not fit into an array." );
+
+		paddedInterval = new FinalInterval( paddedDimensions );
+	}
+
+	/**
+	 * @param minMagnitude
+	 *            - frequencies whose cross-power is below this magnitude are
+	 *            set to zero instead of normalized
+	 */
+	public void setMinMagnitude( final float minMagnitude )
+	{
+		this.minMagnitude = minMagnitude;
+	}
+
+	public float getMinMagnitude()
+	{
+		return minMagnitude;
+	}
+
+	/**
+	 * @return - the dimensions the tiles are zero-padded to
+	 */
+	public long[] getPaddedDimensions()
+	{
+		return paddedDimensions.clone();
+	}
+
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	/**
+	 * Computes the phase correlation of two tiles and returns its highest
+	 * local maxima. The spectra of both tiles are cached until they are
+	 * released.
+	 * 
+	 * @param tileA
+	 *            - the first tile
+	 * @param tileB
+	 *            - the second tile
+	 * @param numPeaks
+	 *            - the maximal number of peaks to return
+	 * @return - the peaks, sorted by decreasing value
+	 */
+	public List< Peak > correlate( final RandomAccessibleInterval< R > tileA, final RandomAccessibleInterval< R > tileB, final int numPeaks )
+	{
+		if ( service == null )
+		{
+			final ExecutorService executor = FFTConvolution.createExecutorService();
+			try
+			{
+				return correlate( tileA, tileB, numPeaks, executor );
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		else
+		{
+			return correlate( tileA, tileB, numPeaks, service );
+		}
+	}
+
+	private List< Peak > correlate( final RandomAccessibleInterval< R > tileA, final RandomAccessibleInterval< R > tileB, final int numPeaks, final ExecutorService executor )
+	{
+		// the spectra cannot be freed by release() while they are used
+		final TileFFT fftA = getTileFFT( tileA, executor, true );
+
+		try
+		{
+			final TileFFT fftB = getTileFFT( tileB, executor, true );
+
+			try
+			{
+				Workspace workspace = workspaces.poll();
+
+				if ( workspace == null )
+					workspace = new Workspace( fftFactory.create( FFTConvolution.fftDimensions( paddedInterval ) ), ArrayImgs.floats( paddedDimensions ) );
+
+				try
+				{
+					normalizedCrossPower( fftA.fft, fftB.fft, workspace.spectrum, minMagnitude, executor );
+
+					// the inverse transform overwrites the workspace, the output has the padded size
+					FFT.complexToRealUnpad( workspace.spectrum, workspace.correlation, executor );
+
+					return findPeaks( workspace.correlation.update( null ).getCurrentStorageArray(), paddedDimensions, numPeaks, executor );
+				}
+				finally
+				{
+					workspaces.add( workspace );
+				}
+			}
+			finally
+			{
+				endUse( fftB );
+			}
+		}
+		finally
+		{
+			endUse( fftA );
+		}
+	}
+
+	/**
+	 * @return - the spectrum of the tile, computed and cached on the first
+	 *         call, must not be modified. It is freed by
+	 *         {@link #release(RandomAccessibleInterval)} or
+	 *         {@link #clearCache()}, which must therefore not be called while
+	 *         the caller still uses it.
+	 */
+	public Img< ComplexFloatType > getTileFFT( final RandomAccessibleInterval< R > tile )
+	{
+		if ( service == null )
+		{
+			final ExecutorService executor = FFTConvolution.createExecutorService();
+			try
+			{
+				return getTileFFT( tile, executor, false ).fft;
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		else
+		{
+			return getTileFFT( tile, service, false ).fft;
+		}
+	}
+
+	/**
+	 * @param use
+	 *            - count the caller as a user of the spectrum until
+	 *            {@link #endUse(TileFFT)}
+	 */
+	protected TileFFT getTileFFT( final RandomAccessibleInterval< R > tile, final ExecutorService executor, final boolean use )
+	{
+		synchronized ( tileFFTs )
+		{
+			final TileFFT tileFFT = tileFFTs.get( tile );
+
+			if ( tileFFT != null )
+			{
+				if ( use )
+					++tileFFT.users;
+
+				return tileFFT;
+			}
+		}
+
+		for ( int d = 0; d < numDimensions; ++d )
+			if ( tile.dimension( d ) > maxTileSize[ d ] )
+				throw new IllegalArgumentException( "Tile " + Util.printInterval( tile ) + " is larger than " + Util.printCoordinates( maxTileSize ) + "." );
+
+		// computed outside of the lock so that different tiles are transformed
+		// concurrently
+		final Img< ComplexFloatType > fft = FFTConvolution.computeImgFFT( paddedInterval, Views.extendZero( subtractMean( tile ) ), fftFactory, executor );
+
+		TileFFT tileFFT;
+
+		synchronized ( tileFFTs )
+		{
+			tileFFT = tileFFTs.get( tile );
+
+			if ( tileFFT == null )
+			{
+				tileFFT = new TileFFT( fft );
+				tileFFTs.put( tile, tileFFT );
+			}
+
+			if ( use )
+				++tileFFT.users;
+		}
+
+		// another thread computed the same tile first, keep its spectrum
+		if ( tileFFT.fft != fft )
+			OffHeapComplexFloatImgFactory.release( fft );
+
+		return tileFFT;
+	}
+
+	/**
+	 * Ends the use of a spectrum by a correlation, frees it if it was removed
+	 * from the cache in the meantime.
+	 */
+	protected void endUse( final TileFFT tileFFT )
+	{
+		synchronized ( tileFFTs )
+		{
+			if ( --tileFFT.users > 0 || !tileFFT.removed )
+				return;
+		}
+
+		OffHeapComplexFloatImgFactory.release( tileFFT.fft );
+	}
+
+	/**
+	 * Removes the spectrum of a tile from the cache, e.g. once it was
+	 * correlated with all of its neighbours. If it is correlated right now, it
+	 * is freed once the correlation finished.
+	 */
+	public void release( final RandomAccessibleInterval< R > tile )
+	{
+		final TileFFT tileFFT;
+
+		synchronized ( tileFFTs )
+		{
+			tileFFT = tileFFTs.remove( tile );
+
+			if ( tileFFT == null )
+				return;
+
+			tileFFT.removed = true;
+
+			if ( tileFFT.users > 0 )
+				return;
+		}
+
+		OffHeapComplexFloatImgFactory.release( tileFFT.fft );
+	}
+
+	/**
+	 * Removes all spectra from the cache (spectra that are correlated right
+	 * now are freed once the correlation finished) and frees the idle
+	 * workspaces.
+	 */
+	public void clearCache()
+	{
+		final ArrayList< Img< ComplexFloatType > > ffts = new ArrayList< Img< ComplexFloatType > >();
+
+		synchronized ( tileFFTs )
+		{
+			for ( final TileFFT tileFFT : tileFFTs.values() )
+			{
+				tileFFT.removed = true;
+
+				if ( tileFFT.users == 0 )
+					ffts.add( tileFFT.fft );
+			}
+
+			tileFFTs.clear();
+		}
+
+		for ( final Img< ComplexFloatType > fft : ffts )
+			OffHeapComplexFloatImgFactory.release( fft );
+
+		Workspace workspace;
+
+		while ( ( workspace = workspaces.poll() ) != null )
+			OffHeapComplexFloatImgFactory.release( workspace.spectrum );
+	}
+
+	/**
+	 * @return - the number of cached tile spectra
+	 */
+	public int numCachedTiles()
+	{
+		synchronized ( tileFFTs )
+		{
+			return tileFFTs.size();
+		}
+	}
+
+	/**
+	 * @return - a zero-min view of the tile minus its mean
+	 */
+	protected static < R extends RealType< R > > RandomAccessibleInterval< FloatType > subtractMean( final RandomAccessibleInterval< R > tile )
+	{
+		double sum = 0;
+
+		for ( final R t : Views.flatIterable( tile ) )
+			sum += t.getRealDouble();
+
+		final float mean = ( float ) ( sum / Intervals.numElements( tile ) );
+
+		return Converters.convert( Views.zeroMin( tile ), new Converter< R, FloatType >()
+		{
+			@Override
+			public void convert( final R input, final FloatType output )
+			{
+				output.set( input.getRealFloat() - mean );
+			}
+		}, new FloatType() );
+	}
+
+	/**
+	 * Computes out = a * conj( b ) / | a * conj( b ) |, frequencies with a
+	 * magnitude below minMagnitude are set to zero. The output may be
+	 * identical to a.
+	 */
+	public static void normalizedCrossPower( final Img< ComplexFloatType > a, final Img< ComplexFloatType > b, final Img< ComplexFloatType > out, final float minMagnitude, final ExecutorService service )
+	{
+		final int numTasks = FFTConvolution.numTasks( service, a.size() );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		final float[][] arraysA = FFTConvolution.floatArrays( a );
+		final float[][] arraysB = FFTConvolution.floatArrays( b );
+		final float[][] arraysOut = out == a ? arraysA : FFTConvolution.floatArrays( out );
+
+		if ( FFTConvolution.sameLayout( arraysA, arraysB ) && FFTConvolution.sameLayout( arraysA, arraysOut ) )
+		{
+			for ( int array = 0; array < arraysA.length; ++array )
+			{
+				final float[] fa = arraysA[ array ];
+				final float[] fb = arraysB[ array ];
+				final float[] fo = arraysOut[ array ];
+				final int numPixels = fa.length / 2;
+
+				for ( int t = 0; t < numTasks; ++t )
+				{
+					final int from = ( int ) ( ( long ) numPixels * t / numTasks ) * 2;
+					final int to = ( int ) ( ( long ) numPixels * ( t + 1 ) / numTasks ) * 2;
+
+					tasks.add( new Callable< Void >()
+					{
+						@Override
+						public Void call()
+						{
+							normalizedCrossPower( fa, fb, fo, from, to, minMagnitude );
+							return null;
+						}
+					} );
+				}
+			}
+		}
+		else
+		{
+			final long size = a.size();
+
+			for ( int t = 0; t < numTasks; ++t )
+			{
+				final long start = size * t / numTasks;
+				final long end = size * ( t + 1 ) / numTasks;
+
+				tasks.add( new Callable< Void >()
+				{
+					@Override
+					public Void call()
+					{
+						final Cursor< ComplexFloatType > cursorA = a.cursor();
+						final Cursor< ComplexFloatType > cursorB = b.cursor();
+						final Cursor< ComplexFloatType > cursorOut = out == a ? cursorA : out.cursor();
+
+						cursorA.jumpFwd( start );
+						cursorB.jumpFwd( start );
+
+						if ( cursorOut != cursorA )
+							cursorOut.jumpFwd( start );
+
+						for ( long j = start; j < end; ++j )
+						{
+							final ComplexFloatType ta = cursorA.next();
+							final ComplexFloatType tb = cursorB.next();
+							final ComplexFloatType to = cursorOut == cursorA ? ta : cursorOut.next();
+
+							final float ar = ta.getRealFloat();
+							final float ai = ta.getImaginaryFloat();
+							final float br = tb.getRealFloat();
+							final float bi = tb.getImaginaryFloat();
+
+							final float re = ar * br + ai * bi;
+							final float im = ai * br - ar * bi;
+							final float magnitude = ( float ) Math.sqrt( re * re + im * im );
+
+							if ( magnitude < minMagnitude )
+								to.set( 0, 0 );
+							else
+								to.set( re / magnitude, im / magnitude );
+						}
+
+						return null;
+					}
+				} );
+			}
+		}
+
+		FFTConvolution.invokeAll( tasks, service );
+	}
+
+	/**
+	 * Normalized cross-power of interleaved complex numbers, out may be
+	 * identical to a.
+	 * 
+	 * @param from
+	 *            - first index (real part) in the arrays
+	 * @param to
+	 *            - last index (exclusive) in the arrays
+	 */
+	protected static void normalizedCrossPower( final float[] a, final float[] b, final float[] out, final int from, final int to, final float minMagnitude )
+	{
+		for ( int i = from; i < to; i += 2 )
+		{
+			final float ar = a[ i ];
+			final float ai = a[ i + 1 ];
+			final float br = b[ i ];
+			final float bi = b[ i + 1 ];
+
+			final float re = ar * br + ai * bi;
+			final float im = ai * br - ar * bi;
+			final float magnitude = ( float ) Math.sqrt( re * re + im * im );
+
+			if ( magnitude < minMagnitude )
+			{
+				out[ i ] = 0;
+				out[ i + 1 ] = 0;
+			}
+			else
+			{
+				out[ i ] = re / magnitude;
+				out[ i + 1 ] = im / magnitude;
+			}
+		}
+	}
+
+	/**
+	 * Finds the highest local maxima (larger than their 2n direct neighbours,
+	 * periodic boundaries) of a correlation stored in a flat array. Every
+	 * thread keeps the best peaks of its part of the array, they are merged at
+	 * the end.
+	 * 
+	 * @param values
+	 *            - the correlation, flat in {@link IntervalIndexer} order
+	 * @param dimensions
+	 *            - the dimensions of the correlation
+	 * @param numPeaks
+	 *            - the maximal number of peaks
+	 * @return - the peaks sorted by decreasing value, the shifts wrapped to
+	 *         [ -size/2, size/2 )
+	 */
+	public static List< Peak > findPeaks( final float[] values, final long[] dimensions, final int numPeaks, final ExecutorService service )
+	{
+		if ( numPeaks < 1 )
+			throw new IllegalArgumentException( "At least one peak has to be requested." );
+
+		final int n = dimensions.length;
+		final int[] dims = new int[ n ];
+		final int[] steps = new int[ n ];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			dims[ d ] = ( int ) dimensions[ d ];
+			steps[ d ] = d == 0 ? 1 : steps[ d - 1 ] * dims[ d - 1 ];
+		}
+
+		final Comparator< Peak > ascending = new Comparator< Peak >()
+		{
+			@Override
+			public int compare( final Peak p1, final Peak p2 )
+			{
+				return Float.compare( p1.value, p2.value );
+			}
+		};
+
+		final int numTasks = FFTConvolution.numTasks( service, values.length );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		final ArrayList< PriorityQueue< Peak > > queues = new ArrayList< PriorityQueue< Peak > >();
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int start = ( int ) ( ( long ) values.length * t / numTasks );
+			final int end = ( int ) ( ( long ) values.length * ( t + 1 ) / numTasks );
+
+			// the best peaks of this part, the smallest one on top
+			final PriorityQueue< Peak > queue = new PriorityQueue< Peak >( numPeaks + 1, ascending );
+			queues.add( queue );
+
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final int[] position = new int[ n ];
+
+					if ( start < end )
+						IntervalIndexer.indexToPosition( start, dims, position );
+
+					for ( int i = start; i < end; ++i )
+					{
+						final float v = values[ i ];
+
+						if ( queue.size() < numPeaks || v > queue.peek().value )
+						{
+							boolean isMaximum = true;
+
+							for ( int d = 0; d < n && isMaximum; ++d )
+							{
+								if ( dims[ d ] == 1 )
+									continue;
+
+								final int previous = position[ d ] == 0 ? i + ( dims[ d ] - 1 ) * steps[ d ] : i - steps[ d ];
+								final int next = position[ d ] == dims[ d ] - 1 ? i - ( dims[ d ] - 1 ) * steps[ d ] : i + steps[ d ];
+
+								// strict on one side so that a plateau yields one peak
+								isMaximum = v > values[ previous ] && v >= values[ next ];
+							}
+
+							if ( isMaximum )
+							{
+								final long[] shift = new long[ n ];
+
+								for ( int d = 0; d < n; ++d )
+									shift[ d ] = position[ d ] < ( dims[ d ] + 1 ) / 2 ? position[ d ] : position[ d ] - dims[ d ];
+
+								queue.add( new Peak( shift, v ) );
+
+								if ( queue.size() > numPeaks )
+									queue.poll();
+							}
+						}
+
+						// next position in IntervalIndexer order
+						for ( int d = 0; d < n; ++d )
+						{
+							if ( ++position[ d ] < dims[ d ] )
+								break;
+
+							position[ d ] = 0;
+						}
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		FFTConvolution.invokeAll( tasks, service );
+
+		final ArrayList< Peak > peaks = new ArrayList< Peak >();
+
+		for ( final PriorityQueue< Peak > queue : queues )
+			peaks.addAll( queue );
+
+		Collections.sort( peaks, Collections.reverseOrder( ascending ) );
+
+		return new ArrayList< Peak >( peaks.subList( 0, Math.min( numPeaks, peaks.size() ) ) );
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+import net.imglib2.Dimensions;
+
+/**
+ * Chooses the padded size of FFTs by measuring instead of relying on the
+ * static tables of {@link FftReal#nfftFast(int)} and
+ * {@link FftComplex#nfftFast(int)}. The first time a size is requested, all
+ * sizes supported by the FFT between the requested size and the size chosen
+ * by nfftFast, and a few supported sizes up to 25% above it, are benchmarked
+ * on this machine and the fastest one is stored ("wisdom"). If a file is
+ * given, the wisdom is loaded from and saved to it, so repeated workloads
+ * converge on the fastest sizes without benchmarking again.
+ *
+ * A larger padded size makes every transform along the other dimensions more
+ * expensive, the cost of a candidate size n is therefore estimated as the time
+ * of one transform of length n plus n times the time per sample of the
+ * transforms along the other (numDimensions-1) dimensions.
+ *
+ * Use it with {@link FFTConvolution#setFFTSizePlanner(FFTSizePlanner)} or
+ * {@link net.imglib2.algorithm.fft.FourierTransform#setFFTSizePlanner(FFTSizePlanner)}.
+ */
+public class FFTSizePlanner
+{
+	// at most that many candidates are benchmarked for one size
+	final static int maxCandidates = 12;
+
+	// at most that many of them are larger than the size chosen by nfftFast
+	final static int maxLargerCandidates = 3;
+
+	final File file;
+
+	final Properties wisdom = new Properties();
+
+	long minBenchmarkNanos = 2000000;
+
+	/**
+	 * Creates a planner that keeps its wisdom in memory only.
+	 */
+	public FFTSizePlanner()
+	{
+		this.file = null;
+	}
+
+	/**
+	 * Creates a planner that loads its wisdom from the given file (if it
+	 * exists) and saves every new entry to it.
+	 *
+	 * @param file
+	 *            - the file storing the wisdom, null keeps it in memory only
+	 * @throws IOException
+	 *             - if the file exists but cannot be read
+	 */
+	public FFTSizePlanner( final File file ) throws IOException
+	{
+		this.file = file;
+
+		if ( file != null && file.exists() )
+		{
+			final InputStream in = new FileInputStream( file );
+			try
+			{
+				wisdom.load( in );
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * @param minBenchmarkNanos
+	 *            - for how long each candidate size is benchmarked at least
+	 */
+	public void setMinBenchmarkNanos( final long minBenchmarkNanos )
+	{
+		this.minBenchmarkNanos = minBenchmarkNanos;
+	}
+
+	/**
+	 * Computes the padded size of the real-valued input and the size of the
+	 * complex-valued output, the counterpart of
+	 * {@link FFTMethods#dimensionsRealToComplexFast(Dimensions, long[], long[])}.
+	 *
+	 * @param input
+	 *            - the minimal size of the input
+	 * @param paddedDimensions
+	 *            - the padded size of the input, will be filled
+	 * @param fftDimensions
+	 *            - the size of the complex output, will be filled
+	 */
+	public void dimensionsRealToComplex( final Dimensions input, final long[] paddedDimensions, final long[] fftDimensions )
+	{
+		final int numDimensions = input.numDimensions();
+
+		// the first dimension is real to complex
+		paddedDimensions[ 0 ] = realSize( ( int ) input.dimension( 0 ), numDimensions );
+		fftDimensions[ 0 ] = paddedDimensions[ 0 ] / 2 + 1;
+
+		// all the other dimensions complex to complex
+		for ( int d = 1; d < numDimensions; ++d )
+		{
+			paddedDimensions[ d ] = complexSize( ( int ) input.dimension( d ), numDimensions );
+			fftDimensions[ d ] = paddedDimensions[ d ];
+		}
+	}
+
+	/**
+	 * @param minSize
+	 *            - the minimal size
+	 * @param numDimensions
+	 *            - the dimensionality of the transform
+	 * @return - the fastest size for a real-to-complex transform
+	 * @throws UncheckedIOException
+	 *             - if a new size was planned and cannot be saved
+	 */
+	public int realSize( final int minSize, final int numDimensions )
+	{
+		return plan( true, minSize, numDimensions );
+	}
+
+	/**
+	 * @param minSize
+	 *            - the minimal size
+	 * @param numDimensions
+	 *            - the dimensionality of the transform
+	 * @return - the fastest size for a complex-to-complex transform
+	 * @throws UncheckedIOException
+	 *             - if a new size was planned and cannot be saved
+	 */
+	public int complexSize( final int minSize, final int numDimensions )
+	{
+		return plan( false, minSize, numDimensions );
+	}
+
+	protected synchronized int plan( final boolean real, final int minSize, final int numDimensions )
+	{
+		final String key = ( real ? "real" : "complex" ) + ":" + numDimensions + ":" + minSize;
+
+		final String value = wisdom.getProperty( key );
+
+		if ( value != null )
+		{
+			try
+			{
+				return Integer.parseInt( value );
+			}
+			catch ( final NumberFormatException e )
+			{
+				// benchmark again
+			}
+		}
+
+		final int size = benchmark( real, minSize, numDimensions );
+
+		wisdom.setProperty( key, Integer.toString( size ) );
+
+		try
+		{
+			save();
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( "Could not save FFT wisdom to '" + file + "'.", e );
+		}
+
+		return size;
+	}
+
+	protected int benchmark( final boolean real, final int minSize, final int numDimensions )
+	{
+		final int fast = real ? FftReal.nfftFast( minSize ) : FftComplex.nfftFast( minSize );
+		final ArrayList< Integer > candidates = candidates( real, minSize, fast );
+
+		if ( candidates.size() == 1 )
+			return fast;
+
+		// time per sample of the transforms along the other dimensions,
+		// approximated by the transform of the fast size
+		final double timePerSample = time( real, fast ) / fast;
+
+		int best = fast;
+		double bestCost = Double.MAX_VALUE;
+
+		for ( final int n : candidates )
+		{
+			final double cost = time( real, n ) + ( numDimensions - 1 ) * n * timePerSample;
+
+			if ( cost < bestCost )
+			{
+				bestCost = cost;
+				best = n;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * @return - all sizes supported by the FFT between minSize and fast, the
+	 *         fast size and up to {@link #maxLargerCandidates} supported sizes
+	 *         of at most 1.25 * fast (at most {@link #maxCandidates} in total)
+	 */
+	protected static ArrayList< Integer > candidates( final boolean real, final int minSize, final int fast )
+	{
+		final ArrayList< Integer > candidates = new ArrayList< Integer >();
+
+		int n = real ? FftReal.nfftSmall( minSize ) : FftComplex.nfftSmall( minSize );
+
+		while ( n < fast && candidates.size() < maxCandidates - 1 - maxLargerCandidates )
+		{
+			candidates.add( n );
+			n = next( real, n );
+		}
+
+		candidates.add( fast );
+
+		// slightly larger sizes can be faster than the one from the table
+		final long maxSize = fast + fast / 4L;
+		n = next( real, fast );
+
+		for ( int i = 0; i < maxLargerCandidates && n > fast && n <= maxSize; ++i )
+		{
+			candidates.add( n );
+			n = next( real, n );
+		}
+
+		return candidates;
+	}
+
+	/**
+	 * @return - the smallest size supported by the FFT that is larger than n,
+	 *         or n if there is none
+	 */
+	private static int next( final boolean real, final int n )
+	{
+		try
+		{
+			return real ? FftReal.nfftSmall( n + 1 ) : FftComplex.nfftSmall( n + 1 );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			// beyond the largest supported size
+			return n;
+		}
+	}
+
+	/**
+	 * @return - the average time of one transform of size n in nanoseconds
+	 */
+	public double time( final boolean real, final int n )
+	{
+		final float[] data;
+		final float[] result;
+
+		if ( real )
+		{
+			data = new float[ n ];
+			result = new float[ n + 2 ];
+		}
+		else
+		{
+			data = new float[ n * 2 ];
+			result = new float[ n * 2 ];
+		}
+
+		for ( int i = 0; i < data.length; ++i )
+			data[ i ] = ( i % 7 ) - 3;
+
+		final FftReal fftReal = real ? new FftReal( n ) : null;
+		final FftComplex fftComplex = real ? null : new FftComplex( n );
+
+		// warm up
+		for ( int i = 0; i < 10; ++i )
+			transform( fftReal, fftComplex, data, result );
+
+		long iterations = 0;
+		final long start = System.nanoTime();
+		long duration;
+
+		do
+		{
+			transform( fftReal, fftComplex, data, result );
+			++iterations;
+			duration = System.nanoTime() - start;
+		}
+		while ( duration < minBenchmarkNanos );
+
+		return ( double ) duration / iterations;
+	}
+
+	private static void transform( final FftReal fftReal, final FftComplex fftComplex, final float[] data, final float[] result )
+	{
+		if ( fftReal != null )
+			fftReal.realToComplex( -1, data, result );
+		else
+			fftComplex.complexToComplex( -1, data, result );
+	}
+
+	/**
+	 * Saves the wisdom to the file, does nothing if there is no file.
+	 */
+	public synchronized void save() throws IOException
+	{
+		if ( file == null )
+			return;
+
+		final File parent = file.getAbsoluteFile().getParentFile();
+
+		if ( parent != null )
+			parent.mkdirs();
+
+		final OutputStream out = new FileOutputStream( file );
+		try
+		{
+			wisdom.store( out, "FFT size wisdom (type:numDimensions:minSize=size)" );
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.view.Views;
+
+/**
+ * A memory-bounded, least-recently-used cache of kernel spectra as computed by
+ * {@link FFTConvolution#computeKernelFFT(Interval, long[], long[], boolean, RandomAccessible, ImgFactory, ExecutorService)}.
+ *
+ * Entries are keyed by the kernel content inside the padded kernel interval,
+ * the padded interval itself, the placement of the kernel center, whether
+ * the complex conjugate was computed and the iteration order of the spectra
+ * created by the factory (see {@link #layout(ImgFactory)}). Different kernel
+ * instances with identical values (e.g. the same PSF for thousands of tiles)
+ * therefore share one spectrum. The content is looked up by a hash, a key keeps a copy of the
+ * non-zero kernel values to compare them exactly on a hash hit.
+ *
+ * NOTE: The spectra returned by this cache are shared, they must not be
+ * modified. {@link FFTConvolution} only ever reads the kernel spectrum.
+ * Spectra stored off-heap ({@link OffHeapComplexFloatImgFactory}) are not
+ * cached, they are not part of the heap budget and have to be released by
+ * their owner.
+ */
+public class KernelFFTCache
+{
+	private static final KernelFFTCache shared = new KernelFFTCache( Runtime.getRuntime().maxMemory() / 16 );
+
+	// the layout of all factories creating images with flat iteration order
+	private static final Object flatIterationOrder = new Object();
+
+	/**
+	 * @return - the cache shared by all {@link FFTConvolution} instances that
+	 *         did not specify their own cache, by default limited to 1/16 of
+	 *         the maximal heap size
+	 */
+	public static KernelFFTCache shared()
+	{
+		return shared;
+	}
+
+	private final LinkedHashMap< Key, Img< ComplexFloatType > > cache = new LinkedHashMap< Key, Img< ComplexFloatType > >( 16, 0.75f, true );
+
+	private long maxBytes;
+
+	private long usedBytes = 0;
+
+	/**
+	 * @param maxBytes
+	 *            - the maximal number of bytes occupied by all cached spectra
+	 */
+	public KernelFFTCache( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the spectrum of the kernel, either from the cache or by computing
+	 * and caching it. The parameters are identical to
+	 * {@link FFTConvolution#computeKernelFFT(Interval, long[], long[], boolean, RandomAccessible, ImgFactory, ExecutorService)}.
+	 */
+	public < R extends RealType< R > > Img< ComplexFloatType > getKernelFFT(
+			final Interval kernelConvolutionInterval,
+			final long[] min,
+			final long[] max,
+			final boolean complexConjugate,
+			final RandomAccessible< R > kernel,
+			final ImgFactory< ComplexFloatType > fftFactory,
+			final ExecutorService service )
+	{
+		final Key key = new Key( new KernelSamples( kernel, kernelConvolutionInterval ), kernelConvolutionInterval, min, max, complexConjugate, fftFactory );
+
+		synchronized ( this )
+		{
+			final Img< ComplexFloatType > fftKernel = cache.get( key );
+
+			if ( fftKernel != null )
+				return fftKernel;
+		}
+
+		// compute outside of the lock, worst case the same spectrum is computed
+		// twice by concurrent callers
+		final Img< ComplexFloatType > fftKernel = FFTConvolution.computeKernelFFT( kernelConvolutionInterval, min, max, complexConjugate, kernel, fftFactory, service, null );
+
+		put( key, fftKernel );
+
+		return fftKernel;
+	}
+
+	public synchronized void setMaxBytes( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public synchronized long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	public synchronized long getUsedBytes()
+	{
+		return usedBytes;
+	}
+
+	public synchronized int size()
+	{
+		return cache.size();
+	}
+
+	public synchronized void clear()
+	{
+		cache.clear();
+		usedBytes = 0;
+	}
+
+	protected synchronized void put( final Key key, final Img< ComplexFloatType > fftKernel )
+	{
+		final long bytes = numBytes( fftKernel ) + key.samples.numBytes();
+
+		// never cache a spectrum that alone exceeds the budget or lives
+		// outside of the heap
+		if ( bytes > maxBytes || cache.containsKey( key ) || fftKernel instanceof OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg )
+			return;
+
+		cache.put( key, fftKernel );
+		usedBytes += bytes;
+
+		evict();
+	}
+
+	protected void evict()
+	{
+		final Iterator< Entry< Key, Img< ComplexFloatType > > > it = cache.entrySet().iterator();
+
+		// the iteration order of an access-ordered LinkedHashMap starts with
+		// the least-recently used entry
+		while ( usedBytes > maxBytes && it.hasNext() )
+		{
+			final Entry< Key, Img< ComplexFloatType > > entry = it.next();
+			usedBytes -= numBytes( entry.getValue() ) + entry.getKey().samples.numBytes();
+			it.remove();
+		}
+	}
+
+	protected static long numBytes( final Img< ComplexFloatType > img )
+	{
+		// two floats per pixel
+		return img.size() * 8;
+	}
+
+	/**
+	 * The kernel spectrum is multiplied with the image spectrum in iteration
+	 * order, so a cached spectrum may only be used with factories that create
+	 * the same iteration order. All factories of images with flat iteration
+	 * order share one layout, any other factory (e.g. a
+	 * {@link net.imglib2.img.cell.CellImgFactory}, whose order depends on its
+	 * cell size) only matches itself.
+	 *
+	 * @return - an object that is identical for factories creating the same
+	 *         iteration order
+	 */
+	protected static Object layout( final ImgFactory< ? > fftFactory )
+	{
+		if ( fftFactory instanceof ArrayImgFactory || fftFactory instanceof PlanarImgFactory || fftFactory instanceof OffHeapComplexFloatImgFactory )
+			return flatIterationOrder;
+
+		return fftFactory;
+	}
+
+	/**
+	 * Computes a 64 bit FNV-1a hash over all values of the kernel inside the
+	 * given interval in flat iteration order.
+	 */
+	public static < R extends RealType< R > > long contentHash( final RandomAccessible< R > kernel, final Interval interval )
+	{
+		return new KernelSamples( kernel, interval ).hash;
+	}
+
+	/**
+	 * The values of a kernel inside an interval in flat iteration order, only
+	 * the non-zero values and their indices are stored as kernels are usually
+	 * zero-padded.
+	 */
+	protected static class KernelSamples
+	{
+		final long numSamples;
+
+		final long[] indices;
+
+		final double[] values;
+
+		final long hash;
+
+		public < R extends RealType< R > > KernelSamples( final RandomAccessible< R > kernel, final Interval interval )
+		{
+			final Cursor< R > cursor = Views.flatIterable( Views.interval( kernel, interval ) ).cursor();
+
+			long[] indices = new long[ 16 ];
+			double[] values = new double[ 16 ];
+			int numNonZero = 0;
+
+			long hash = 0xcbf29ce484222325L;
+			long index = 0;
+
+			while ( cursor.hasNext() )
+			{
+				// adding 0.0 maps -0.0 to 0.0
+				final double value = cursor.next().getRealDouble() + 0.0;
+				final long bits = Double.doubleToLongBits( value );
+
+				for ( int i = 0; i < 64; i += 8 )
+				{
+					hash ^= ( bits >>> i ) & 0xff;
+					hash *= 0x100000001b3L;
+				}
+
+				if ( value != 0 )
+				{
+					if ( numNonZero == indices.length )
+					{
+						indices = Arrays.copyOf( indices, numNonZero * 2 );
+						values = Arrays.copyOf( values, numNonZero * 2 );
+					}
+
+					indices[ numNonZero ] = index;
+					values[ numNonZero ] = value;
+					++numNonZero;
+				}
+
+				++index;
+			}
+
+			this.numSamples = index;
+			this.indices = Arrays.copyOf( indices, numNonZero );
+			this.values = Arrays.copyOf( values, numNonZero );
+			this.hash = hash;
+		}
+
+		protected KernelSamples( final long numSamples, final long[] indices, final double[] values, final long hash )
+		{
+			this.numSamples = numSamples;
+			this.indices = indices;
+			this.values = values;
+			this.hash = hash;
+		}
+
+		public long numBytes()
+		{
+			return indices.length * 16L;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Long.hashCode( hash );
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( this == o )
+				return true;
+
+			if ( !( o instanceof KernelSamples ) )
+				return false;
+
+			final KernelSamples k = ( KernelSamples ) o;
+
+			// NaN values are compared by their bits
+			return hash == k.hash &&
+					numSamples == k.numSamples &&
+					Arrays.equals( indices, k.indices ) &&
+					Arrays.equals( values, k.values );
+		}
+	}
+
+	protected static class Key
+	{
+		final KernelSamples samples;
+
+		final long[] intervalMin, intervalMax, min, max;
+
+		final boolean complexConjugate;
+
+		final Object layout;
+
+		final int hashCode;
+
+		public Key( final KernelSamples samples, final Interval kernelConvolutionInterval, final long[] min, final long[] max, final boolean complexConjugate, final ImgFactory< ? > fftFactory )
+		{
+			this.samples = samples;
+			this.intervalMin = new long[ kernelConvolutionInterval.numDimensions() ];
+			this.intervalMax = new long[ kernelConvolutionInterval.numDimensions() ];
+			kernelConvolutionInterval.min( intervalMin );
+			kernelConvolutionInterval.max( intervalMax );
+			this.min = min.clone();
+			this.max = max.clone();
+			this.complexConjugate = complexConjugate;
+
+			// the iteration order of kernel and image spectrum has to match
+			this.layout = layout( fftFactory );
+
+			int h = samples.hashCode();
+			h = 31 * h + Arrays.hashCode( intervalMin );
+			h = 31 * h + Arrays.hashCode( intervalMax );
+			h = 31 * h + Arrays.hashCode( min );
+			h = 31 * h + Arrays.hashCode( max );
+			h = 31 * h + Boolean.hashCode( complexConjugate );
+			h = 31 * h + System.identityHashCode( layout );
+			this.hashCode = h;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( this == o )
+				return true;
+
+			if ( !( o instanceof Key ) )
+				return false;
+
+			final Key k = ( Key ) o;
+
+			return complexConjugate == k.complexConjugate &&
+					layout == k.layout &&
+					Arrays.equals( intervalMin, k.intervalMin ) &&
+					Arrays.equals( intervalMax, k.intervalMax ) &&
+					Arrays.equals( min, k.min ) &&
+					Arrays.equals( max, k.max ) &&
+					samples.equals( k.samples );
+		}
+	}
+}
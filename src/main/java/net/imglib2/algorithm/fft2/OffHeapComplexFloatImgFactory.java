@@ -0,0 +1,291 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.NativeImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.list.ListImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+
+/**
+ * An {@link ImgFactory} for {@link ComplexFloatType} that stores the values
+ * outside of the Java heap (see {@link BufferFloatAccess}), either in direct
+ * buffers or in memory-mapped temporary files. Large spectra therefore do not
+ * cause long garbage collection pauses and, if memory-mapped, can be larger
+ * than the heap or even the physical memory.
+ *
+ * The images are cell images, an image that fits into one
+ * {@link BufferFloatAccess} (up to 2^30-1 complex values) consists of a single
+ * cell. Larger images are split into cells that span the full lower
+ * dimensions (e.g. whole lines or planes), so the size of an image is not
+ * limited by int indexing. The iteration order is therefore flat, as for an
+ * {@link net.imglib2.img.array.ArrayImg} of the same size.
+ *
+ * It can be used wherever an ImgFactory&lt;ComplexFloatType&gt; is accepted,
+ * e.g. {@link FFTConvolution#setFFTImgFactory(net.imglib2.img.ImgFactory)} or
+ * the fourier transforms of
+ * {@link net.imglib2.algorithm.fft.FourierTransform}. The memory of an image
+ * is released explicitly by {@link #release(Img)}. {@link FFTConvolution}
+ * releases the spectra it does not keep at the end of every convolution.
+ */
+public class OffHeapComplexFloatImgFactory extends NativeImgFactory< ComplexFloatType >
+{
+	public static enum Storage { DIRECT, MEMORY_MAPPED }
+
+	// the maximal number of complex values stored in one BufferFloatAccess
+	final static long maxCellPixels = Integer.MAX_VALUE / 2;
+
+	final Storage storage;
+
+	final File directory;
+
+	/**
+	 * Creates a factory that stores the values in direct buffers.
+	 */
+	public OffHeapComplexFloatImgFactory()
+	{
+		this( Storage.DIRECT, null );
+	}
+
+	/**
+	 * @param storage
+	 *            - direct buffers or memory-mapped files
+	 * @param directory
+	 *            - where to create the memory-mapped files, null for the
+	 *            default temporary directory
+	 */
+	public OffHeapComplexFloatImgFactory( final Storage storage, final File directory )
+	{
+		super( new ComplexFloatType() );
+
+		this.storage = storage;
+		this.directory = directory;
+	}
+
+	public Storage getStorage()
+	{
+		return storage;
+	}
+
+	@Override
+	public OffHeapComplexFloatImg create( final long... dimensions )
+	{
+		final int numDimensions = dimensions.length;
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions( dimensions, maxCellPixels ) );
+
+		final long[] gridDimensions = grid.getGridDimensions();
+		final long numCells = Intervals.numElements( gridDimensions );
+
+		final ArrayList< Cell< BufferFloatAccess > > cells = new ArrayList< Cell< BufferFloatAccess > >();
+
+		final long[] gridPosition = new long[ numDimensions ];
+		final long[] cellMin = new long[ numDimensions ];
+		final int[] cellDims = new int[ numDimensions ];
+
+		try
+		{
+			// in flat order as expected by the ListImg
+			for ( long i = 0; i < numCells; ++i )
+			{
+				IntervalIndexer.indexToPosition( i, gridDimensions, gridPosition );
+				grid.getCellDimensions( gridPosition, cellMin, cellDims );
+
+				cells.add( new Cell< BufferFloatAccess >( cellDims.clone(), cellMin.clone(), createAccess( Intervals.numElements( cellDims ) * 2 ) ) );
+			}
+		}
+		catch ( final RuntimeException e )
+		{
+			for ( final Cell< BufferFloatAccess > cell : cells )
+				cell.getData().release();
+
+			throw e;
+		}
+
+		final OffHeapComplexFloatImg img = new OffHeapComplexFloatImg( grid, new ListImg< Cell< BufferFloatAccess > >( cells, gridDimensions ), this );
+		img.setLinkedType( new ComplexFloatType( img ) );
+
+		return img;
+	}
+
+	@Override
+	public OffHeapComplexFloatImg create( final Dimensions dimensions )
+	{
+		return create( Intervals.dimensionsAsLongArray( dimensions ) );
+	}
+
+	@Override
+	public OffHeapComplexFloatImg create( final int[] dimensions )
+	{
+		return create( Util.int2long( dimensions ) );
+	}
+
+	/**
+	 * Legacy API used e.g. by {@link net.imglib2.algorithm.fft.FFTFunctions}.
+	 */
+	public OffHeapComplexFloatImg create( final long[] dimensions, final ComplexFloatType type )
+	{
+		return create( dimensions );
+	}
+
+	/**
+	 * @return - this factory for {@link ComplexFloatType}, an (on-heap)
+	 *         {@link ArrayImgFactory} for all other {@link NativeType}s
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	@Override
+	public < S > ImgFactory< S > imgFactory( final S type ) throws IncompatibleTypeException
+	{
+		if ( type instanceof ComplexFloatType )
+			return ( ImgFactory< S > ) ( ImgFactory ) this;
+
+		if ( type instanceof NativeType )
+			return new ArrayImgFactory( ( NativeType ) type );
+
+		throw new IncompatibleTypeException( this, type.getClass().getCanonicalName() + " does not implement NativeType." );
+	}
+
+	protected BufferFloatAccess createAccess( final long numEntities )
+	{
+		if ( storage == Storage.MEMORY_MAPPED )
+		{
+			try
+			{
+				return new BufferFloatAccess( numEntities, directory );
+			}
+			catch ( final IOException e )
+			{
+				throw new RuntimeException( "Could not create memory-mapped file in " + directory + ": " + e, e );
+			}
+		}
+
+		return new BufferFloatAccess( numEntities );
+	}
+
+	/**
+	 * Cells span as many of the lower dimensions as possible without
+	 * exceeding maxCellPixels, the whole image if it fits.
+	 */
+	protected static int[] cellDimensions( final long[] dimensions, final long maxCellPixels )
+	{
+		final int[] cellDimensions = new int[ dimensions.length ];
+
+		long numPixels = 1;
+
+		for ( int d = 0; d < dimensions.length; ++d )
+		{
+			cellDimensions[ d ] = ( int ) Math.max( 1, Math.min( dimensions[ d ], maxCellPixels / numPixels ) );
+			numPixels *= cellDimensions[ d ];
+		}
+
+		return cellDimensions;
+	}
+
+	/**
+	 * Releases the memory of an image created by an
+	 * {@link OffHeapComplexFloatImgFactory}, the image must not be used
+	 * anymore.
+	 *
+	 * @return - true if the image was an off-heap image, false if nothing was
+	 *         done
+	 */
+	public static boolean release( final Img< ? > img )
+	{
+		if ( img instanceof OffHeapComplexFloatImg )
+		{
+			( ( OffHeapComplexFloatImg ) img ).release();
+			return true;
+		}
+
+		return false;
+	}
+
+	public static class OffHeapComplexFloatImg extends AbstractCellImg< ComplexFloatType, BufferFloatAccess, Cell< BufferFloatAccess >, ListImg< Cell< BufferFloatAccess > > >
+	{
+		final OffHeapComplexFloatImgFactory factory;
+
+		public OffHeapComplexFloatImg( final CellGrid grid, final ListImg< Cell< BufferFloatAccess > > cells, final OffHeapComplexFloatImgFactory factory )
+		{
+			super( grid, cells, new Fraction( 2, 1 ) );
+
+			this.factory = factory;
+		}
+
+		/**
+		 * @return - the factory that created this image, copies and images
+		 *         created from it are off-heap as well
+		 */
+		@Override
+		public OffHeapComplexFloatImgFactory factory()
+		{
+			return factory;
+		}
+
+		@Override
+		public OffHeapComplexFloatImg copy()
+		{
+			final OffHeapComplexFloatImg copy = factory.create( Intervals.dimensionsAsLongArray( this ) );
+
+			// same cell grid, therefore the same iteration order
+			final Cursor< ComplexFloatType > source = cursor();
+			final Cursor< ComplexFloatType > target = copy.cursor();
+
+			while ( source.hasNext() )
+				target.next().set( source.next() );
+
+			return copy;
+		}
+
+		public void release()
+		{
+			for ( final Cell< BufferFloatAccess > cell : getCells() )
+				cell.getData().release();
+		}
+
+		public boolean isReleased()
+		{
+			return getCells().firstElement().getData().isReleased();
+		}
+	}
+}
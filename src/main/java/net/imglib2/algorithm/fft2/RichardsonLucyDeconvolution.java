@@ -0,0 +1,354 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Richardson-Lucy deconvolution of an image with a known kernel (point spread
+ * function), iterating
+ * 
+ * estimate = estimate * ( ( observed / ( estimate * kernel ) ) correlated with kernel ).
+ * 
+ * Running the iterations as two {@link FFTConvolution}s each pads the images,
+ * allocates new spectra and recomputes or copies the kernel spectrum every
+ * time. Here the padded interval, the spectrum of the kernel and its complex
+ * conjugate (for the correlation) are computed once and stay resident, the
+ * estimate, the ratio image and the complex workspace are allocated once and
+ * reused by all iterations. The division by the blurred estimate and the
+ * multiplicative update are each computed in a single parallel pass.
+ * 
+ * The estimate starts with the observed image and is extended by mirroring
+ * with single boundary, the kernel is zero-padded and should sum up to 1.
+ */
+public class RichardsonLucyDeconvolution< R extends RealType< R > >
+{
+	final RandomAccessibleInterval< R > observed, kernel;
+
+	final ImgFactory< ComplexFloatType > fftFactory;
+
+	// the current estimate and the blurred estimate, ratio and correction of one iteration
+	final Img< FloatType > estimate, buffer;
+
+	// where to place the kernel and the padded intervals of image and kernel
+	final long[] kernelMin, kernelMax;
+
+	final Pair< Interval, Interval > fftIntervals;
+
+	// resident spectra, computed by the first iteration
+	Img< ComplexFloatType > kernelFFT, kernelFFTConjugate, workspace;
+
+	// blurred values are clamped to at least this value before dividing
+	float minValue = 1e-6f;
+
+	int numIterations = 0;
+
+	private ExecutorService service;
+
+	/**
+	 * @param observed
+	 *            - the blurred image
+	 * @param kernel
+	 *            - the kernel it was blurred with, should sum up to 1
+	 * @param fftFactory
+	 *            - the {@link ImgFactory} to create the spectra
+	 * @param service
+	 *            - service providing threads for multi-threading, if null one
+	 *            will be created on every {@link #iterate(int)}
+	 */
+	public RichardsonLucyDeconvolution( final RandomAccessibleInterval< R > observed, final RandomAccessibleInterval< R > kernel, final ImgFactory< ComplexFloatType > fftFactory, final ExecutorService service )
+	{
+		this.observed = Views.zeroMin( observed );
+		this.kernel = kernel;
+		this.fftFactory = fftFactory;
+		this.service = service;
+
+		final long[] dimensions = Intervals.dimensionsAsLongArray( observed );
+		final ImgFactory< FloatType > factory;
+
+		if ( Intervals.numElements( dimensions ) > Integer.MAX_VALUE )
+			factory = new CellImgFactory<>( new FloatType(), 1024 );
+		else
+			factory = new ArrayImgFactory<>( new FloatType() );
+
+		estimate = factory.create( dimensions );
+		buffer = factory.create( dimensions );
+
+		final Cursor< FloatType > c = estimate.localizingCursor();
+		final RandomAccess< R > ra = this.observed.randomAccess();
+
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			ra.setPosition( c );
+			c.get().setReal( ra.get().getRealFloat() );
+		}
+
+		kernelMin = new long[ dimensions.length ];
+		kernelMax = new long[ dimensions.length ];
+
+		fftIntervals = FFTConvolution.setupFFTs( estimate, kernel, kernelMin, kernelMax );
+	}
+
+	/**
+	 * @param minValue
+	 *            - the blurred estimate is clamped to at least this value
+	 *            before the observed image is divided by it
+	 */
+	public void setMinValue( final float minValue )
+	{
+		this.minValue = minValue;
+	}
+
+	public float getMinValue()
+	{
+		return minValue;
+	}
+
+	/**
+	 * @return - the current estimate, zero-min
+	 */
+	public Img< FloatType > getEstimate()
+	{
+		return estimate;
+	}
+
+	/**
+	 * @return - the number of iterations computed so far
+	 */
+	public int getNumIterations()
+	{
+		return numIterations;
+	}
+
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	/**
+	 * Computes further iterations, continuing from the current estimate.
+	 */
+	public void iterate( final int numIterations )
+	{
+		if ( service == null )
+		{
+			final ExecutorService executor = FFTConvolution.createExecutorService();
+			try
+			{
+				iterate( numIterations, executor );
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		else
+		{
+			iterate( numIterations, service );
+		}
+	}
+
+	private void iterate( final int numIterations, final ExecutorService executor )
+	{
+		if ( workspace == null )
+		{
+			final RandomAccessible< R > extendedKernel = Views.extendValue( kernel, Util.getTypeFromInterval( kernel ).createVariable() );
+
+			kernelFFT = FFTConvolution.computeKernelFFT( fftIntervals.getB(), kernelMin, kernelMax, false, extendedKernel, fftFactory, executor, null );
+			kernelFFTConjugate = conjugateCopy( kernelFFT, fftFactory, executor );
+			workspace = fftFactory.create( FFTConvolution.fftDimensions( fftIntervals.getA() ) );
+		}
+
+		for ( int i = 0; i < numIterations; ++i )
+		{
+			// blur the estimate
+			convolve( estimate, kernelFFT, executor );
+
+			// buffer = observed / blurred
+			divide( executor );
+
+			// correlate the ratio with the kernel
+			convolve( buffer, kernelFFTConjugate, executor );
+
+			// estimate = estimate * correction
+			multiply( executor );
+
+			++this.numIterations;
+		}
+	}
+
+	/**
+	 * Convolves the image with a resident spectrum into the buffer, using the
+	 * workspace.
+	 */
+	protected void convolve( final Img< FloatType > img, final Img< ComplexFloatType > spectrum, final ExecutorService executor )
+	{
+		FFTConvolution.computeImgFFT( fftIntervals.getA(), Views.extendMirrorSingle( img ), workspace, executor );
+		FFTConvolution.multiplyDivideComplex( workspace, spectrum, false, executor );
+		FFT.complexToRealUnpad( workspace, buffer, executor );
+	}
+
+	/**
+	 * buffer = observed / max( buffer, minValue )
+	 */
+	protected void divide( final ExecutorService executor )
+	{
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( final Chunk chunk : chunks( executor ) )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final Cursor< FloatType > c = buffer.localizingCursor();
+					final RandomAccess< R > ra = observed.randomAccess();
+
+					c.jumpFwd( chunk.getStartPosition() );
+
+					for ( long j = 0; j < chunk.getLoopSize(); ++j )
+					{
+						final FloatType t = c.next();
+						ra.setPosition( c );
+						t.set( ra.get().getRealFloat() / Math.max( t.get(), minValue ) );
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		FFTConvolution.invokeAll( tasks, executor );
+	}
+
+	/**
+	 * @return - a copy of the spectrum with every value complex conjugated,
+	 *         i.e. the spectrum of the mirrored kernel, without a second
+	 *         forward transform
+	 */
+	protected static Img< ComplexFloatType > conjugateCopy( final Img< ComplexFloatType > spectrum, final ImgFactory< ComplexFloatType > factory, final ExecutorService executor )
+	{
+		final Img< ComplexFloatType > conjugate = factory.create( Intervals.dimensionsAsLongArray( spectrum ) );
+
+		final Vector< Chunk > spectrumChunks = SimpleMultiThreading.divideIntoChunks( spectrum.size(), FFTConvolution.numTasks( executor, spectrum.size() ) );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		// both are created by the same factory and have the same iteration order
+		for ( final Chunk chunk : spectrumChunks )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final Cursor< ComplexFloatType > c1 = spectrum.cursor();
+					final Cursor< ComplexFloatType > c2 = conjugate.cursor();
+
+					c1.jumpFwd( chunk.getStartPosition() );
+					c2.jumpFwd( chunk.getStartPosition() );
+
+					for ( long j = 0; j < chunk.getLoopSize(); ++j )
+					{
+						final ComplexFloatType t = c1.next();
+						c2.next().set( t.getRealFloat(), -t.getImaginaryFloat() );
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		FFTConvolution.invokeAll( tasks, executor );
+
+		return conjugate;
+	}
+
+	/**
+	 * @return - the partition of the images for the parallel passes, one
+	 *         chunk per thread of the executor
+	 */
+	protected Vector< Chunk > chunks( final ExecutorService executor )
+	{
+		return SimpleMultiThreading.divideIntoChunks( estimate.size(), FFTConvolution.numTasks( executor, estimate.size() ) );
+	}
+
+	/**
+	 * estimate = estimate * buffer, both have the same iteration order
+	 */
+	protected void multiply( final ExecutorService executor )
+	{
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( final Chunk chunk : chunks( executor ) )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					final Cursor< FloatType > c1 = estimate.cursor();
+					final Cursor< FloatType > c2 = buffer.cursor();
+
+					c1.jumpFwd( chunk.getStartPosition() );
+					c2.jumpFwd( chunk.getStartPosition() );
+
+					for ( long j = 0; j < chunk.getLoopSize(); ++j )
+						c1.next().mul( c2.next() );
+
+					return null;
+				}
+			} );
+		}
+
+		FFTConvolution.invokeAll( tasks, executor );
+	}
+}
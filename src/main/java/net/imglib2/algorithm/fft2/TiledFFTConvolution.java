@@ -0,0 +1,359 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Computes the convolution of an image with an arbitrary kernel block by block
+ * (overlap-save). The image interval is split into blocks of a given size, for
+ * each block the FFT is computed on the block extended by the kernel size (the
+ * halo is read from the neighboring image content or the out-of-bounds
+ * strategy of the input), convolved and only the block itself is written into
+ * the output. The result is identical to {@link FFTConvolution}, but the peak
+ * memory consumption scales with the block size instead of the image size,
+ * which allows to convolve images that are larger than the available memory
+ * (e.g. a CellImg backed by a cache).
+ *
+ * Blocks can optionally be processed in parallel using
+ * {@link #setNumParallelBlocks(int)}, every block in flight requires its own
+ * Fourier transform. The FFT of the kernel is computed once for every distinct
+ * block size (at most 2^n for blocks at the border of the image).
+ */
+public class TiledFFTConvolution< R extends RealType< R > >
+{
+	final RandomAccessible< R > img, kernel;
+
+	final Interval imgInterval, kernelInterval;
+
+	final RandomAccessibleInterval< R > output;
+
+	final ImgFactory< ComplexFloatType > fftFactory;
+
+	final int[] blockSize;
+
+	int numParallelBlocks = 1;
+
+	boolean complexConjugate = false;
+
+	boolean div = false;
+
+	// one kernel FFT for each padded block size
+	final HashMap< String, Img< ComplexFloatType > > fftKernels = new HashMap< String, Img< ComplexFloatType > >();
+
+	private ExecutorService service;
+
+	/**
+	 * Compute a tiled Fourier space based convolution. The image will be
+	 * extended by mirroring with single boundary, the kernel will be
+	 * zero-padded.
+	 *
+	 * @param img
+	 *            - the image
+	 * @param kernel
+	 *            - the convolution kernel
+	 * @param output
+	 *            - the output, same size as the image
+	 * @param blockSize
+	 *            - the size of the blocks that are convolved independently
+	 * @param factory
+	 *            - the {@link ImgFactory} to create the fourier transforms of
+	 *            the blocks
+	 * @param service
+	 *            - service providing threads for multi-threading, if null one
+	 *            will be created on {@link #convolve()}
+	 */
+	public TiledFFTConvolution( final RandomAccessibleInterval< R > img, final RandomAccessibleInterval< R > kernel, final RandomAccessibleInterval< R > output, final int[] blockSize, final ImgFactory< ComplexFloatType > factory, final ExecutorService service )
+	{
+		this( Views.extendMirrorSingle( img ), img, Views.extendValue( kernel, Util.getTypeFromInterval( kernel ).createVariable() ), kernel, output, blockSize, factory, service );
+	}
+
+	/**
+	 * Compute a tiled Fourier space based convolution. The input as well as the
+	 * kernel need to be extended or infinite already as every block reads
+	 * content around its own interval.
+	 *
+	 * @param img
+	 *            - the input
+	 * @param imgInterval
+	 *            - the input interval (i.e. the area to be convolved)
+	 * @param kernel
+	 *            - the kernel
+	 * @param kernelInterval
+	 *            - the kernel interval
+	 * @param output
+	 *            - the output data+interval, same size as imgInterval
+	 * @param blockSize
+	 *            - the size of the blocks that are convolved independently
+	 * @param factory
+	 *            - the {@link ImgFactory} to create the fourier transforms of
+	 *            the blocks
+	 * @param service
+	 *            - service providing threads for multi-threading, if null one
+	 *            will be created on {@link #convolve()}
+	 */
+	public TiledFFTConvolution( final RandomAccessible< R > img, final Interval imgInterval, final RandomAccessible< R > kernel, final Interval kernelInterval, final RandomAccessibleInterval< R > output, final int[] blockSize, final ImgFactory< ComplexFloatType > factory, final ExecutorService service )
+	{
+		this.img = img;
+		this.imgInterval = imgInterval;
+		this.kernel = kernel;
+		this.kernelInterval = kernelInterval;
+		this.output = output;
+		this.blockSize = blockSize.clone();
+		this.fftFactory = factory;
+		this.service = service;
+	}
+
+	/**
+	 * @param numParallelBlocks
+	 *            - how many blocks are convolved at the same time, each of them
+	 *            is multi-threaded using the {@link ExecutorService}
+	 */
+	public void setNumParallelBlocks( final int numParallelBlocks )
+	{
+		this.numParallelBlocks = Math.max( 1, numParallelBlocks );
+	}
+
+	public int getNumParallelBlocks()
+	{
+		return numParallelBlocks;
+	}
+
+	/**
+	 * @param complexConjugate
+	 *            - If the complex conjugate of the FFT of the kernel should be
+	 *            used.
+	 */
+	public synchronized void setComputeComplexConjugate( final boolean complexConjugate )
+	{
+		this.complexConjugate = complexConjugate;
+		this.fftKernels.clear();
+	}
+
+	public boolean getComplexConjugate()
+	{
+		return complexConjugate;
+	}
+
+	/**
+	 * @param div - perform deconvolution instead of convolution.
+	 */
+	public void setDiv( final boolean div )
+	{
+		this.div = div;
+	}
+
+	public boolean getDiv()
+	{
+		return div;
+	}
+
+	public void setExecutorService( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	public void convolve()
+	{
+		if ( service == null )
+		{
+			final ExecutorService executor = FFTConvolution.createExecutorService();
+			try
+			{
+				convolve( executor );
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		else
+		{
+			convolve( service );
+		}
+	}
+
+	private void convolve( final ExecutorService executor )
+	{
+		final List< Interval > blocks = createBlocks( imgInterval, blockSize );
+
+		if ( numParallelBlocks == 1 || blocks.size() == 1 )
+		{
+			for ( final Interval block : blocks )
+				convolveBlock( block, executor );
+
+			return;
+		}
+
+		// the blocks need their own threads as they wait for the FFT tasks
+		// submitted to the executor, sharing it could dead-lock
+		final ExecutorService blockExecutor = Executors.newFixedThreadPool( Math.min( numParallelBlocks, blocks.size() ) );
+
+		try
+		{
+			final ArrayList< Future< Void > > futures = new ArrayList< Future< Void > >();
+
+			for ( final Interval block : blocks )
+			{
+				futures.add( blockExecutor.submit( new Callable< Void >()
+				{
+					@Override
+					public Void call()
+					{
+						convolveBlock( block, executor );
+						return null;
+					}
+				} ) );
+			}
+
+			for ( final Future< Void > future : futures )
+				future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Tiled convolution was interrupted.", e );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new RuntimeException( "Tiled convolution failed: " + e.getCause(), e.getCause() );
+		}
+		finally
+		{
+			blockExecutor.shutdownNow();
+		}
+	}
+
+	protected void convolveBlock( final Interval block, final ExecutorService executor )
+	{
+		final int numDimensions = block.numDimensions();
+
+		final long[] min = new long[ numDimensions ];
+		final long[] max = new long[ numDimensions ];
+
+		final Pair< Interval, Interval > fftIntervals = FFTConvolution.setupFFTs( block, kernelInterval, min, max );
+
+		final Img< ComplexFloatType > fftKernel = getKernelFFT( fftIntervals.getB(), min, max, executor );
+		final Img< ComplexFloatType > fftBlock = FFTConvolution.computeImgFFT( fftIntervals.getA(), img, fftFactory, executor );
+
+		// the part of the output corresponding to this block
+		final long[] outMin = new long[ numDimensions ];
+		final long[] outMax = new long[ numDimensions ];
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			outMin[ d ] = block.min( d ) - imgInterval.min( d ) + output.min( d );
+			outMax[ d ] = block.max( d ) - imgInterval.min( d ) + output.min( d );
+		}
+
+		FFTConvolution.computeConvolution( fftBlock, fftKernel, Views.interval( output, new FinalInterval( outMin, outMax ) ), false, div, executor );
+	}
+
+	protected synchronized Img< ComplexFloatType > getKernelFFT( final Interval kernelConvolutionInterval, final long[] min, final long[] max, final ExecutorService executor )
+	{
+		final long[] paddedDimensions = new long[ kernelConvolutionInterval.numDimensions() ];
+		kernelConvolutionInterval.dimensions( paddedDimensions );
+
+		final String key = Arrays.toString( paddedDimensions );
+
+		Img< ComplexFloatType > fftKernel = fftKernels.get( key );
+
+		if ( fftKernel == null )
+		{
+			fftKernel = FFTConvolution.computeKernelFFT( kernelConvolutionInterval, min, max, complexConjugate, kernel, fftFactory, executor, null );
+			fftKernels.put( key, fftKernel );
+		}
+
+		return fftKernel;
+	}
+
+	/**
+	 * Splits an interval into blocks of (at most) the given size.
+	 *
+	 * @param interval
+	 *            - the interval to split
+	 * @param blockSize
+	 *            - the size of the blocks, blocks at the upper border might be
+	 *            smaller
+	 * @return - the list of blocks covering the interval
+	 */
+	public static List< Interval > createBlocks( final Interval interval, final int[] blockSize )
+	{
+		final int numDimensions = interval.numDimensions();
+
+		final long[] numBlocks = new long[ numDimensions ];
+
+		for ( int d = 0; d < numDimensions; ++d )
+			numBlocks[ d ] = ( interval.dimension( d ) + blockSize[ d ] - 1 ) / blockSize[ d ];
+
+		final ArrayList< Interval > blocks = new ArrayList< Interval >();
+
+		final LocalizingZeroMinIntervalIterator it = new LocalizingZeroMinIntervalIterator( numBlocks );
+
+		final long[] blockPos = new long[ numDimensions ];
+		final long[] min = new long[ numDimensions ];
+		final long[] max = new long[ numDimensions ];
+
+		while ( it.hasNext() )
+		{
+			it.fwd();
+			it.localize( blockPos );
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				min[ d ] = interval.min( d ) + blockPos[ d ] * blockSize[ d ];
+				max[ d ] = Math.min( min[ d ] + blockSize[ d ] - 1, interval.max( d ) );
+			}
+
+			blocks.add( new FinalInterval( min, max ) );
+		}
+
+		return blocks;
+	}
+}
@@ -44,7 +44,7 @@ package net.imglib2.algorithm.localization;
  *
  * @author Jean-Yves Tinevez 2012
  */
-public class EllipticGaussianOrtho implements FitFunction {
+public class EllipticGaussianOrtho implements GradientFitFunction {
 
 	/*
 	 * METHODS
@@ -95,6 +95,29 @@ public class EllipticGaussianOrtho implements FitFunction {
 		}
 	}
 
+	/**
+	 * Computes the value and all partial derivatives with a single
+	 * exponential, the indices are ordered as in
+	 * {@link #grad(double[], double[], int)}.
+	 */
+	@Override
+	public final double valAndGrad(final double[] x, final double[] a, final double[] grad) {
+		final int ndims = x.length;
+		final double E = E(x, a);
+
+		for (int dim = 0; dim < ndims; dim++) {
+			final double di = x[dim] - a[dim];
+			// With respect to xi
+			grad[dim] = - 2 * a[ndims] * a[dim+ndims+1] * di * E;
+			// With respect to bi
+			grad[dim+ndims+1] = - di * di * a[ndims] * E;
+		}
+		// With respect to A
+		grad[ndims] = E;
+
+		return a[ndims] * E;
+	}
+
 	/**
 	 * Returns the hessian value of this function, with respect to the variable
 	 * specified by its index: Partial derivatives indices are ordered as follow:
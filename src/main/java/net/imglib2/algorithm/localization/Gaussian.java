@@ -53,7 +53,7 @@ package net.imglib2.algorithm.localization;
  * 
  * @author Jean-Yves Tinevez - 2013
  */
-public class Gaussian implements FitFunction {
+public class Gaussian implements GradientFitFunction {
 
 	/*
 	 * METHODS
@@ -98,6 +98,33 @@ public class Gaussian implements FitFunction {
 		}
 	}
 
+	/**
+	 * Computes the value and all partial derivatives with a single
+	 * exponential, the indices are ordered as in
+	 * {@link #grad(double[], double[], int)}.
+	 */
+	@Override
+	public final double valAndGrad(final double[] x, final double[] a, final double[] grad) {
+		final int ndims = x.length;
+		double d = 0, si;
+		for (int i = 0; i < ndims; i++) {
+			si = x[i] - a[i]; // (xᵢ - x₀ᵢ)
+			d += si * si;
+		}
+		final double E = Math.exp(- a[a.length-1] * d);
+
+		// With respect to xi
+		for (int dim = 0; dim < ndims; dim++) {
+			grad[dim] = 2 * a[a.length-1] * (x[dim] - a[dim]) * a[a.length-2] * E;
+		}
+		// With respect to A
+		grad[a.length-2] = E;
+		// With respect to b
+		grad[a.length-1] = - d * a[a.length-2] * E;
+
+		return a[a.length-2] * E;
+	}
+
 	@Override
 	public final double hessian(final double[] x, final double[] a, int rIn,
 		int cIn)
@@ -0,0 +1,58 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.localization;
+
+/**
+ * A {@link FitFunction} that can evaluate its value and its full gradient in
+ * one call.
+ * <p>
+ * Computing them by {@link #val(double[], double[])} and
+ * {@link #grad(double[], double[], int)} for each parameter repeats the work
+ * common to all of them, e.g. the exponential of a Gaussian, once per
+ * parameter. Solvers such as the {@link LevenbergMarquardtSolver} use this
+ * method instead when a function implements it.
+ * </p>
+ */
+public interface GradientFitFunction extends FitFunction {
+
+	/**
+	 * Evaluates this function and its gradient with respect to all parameters
+	 * at point <code>x</code>. The results must be the same as returned by
+	 * {@link #val(double[], double[])} and
+	 * {@link #grad(double[], double[], int)}.
+	 * @param x  the multidimensional point to evaluate the function at
+	 * @param a  the set of parameters that defines the function
+	 * @param grad  an array of length <code>a.length</code>, will be filled
+	 * with the gradient <code>df(x,a)/da_k</code> for all <code>k</code>
+	 * @return  the function evaluated at <code>x</code>
+	 * @see #val(double[], double[])
+	 * @see #grad(double[], double[], int)
+	 */
+	public double valAndGrad(double[] x, double[] a, double[] grad);
+
+}
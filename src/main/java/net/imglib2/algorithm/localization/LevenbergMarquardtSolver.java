@@ -34,7 +34,8 @@ import Jama.Matrix;
  * This solver makes use of only the function value and its gradient. That is:
  * candidate functions need only to implement the {@link FitFunction#val(double[], double[])}
  * and {@link FitFunction#grad(double[], double[], int)} methods to operate with this
- * solver.
+ * solver. Functions that implement {@link GradientFitFunction} are evaluated with
+ * a single call per point and iteration.
  * <p>
  * It was adapted and stripped from jplewis (www.idiom.com/~zilla) and released under 
  * the GPL. There are various small tweaks for robustness and speed.
@@ -176,6 +177,10 @@ public class LevenbergMarquardtSolver implements FunctionFitter {
 		double[] valf = new double[npts];
 		double[][] gradf = new double[nparm][npts];
 
+		// value and gradient in one call if f supports it
+		final GradientFitFunction gf = f instanceof GradientFitFunction ? (GradientFitFunction) f : null;
+		final double[] gradi = new double[nparm];
+
 		int iter = 0;
 		int term = 0;	// termination count test
 
@@ -183,10 +188,20 @@ public class LevenbergMarquardtSolver implements FunctionFitter {
 			++iter;
 
 			// precompute values and gradients of f
-			for (int i = 0; i < npts; i++) {
-				valf[i] = f.val(x[i], a);
-				for (int k = 0; k < nparm; k++) {
-					gradf[k][i] = f.grad(x[i], a, k);
+			if (gf != null) {
+				for (int i = 0; i < npts; i++) {
+					valf[i] = gf.valAndGrad(x[i], a, gradi);
+					for (int k = 0; k < nparm; k++) {
+						gradf[k][i] = gradi[k];
+					}
+				}
+			}
+			else {
+				for (int i = 0; i < npts; i++) {
+					valf[i] = f.val(x[i], a);
+					for (int k = 0; k < nparm; k++) {
+						gradf[k][i] = f.grad(x[i], a, k);
+					}
 				}
 			}
 
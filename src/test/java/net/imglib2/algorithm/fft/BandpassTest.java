@@ -0,0 +1,207 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.fft;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fft.Bandpass.Profile;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+
+public class BandpassTest {
+
+	@Test
+	public void testIdeal() {
+
+		final Img< ComplexFloatType > spectrum = random( new Random( 1 ), 17, 12, 5 );
+		final Img< ComplexFloatType > copy = spectrum.copy();
+
+		final Bandpass< ComplexFloatType > bandpass = new Bandpass< ComplexFloatType >( spectrum, 2, 6 );
+		bandpass.setNumThreads( 3 );
+		bandpass.setInPlace( true );
+		bandpass.process();
+
+		final Cursor< ComplexFloatType > c = copy.localizingCursor();
+		final RandomAccess< ComplexFloatType > r = spectrum.randomAccess();
+		final long[] pos = new long[ 3 ];
+
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.localize( pos );
+			r.setPosition( c );
+
+			final double dist = Util.distance( bandpass.getOrigin(), pos );
+			final float expected = dist < 2 || dist > 6 ? 0 : c.get().getRealFloat();
+
+			assertEquals( expected, r.get().getRealFloat(), 0 );
+		}
+	}
+
+	@Test
+	public void testOutOfPlace() {
+
+		final Img< ComplexFloatType > spectrum = random( new Random( 2 ), 9, 8 );
+
+		final Bandpass< ComplexFloatType > bandpass = new Bandpass< ComplexFloatType >( spectrum, 0, 100 );
+		bandpass.process();
+
+		// nothing is filtered, the result is a copy
+		final Cursor< ComplexFloatType > c1 = spectrum.cursor();
+		final Cursor< ComplexFloatType > c2 = ( ( Img< ComplexFloatType > ) bandpass.getResult() ).cursor();
+
+		while ( c1.hasNext() )
+			assertEquals( c1.next().getImaginaryFloat(), c2.next().getImaginaryFloat(), 0 );
+	}
+
+	@Test
+	public void testSmoothProfiles() {
+
+		final Bandpass< FloatType > gauss = new Bandpass< FloatType >( 0, 10, Profile.GAUSSIAN );
+		assertEquals( 1, gauss.weight( 0 ), 1e-9 );
+		assertEquals( Math.exp( -0.5 ), gauss.weight( 100 ), 1e-9 );
+
+		final Bandpass< FloatType > butterworth = new Bandpass< FloatType >( 4, 1000, Profile.BUTTERWORTH );
+		assertEquals( 0, butterworth.weight( 0 ), 1e-9 );
+		assertEquals( 0.5, butterworth.weight( 16 ), 1e-3 );
+
+		butterworth.setBandPass( false );
+		assertEquals( 1, butterworth.weight( 0 ), 1e-9 );
+	}
+
+	@Test
+	public void testFusedFilter() throws Exception {
+
+		final Random r = new Random( 3 );
+
+		final Img< FloatType > image = ArrayImgs.floats( 40, 33 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > kernel = FourierConvolution.createGaussianKernel( new ArrayImgFactory< FloatType >( new FloatType() ), 2, 2 );
+
+		final Img< FloatType > expected = FourierConvolution.convolve( image, kernel );
+
+		// a band-pass that lets everything through must not change the result
+		final FourierConvolution< FloatType, FloatType > conv = new FourierConvolution< FloatType, FloatType >( image, kernel );
+		conv.setFrequencyFilter( new Bandpass< FloatType >( 0, Integer.MAX_VALUE, Profile.IDEAL ) );
+		conv.process();
+
+		final Cursor< FloatType > c1 = expected.cursor();
+		final Cursor< FloatType > c2 = conv.getResult().cursor();
+
+		while ( c1.hasNext() )
+			assertEquals( c1.next().get(), c2.next().get(), 1e-5 );
+	}
+
+	@Test
+	public void testFusedSmoothFilter() throws Exception {
+
+		final Random r = new Random( 4 );
+
+		final Img< FloatType > image = ArrayImgs.floats( 40, 33 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > kernel = FourierConvolution.createGaussianKernel( new ArrayImgFactory< FloatType >( new FloatType() ), 1, 2 );
+
+		for ( final Profile profile : new Profile[] { Profile.GAUSSIAN, Profile.BUTTERWORTH } )
+		{
+			final Bandpass< FloatType > filter = new Bandpass< FloatType >( 2, 7, profile );
+
+			final FourierConvolution< FloatType, FloatType > fused = new FourierConvolution< FloatType, FloatType >( image, kernel );
+			fused.setFrequencyFilter( filter );
+			fused.process();
+
+			// multiplies without filter and then filters the product explicitly
+			final FourierConvolution< FloatType, FloatType > explicit = new FourierConvolution< FloatType, FloatType >( image, kernel )
+			{
+				@Override
+				protected void multiply( final RandomAccessibleInterval< ComplexFloatType > a, final RandomAccessibleInterval< ComplexFloatType > b )
+				{
+					super.multiply( a, b );
+
+					final Bandpass< ComplexFloatType > bandpass = new Bandpass< ComplexFloatType >( FFTFunctions.centeredView( a ), 2, 7, null );
+					bandpass.setProfile( profile );
+					bandpass.setInPlace( true );
+					assertTrue( bandpass.process() );
+				}
+			};
+			explicit.process();
+
+			final Cursor< FloatType > c1 = explicit.getResult().cursor();
+			final Cursor< FloatType > c2 = fused.getResult().cursor();
+
+			while ( c1.hasNext() )
+				assertEquals( c1.next().get(), c2.next().get(), 1e-5 );
+		}
+	}
+
+	@Test
+	public void testWeightsOnly() {
+
+		final Bandpass< ComplexFloatType > bandpass = new Bandpass< ComplexFloatType >( 2, 6, Profile.GAUSSIAN );
+
+		// there is no image to filter
+		assertFalse( bandpass.checkInput() );
+		assertFalse( bandpass.process() );
+
+		final Img< ComplexFloatType > spectrum = random( new Random( 5 ), 9, 8 );
+		bandpass.setImage( spectrum );
+
+		// there is no factory for the output
+		assertFalse( bandpass.checkInput() );
+
+		bandpass.setInPlace( true );
+		assertTrue( bandpass.process() );
+		assertArrayEquals( new long[] { 8, 4 }, bandpass.getOrigin() );
+	}
+
+	protected static Img< ComplexFloatType > random( final Random r, final long... dimensions )
+	{
+		final Img< ComplexFloatType > img = new ArrayImgFactory< ComplexFloatType >( new ComplexFloatType() ).create( dimensions );
+
+		for ( final ComplexFloatType t : img )
+			t.set( r.nextFloat(), r.nextFloat() );
+
+		return img;
+	}
+}
@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.fft;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+import net.imglib2.algorithm.fft.FourierTransform.FFTOptimization;
+import net.imglib2.algorithm.fft2.FFTSizePlanner;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class FFTCostModelTest {
+
+	@Test
+	public void testCandidates() {
+
+		final FFTCostModel model = new FFTCostModel();
+		final int[] minSize = new int[] { 1000, 1500, 97 };
+
+		final int[] size = model.paddedSize( minSize, Long.MAX_VALUE );
+
+		assertTrue( size[ 0 ] == FftReal.nfftSmall( 1000 ) || size[ 0 ] == FftReal.nfftFast( 1000 ) );
+		for ( int d = 1; d < 3; ++d )
+			assertTrue( size[ d ] == FftComplex.nfftSmall( minSize[ d ] ) || size[ d ] == FftComplex.nfftFast( minSize[ d ] ) );
+
+		// nothing fits into the budget, the smallest spectrum is used
+		final int[] smallest = model.paddedSize( minSize, 0 );
+		assertArrayEquals( new int[] { FftReal.nfftSmall( 1000 ), FftComplex.nfftSmall( 1500 ), FftComplex.nfftSmall( 97 ) }, smallest );
+
+		// sizes with large prime factors are more expensive per sample than powers of two
+		assertTrue( FFTCostModel.estimatedCost( false, 13 * 11 ) / ( 13 * 11 ) > FFTCostModel.estimatedCost( false, 128 ) / 128 );
+	}
+
+	@Test
+	public void testMeasuredTimingsAreCached() {
+
+		final int[] count = new int[ 1 ];
+		final FFTSizePlanner timer = new FFTSizePlanner()
+		{
+			@Override
+			public double time( final boolean real, final int n )
+			{
+				++count[ 0 ];
+				return n;
+			}
+		};
+
+		final FFTCostModel model = new FFTCostModel( timer );
+		model.paddedSize( new int[] { 300, 301 }, Long.MAX_VALUE );
+		final int measured = count[ 0 ];
+		model.paddedSize( new int[] { 300, 301 }, Long.MAX_VALUE );
+
+		assertTrue( measured > 0 );
+		assertEquals( measured, count[ 0 ] );
+	}
+
+	@Test
+	public void testAuto() {
+
+		final Img< FloatType > img = ArrayImgs.floats( 101, 67 );
+		final FourierTransform< FloatType, ComplexFloatType > fft = new FourierTransform< FloatType, ComplexFloatType >( img, new ArrayImgFactory< ComplexFloatType >( new ComplexFloatType() ), new ComplexFloatType(), FFTOptimization.AUTO );
+		fft.setMemoryBudget( 1 );
+
+		assertTrue( fft.checkInput() && fft.process() );
+
+		// with a budget of one byte the smallest sizes of the extended image have to be used
+		final int[] extended = fft.getExtendedImageSize( img, fft.getImageExtension() );
+
+		assertEquals( FftReal.nfftSmall( extended[ 0 ] ) / 2 + 1, fft.getResult().dimension( 0 ) );
+		assertEquals( FftComplex.nfftSmall( extended[ 1 ] ), fft.getResult().dimension( 1 ) );
+	}
+
+	@Test
+	public void testAutoUnlimited() {
+
+		// sizes whose nfftSmall (2 * 13 and 7 * 11 * 13) are slow to transform
+		final Img< FloatType > img = ArrayImgs.floats( 26, 1001 );
+		final int[] fast = new int[] { FftReal.nfftFast( 26 ), FftComplex.nfftFast( 1001 ) };
+
+		// timings that favor the sizes of nfftFast
+		final FFTSizePlanner timer = new FFTSizePlanner()
+		{
+			@Override
+			public double time( final boolean real, final int n )
+			{
+				return n == fast[ real ? 0 : 1 ] ? 1 : 1000;
+			}
+		};
+
+		for ( final long memoryBudget : new long[] { Long.MAX_VALUE, FFTCostModel.memory( new int[] { FftReal.nfftSmall( 26 ), FftComplex.nfftSmall( 1001 ) } ) } )
+		{
+			final FourierTransform< FloatType, ComplexFloatType > fft = new FourierTransform< FloatType, ComplexFloatType >( img, new ArrayImgFactory< ComplexFloatType >( new ComplexFloatType() ), new ComplexFloatType(), FFTOptimization.AUTO );
+			fft.setImageExtension( new int[] { 0, 0 } );
+			fft.setFFTCostModel( new FFTCostModel( timer ) );
+			fft.setMemoryBudget( memoryBudget );
+
+			assertTrue( fft.checkInput() && fft.process() );
+
+			if ( memoryBudget == Long.MAX_VALUE )
+			{
+				// nothing limits the choice, the fastest combination wins
+				assertEquals( fast[ 0 ] / 2 + 1, fft.getResult().dimension( 0 ) );
+				assertEquals( fast[ 1 ], fft.getResult().dimension( 1 ) );
+			}
+			else
+			{
+				// only the smallest combination fits
+				assertEquals( FftReal.nfftSmall( 26 ) / 2 + 1, fft.getResult().dimension( 0 ) );
+				assertEquals( FftComplex.nfftSmall( 1001 ), fft.getResult().dimension( 1 ) );
+			}
+		}
+	}
+}
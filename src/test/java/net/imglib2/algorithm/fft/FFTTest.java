@@ -28,11 +28,28 @@
 package net.imglib2.algorithm.fft;
 
 import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fft.FourierTransform.PreProcessing;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.outofbounds.OutOfBoundsMirrorExpWindowingFactory;
+import net.imglib2.outofbounds.OutOfBoundsPeriodicFactory;
 import net.imglib2.type.numeric.complex.ComplexDoubleType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
 import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
 
 import org.junit.Test;
 
@@ -54,4 +71,244 @@ public class FFTTest {
 		Img<ComplexDoubleType> convolved = fft.getResult();
 		assertEquals( convolved.numDimensions(), 1 );
 	}
+
+	/**
+	 * The lines of every pass are distributed in blocks among the threads, the
+	 * result must not depend on the number of threads
+	 */
+	@Test
+	public void multiThreaded() throws IncompatibleTypeException {
+		final Random r = new Random( 11 );
+		final Img< DoubleType > img = ArrayImgs.doubles( 23, 17, 9 );
+		for ( final DoubleType t : img )
+			t.set( r.nextDouble() );
+
+		final FourierTransform< DoubleType, ComplexDoubleType > fft1 = new FourierTransform< DoubleType, ComplexDoubleType >( img, new ComplexDoubleType() );
+		fft1.setNumThreads( 1 );
+		fft1.process();
+
+		final FourierTransform< DoubleType, ComplexDoubleType > fft7 = new FourierTransform< DoubleType, ComplexDoubleType >( img, new ComplexDoubleType() );
+		fft7.setNumThreads( 7 );
+		fft7.process();
+
+		final Cursor< ComplexDoubleType > c1 = fft1.getResult().cursor();
+		final Cursor< ComplexDoubleType > c7 = fft7.getResult().cursor();
+		while ( c1.hasNext() ) {
+			c1.fwd();
+			c7.fwd();
+			assertEquals( c1.get().getRealDouble(), c7.get().getRealDouble(), 1e-6 );
+			assertEquals( c1.get().getImaginaryDouble(), c7.get().getImaginaryDouble(), 1e-6 );
+		}
+
+		final InverseFourierTransform< DoubleType, ComplexDoubleType > ifft = new InverseFourierTransform< DoubleType, ComplexDoubleType >( fft7.getResult(), fft7 );
+		ifft.setNumThreads( 7 );
+		ifft.process();
+
+		final Cursor< DoubleType > c = img.cursor();
+		final Cursor< DoubleType > ci = ifft.getResult().cursor();
+		while ( c.hasNext() )
+			assertEquals( c.next().get(), ci.next().get(), 1e-4 );
+	}
+
+	/**
+	 * ArrayImgs and PlanarImgs of FloatType are read and written through their
+	 * arrays, the result must be the same as for other containers
+	 */
+	@Test
+	public void floatArrays() {
+		final Random r = new Random( 12 );
+		final Img< FloatType > cells = new CellImgFactory< FloatType >( new FloatType(), 8 ).create( 21, 14, 5 );
+		final Img< FloatType > array = ArrayImgs.floats( 21, 14, 5 );
+		final Img< FloatType > planar = PlanarImgs.floats( 21, 14, 5 );
+
+		final Cursor< FloatType > c = cells.localizingCursor();
+		final RandomAccess< FloatType > ra = array.randomAccess();
+		final RandomAccess< FloatType > rp = planar.randomAccess();
+		while ( c.hasNext() ) {
+			c.next().set( r.nextFloat() );
+			ra.setPosition( c );
+			rp.setPosition( c );
+			ra.get().set( c.get() );
+			rp.get().set( c.get() );
+		}
+
+		final Img< ComplexFloatType > expected = fft( cells, new CellImgFactory< ComplexFloatType >( new ComplexFloatType(), 8 ) );
+
+		assertComplexEqual( expected, fft( array, new ArrayImgFactory< ComplexFloatType >( new ComplexFloatType() ) ) );
+		assertComplexEqual( expected, fft( planar, new PlanarImgFactory< ComplexFloatType >( new ComplexFloatType() ) ) );
+	}
+
+	protected static Img< ComplexFloatType > fft( final Img< FloatType > img, final ImgFactory< ComplexFloatType > factory ) {
+		final FourierTransform< FloatType, ComplexFloatType > fft = new FourierTransform< FloatType, ComplexFloatType >( img, factory, new ComplexFloatType() );
+		fft.setNumThreads( 3 );
+		fft.process();
+		return fft.getResult();
+	}
+
+	protected static void assertComplexEqual( final Img< ComplexFloatType > img1, final RandomAccessibleInterval< ComplexFloatType > img2 ) {
+		final Cursor< ComplexFloatType > c1 = img1.localizingCursor();
+		final RandomAccess< ComplexFloatType > r2 = img2.randomAccess();
+		while ( c1.hasNext() ) {
+			c1.fwd();
+			r2.setPosition( c1 );
+			assertEquals( c1.get().getRealFloat(), r2.get().getRealFloat(), 1e-5 );
+			assertEquals( c1.get().getImaginaryFloat(), r2.get().getImaginaryFloat(), 1e-5 );
+		}
+	}
+
+	/**
+	 * The mirror fading is applied per line, the result must be the one of the
+	 * out of bounds strategy it replaces
+	 */
+	@Test
+	public void mirrorFading() {
+		final Random r = new Random( 19 );
+		final Img< FloatType > array = ArrayImgs.floats( 20, 13 );
+		final Img< FloatType > cells = new CellImgFactory< FloatType >( new FloatType(), 4 ).create( 20, 13 );
+		final Cursor< FloatType > c = array.localizingCursor();
+		final RandomAccess< FloatType > rc = cells.randomAccess();
+		while ( c.hasNext() ) {
+			c.next().set( r.nextFloat() + 1 );
+			rc.setPosition( c );
+			rc.get().set( c.get() );
+		}
+
+		// large enough to contain completely faded out pixels
+		final int[] offset = new int[] { 10, 8 };
+		final int[] size = new int[] { 40, 30 };
+		final ArrayImgFactory< ComplexFloatType > factory = new ArrayImgFactory< ComplexFloatType >( new ComplexFloatType() );
+
+		final Img< ComplexFloatType > expected = FFTFunctions.computeFFT( array, factory, new ComplexFloatType(),
+				new OutOfBoundsMirrorExpWindowingFactory< FloatType, RandomAccessibleInterval< FloatType > >( 0.25f ), offset, size, 1, false );
+
+		for ( final Img< FloatType > input : Arrays.asList( array, cells ) ) {
+			final Img< ComplexFloatType > fft = FFTFunctions.computeFFT( input, factory, new ComplexFloatType(), 0.25f, offset, size, 3, false );
+
+			final Cursor< ComplexFloatType > c1 = expected.cursor();
+			final Cursor< ComplexFloatType > c2 = fft.cursor();
+			while ( c1.hasNext() ) {
+				c1.fwd();
+				c2.fwd();
+				assertEquals( c1.get().getRealFloat(), c2.get().getRealFloat(), 1e-3 );
+				assertEquals( c1.get().getImaginaryFloat(), c2.get().getImaginaryFloat(), 1e-3 );
+			}
+		}
+	}
+
+	/**
+	 * The stream keeps its transforms and buffers for all frames, every
+	 * spectrum must be the one computed by FourierTransform
+	 */
+	@Test
+	public void stream() {
+		final Random r = new Random( 23 );
+		final ArrayImgFactory< ComplexFloatType > factory = new ArrayImgFactory< ComplexFloatType >( new ComplexFloatType() );
+
+		for ( final PreProcessing preProcessing : new PreProcessing[] { PreProcessing.EXTEND_MIRROR_FADING, PreProcessing.EXTEND_MIRROR } ) {
+			final Img< FloatType > first = ArrayImgs.floats( 21, 13, 5 );
+			final FourierTransform< FloatType, ComplexFloatType > configuration = new FourierTransform< FloatType, ComplexFloatType >( first, factory, new ComplexFloatType(), preProcessing );
+			configuration.setNumThreads( 3 );
+
+			final FourierTransformStream< FloatType, ComplexFloatType > stream = new FourierTransformStream< FloatType, ComplexFloatType >( configuration );
+
+			try {
+				for ( int i = 0; i < 3; ++i ) {
+					// array images use the direct float[] access, cell images the RandomAccess
+					final Img< FloatType > frame = i == 1 ? new CellImgFactory< FloatType >( new FloatType(), 4 ).create( 21, 13, 5 ) : ArrayImgs.floats( 21, 13, 5 );
+					for ( final FloatType t : frame )
+						t.set( r.nextFloat() );
+
+					final FourierTransform< FloatType, ComplexFloatType > fft = new FourierTransform< FloatType, ComplexFloatType >( frame, factory, new ComplexFloatType(), preProcessing );
+					fft.setNumThreads( 2 );
+					fft.process();
+
+					final Img< ComplexFloatType > spectrum = stream.transform( frame );
+					assertComplexEqual( fft.getResult(), spectrum );
+
+					stream.recycle( spectrum );
+				}
+			} finally {
+				stream.close();
+			}
+		}
+	}
+
+	/**
+	 * The pruned inverse transform skips the lines outside of the crop window,
+	 * the cropped result must not change
+	 */
+	@Test
+	public void prunedInverse() {
+		final Random r = new Random( 20 );
+		final Img< FloatType > img = ArrayImgs.floats( 15, 11, 7 );
+		for ( final FloatType t : img )
+			t.set( r.nextFloat() );
+
+		final int[] offset = new int[] { 5, 6, 4 };
+		final int[] size = new int[] { 26, 24, 16 };
+		final ArrayImgFactory< ComplexFloatType > factory = new ArrayImgFactory< ComplexFloatType >( new ComplexFloatType() );
+		final Img< ComplexFloatType > fft = FFTFunctions.computeFFT( img, factory, new ComplexFloatType(),
+				new OutOfBoundsPeriodicFactory< FloatType, RandomAccessibleInterval< FloatType > >(), offset, size, 3, false );
+
+		final int[] originalSize = new int[] { 15, 11, 7 };
+		final ArrayImgFactory< FloatType > realFactory = new ArrayImgFactory< FloatType >( new FloatType() );
+		final Img< FloatType > full = FFTFunctions.computeInverseFFT( fft.copy(), realFactory, new FloatType(), 3, true, true, originalSize, offset, 1, false );
+		final Img< FloatType > pruned = FFTFunctions.computeInverseFFT( fft, realFactory, new FloatType(), 3, true, true, originalSize, offset, 1, true );
+
+		final Cursor< FloatType > c1 = img.cursor();
+		final Cursor< FloatType > c2 = full.cursor();
+		final Cursor< FloatType > c3 = pruned.cursor();
+		while ( c1.hasNext() ) {
+			final float expected = c1.next().get();
+			assertEquals( expected, c2.next().get(), 1e-4 );
+			assertEquals( expected, c3.next().get(), 1e-4 );
+		}
+	}
+
+	/**
+	 * The dimensions &gt; 0 are transformed in tiles of several lines, a single
+	 * frequency along dimension 1 must end up in the right two pixels
+	 */
+	@Test
+	public void knownFrequencyDimensionOne() {
+		final Img< FloatType > img = ArrayImgs.floats( 37, 16 );
+		final Cursor< FloatType > c = img.localizingCursor();
+		while ( c.hasNext() ) {
+			c.fwd();
+			c.get().set( ( float ) Math.cos( 2 * Math.PI * 3 * c.getDoublePosition( 1 ) / 16 ) );
+		}
+
+		final Img< ComplexFloatType > fft = FFTFunctions.computeFFT( img, new ArrayImgFactory< ComplexFloatType >( new ComplexFloatType() ), new ComplexFloatType(),
+				new OutOfBoundsPeriodicFactory< FloatType, RandomAccessibleInterval< FloatType > >(), new int[] { 0, 0 }, new int[] { 36, 16 }, 4, false );
+
+		final Cursor< ComplexFloatType > f = fft.localizingCursor();
+		while ( f.hasNext() ) {
+			f.fwd();
+			final boolean peak = f.getIntPosition( 0 ) == 0 && ( f.getIntPosition( 1 ) == 3 || f.getIntPosition( 1 ) == 13 );
+			assertEquals( peak ? 36 * 16 / 2 : 0, f.get().getRealFloat(), 1e-2 );
+			assertEquals( 0, f.get().getImaginaryFloat(), 1e-2 );
+		}
+	}
+
+	/**
+	 * The centered view must look like the physically rearranged spectrum, for
+	 * even and odd sizes
+	 */
+	@Test
+	public void centeredView() {
+		final Random r = new Random( 13 );
+
+		for ( final long[] dimensions : new long[][] { { 9, 8, 6 }, { 5, 7, 3 } } ) {
+			final Img< ComplexFloatType > fft = new ArrayImgFactory< ComplexFloatType >( new ComplexFloatType() ).create( dimensions );
+			for ( final ComplexFloatType t : fft )
+				t.set( r.nextFloat(), r.nextFloat() );
+
+			final RandomAccessibleInterval< ComplexFloatType > centered = FFTFunctions.centeredView( fft );
+
+			final Img< ComplexFloatType > rearranged = fft.copy();
+			FFTFunctions.rearrangeFFTQuadrants( rearranged, true, 2 );
+
+			assertComplexEqual( rearranged, centered );
+		}
+	}
 }
@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.fft;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class FourierConvolutionTest {
+
+	@Test
+	public void testAnalyticGaussian() throws Exception {
+
+		final Random r = new Random( 4 );
+
+		final Img< FloatType > image = ArrayImgs.floats( 64, 45, 7 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final double[] sigmas = new double[] { 3, 2.5, 1.5 };
+
+		final Img< FloatType > kernel = FourierConvolution.createGaussianKernel( new ArrayImgFactory< FloatType >( new FloatType() ), sigmas );
+		final Img< FloatType > expected = FourierConvolution.convolve( image, kernel );
+
+		final Img< FloatType > result = FourierConvolution.gaussianConvolve( image, sigmas );
+
+		final Cursor< FloatType > c1 = expected.cursor();
+		final Cursor< FloatType > c2 = result.cursor();
+
+		while ( c1.hasNext() )
+			assertEquals( c1.next().get(), c2.next().get(), 0.01 );
+	}
+
+	@Test
+	public void testMultiThreadedConvolution() throws Exception {
+
+		final Random r = new Random( 5 );
+
+		final Img< FloatType > image = ArrayImgs.floats( 31, 26 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		// an asymmetric kernel
+		final Img< FloatType > kernel = ArrayImgs.floats( 5, 3 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final FourierConvolution< FloatType, FloatType > conv = new FourierConvolution< FloatType, FloatType >( image, kernel );
+		conv.setNumThreads( 4 );
+		conv.process();
+		final Img< FloatType > result = conv.getResult();
+
+		// compare to a direct convolution away from the borders
+		final RandomAccess< FloatType > ri = image.randomAccess();
+		final RandomAccess< FloatType > rk = kernel.randomAccess();
+		final RandomAccess< FloatType > rr = result.randomAccess();
+
+		for ( int y = 1; y < 25; ++y )
+			for ( int x = 2; x < 29; ++x )
+			{
+				double sum = 0;
+
+				for ( int ky = 0; ky < 3; ++ky )
+					for ( int kx = 0; kx < 5; ++kx )
+					{
+						rk.setPosition( new int[] { kx, ky } );
+						ri.setPosition( new int[] { x + 2 - kx, y + 1 - ky } );
+						sum += rk.get().get() * ri.get().get();
+					}
+
+				rr.setPosition( new int[] { x, y } );
+				assertEquals( sum, rr.get().get(), 0.001 );
+			}
+
+		// the same without the fast path for ArrayImgs
+		final FourierConvolution< FloatType, FloatType > cellConv = new FourierConvolution< FloatType, FloatType >( image, kernel, new CellImgFactory< ComplexFloatType >( new ComplexFloatType(), 7 ) );
+		cellConv.setNumThreads( 3 );
+		cellConv.process();
+
+		final Cursor< FloatType > c1 = result.cursor();
+		final Cursor< FloatType > c2 = cellConv.getResult().cursor();
+
+		while ( c1.hasNext() )
+			assertEquals( c1.next().get(), c2.next().get(), 0.0001 );
+	}
+}
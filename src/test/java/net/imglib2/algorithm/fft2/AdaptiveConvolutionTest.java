@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.fft2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.algorithm.fft2.AdaptiveConvolution.CostModel;
+import net.imglib2.algorithm.fft2.AdaptiveConvolution.Strategy;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class AdaptiveConvolutionTest {
+
+	@Test
+	public void testDirect() {
+
+		final Random r = new Random( 1 );
+
+		final Img< FloatType > image = random( r, 40, 30 );
+		final Img< FloatType > kernel = random( r, 5, 4 );
+
+		assertNull( AdaptiveConvolution.separableFactors( kernel, 1e-5 ) );
+
+		for ( final boolean complexConjugate : new boolean[] { false, true } )
+		{
+			final Img< FloatType > expected = convolve( image, kernel, Strategy.FFT, complexConjugate );
+			final Img< FloatType > direct = convolve( image, kernel, Strategy.DIRECT, complexConjugate );
+
+			assertImagesEqual( expected, direct, 0.001f );
+		}
+	}
+
+	@Test
+	public void testSeparable() {
+
+		final Random r = new Random( 2 );
+
+		final Img< FloatType > image = random( r, 33, 27, 6 );
+
+		// normalized outer product of three 1d kernels
+		final float[][] k = new float[][] { { 1, 3, 2, 5, 1, 2, 1 }, { 2, 4, 1 }, { 1, 2, 3, 1 } };
+		final Img< FloatType > kernel = ArrayImgs.floats( 7, 3, 4 );
+		final Cursor< FloatType > c = kernel.localizingCursor();
+
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.get().set( k[ 0 ][ c.getIntPosition( 0 ) ] * k[ 1 ][ c.getIntPosition( 1 ) ] * k[ 2 ][ c.getIntPosition( 2 ) ] / 735.0f );
+		}
+
+		assertNotNull( AdaptiveConvolution.separableFactors( kernel, 1e-5 ) );
+
+		for ( final boolean complexConjugate : new boolean[] { false, true } )
+		{
+			final Img< FloatType > expected = convolve( image, kernel, Strategy.FFT, complexConjugate );
+			final Img< FloatType > separable = convolve( image, kernel, Strategy.SEPARABLE, complexConjugate );
+
+			assertImagesEqual( expected, separable, 0.01f );
+		}
+
+		// a model that makes the Fourier convolution expensive has to pick
+		// the separable convolution
+		final Img< FloatType > output = ArrayImgs.floats( 33, 27, 6 );
+		final AdaptiveConvolution< FloatType > conv = new AdaptiveConvolution< FloatType >( image, kernel, output, new ArrayImgFactory<>( new ComplexFloatType() ), null );
+		conv.setCostModel( new CostModel( 1, 1, 1000 ) );
+		conv.convolve();
+
+		assertEquals( Strategy.SEPARABLE, conv.getChosenStrategy() );
+	}
+
+	@Test
+	public void testInPlace() {
+
+		final Random r = new Random( 3 );
+
+		final Img< FloatType > image = random( r, 40, 30 );
+		final Img< FloatType > kernel = random( r, 5, 4 );
+
+		final Img< FloatType > expected = convolve( image, kernel, Strategy.FFT, false );
+
+		for ( final Strategy strategy : new Strategy[] { null, Strategy.DIRECT } )
+		{
+			final Img< FloatType > inPlace = image.copy();
+
+			final AdaptiveConvolution< FloatType > conv = new AdaptiveConvolution< FloatType >( inPlace, kernel, inPlace, new ArrayImgFactory<>( new ComplexFloatType() ), null );
+			conv.setStrategy( strategy );
+			conv.setCostModel( new CostModel( 1, 1, 1000 ) );
+
+			assertTrue( conv.outputAliasesImage() );
+
+			conv.convolve();
+
+			// the automatic selection has to avoid the direct convolution
+			if ( strategy == null )
+				assertEquals( Strategy.FFT, conv.getChosenStrategy() );
+
+			assertImagesEqual( expected, inPlace, 0.001f );
+		}
+
+		// views of the same image that are far enough apart do not alias
+		final Img< FloatType > wide = random( r, 100, 30 );
+		final AdaptiveConvolution< FloatType > conv = new AdaptiveConvolution< FloatType >(
+				Views.interval( wide, Intervals.createMinSize( 0, 0, 40, 30 ) ), kernel,
+				Views.interval( wide, Intervals.createMinSize( 60, 0, 40, 30 ) ),
+				new ArrayImgFactory<>( new ComplexFloatType() ), null );
+
+		assertFalse( conv.outputAliasesImage() );
+	}
+
+	protected static Img< FloatType > convolve( final Img< FloatType > image, final Img< FloatType > kernel, final Strategy strategy, final boolean complexConjugate )
+	{
+		final Img< FloatType > output = ArrayImgs.floats( Intervals.dimensionsAsLongArray( image ) );
+
+		final AdaptiveConvolution< FloatType > conv = new AdaptiveConvolution< FloatType >( image, kernel, output, new ArrayImgFactory<>( new ComplexFloatType() ), null );
+		conv.setStrategy( strategy );
+		conv.setComputeComplexConjugate( complexConjugate );
+		conv.convolve();
+
+		return output;
+	}
+
+	protected static Img< FloatType > random( final Random r, final long... dimensions )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( dimensions );
+
+		for ( final FloatType t : img )
+			t.set( r.nextFloat() );
+
+		return img;
+	}
+
+	protected static void assertImagesEqual( final Img< FloatType > img1, final Img< FloatType > img2, final float delta )
+	{
+		final Cursor< FloatType > c1 = img1.cursor();
+		final Cursor< FloatType > c2 = img2.cursor();
+
+		while ( c1.hasNext() )
+			assertEquals( c1.next().get(), c2.next().get(), delta );
+	}
+}
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.fft2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.complex.ComplexDoubleType;
+import net.imglib2.type.numeric.real.DoubleType;
+
+public class DoubleFFTTest {
+
+	@Test
+	public void testFactorize() {
+
+		assertArrayEquals( new int[] { 4, 4, 2, 3 }, DoubleFFT.factorize( 96 ) );
+		assertArrayEquals( new int[] { 11, 13 }, DoubleFFT.factorize( 143 ) );
+		assertArrayEquals( new int[] {}, DoubleFFT.factorize( 1 ) );
+	}
+
+	@Test
+	public void testComplexToComplex() {
+
+		final Random r = new Random( 1 );
+
+		for ( final int n : new int[] { 1, 2, 7, 12, 30, 44, 77, 128, 210 } )
+		{
+			final double[] re = new double[ n ];
+			final double[] im = new double[ n ];
+
+			for ( int i = 0; i < n; ++i )
+			{
+				re[ i ] = r.nextDouble();
+				im[ i ] = r.nextDouble();
+			}
+
+			final double[] re0 = re.clone();
+			final double[] im0 = im.clone();
+
+			new DoubleFFT( n ).complexToComplex( -1, re, im );
+
+			// compare to the definition of the DFT
+			for ( int k = 0; k < n; ++k )
+			{
+				double sumRe = 0, sumIm = 0;
+
+				for ( int j = 0; j < n; ++j )
+				{
+					final double angle = -2 * Math.PI * ( ( ( long ) j * k ) % n ) / n;
+					sumRe += re0[ j ] * Math.cos( angle ) - im0[ j ] * Math.sin( angle );
+					sumIm += re0[ j ] * Math.sin( angle ) + im0[ j ] * Math.cos( angle );
+				}
+
+				assertEquals( sumRe, re[ k ], 1e-10 );
+				assertEquals( sumIm, im[ k ], 1e-10 );
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTrip() {
+
+		final Random r = new Random( 2 );
+		final Img< DoubleType > img = ArrayImgs.doubles( 30, 22, 9 );
+
+		for ( final DoubleType t : img )
+			t.set( r.nextDouble() * 1e6 );
+
+		final ExecutorService service = Executors.newFixedThreadPool( 3 );
+
+		try
+		{
+			final Img< ComplexDoubleType > spectrum = ArrayImgs.complexDoubles( 16, 22, 9 );
+			DoubleFFT.realToComplex( img, spectrum, service );
+
+			// the DC component is the sum of all values
+			double sum = 0;
+			for ( final DoubleType t : img )
+				sum += t.get();
+
+			assertEquals( sum, spectrum.firstElement().getRealDouble(), sum * 1e-14 );
+
+			final Img< DoubleType > result = ArrayImgs.doubles( 30, 22, 9 );
+			DoubleFFT.complexToRealUnpad( spectrum, result, service );
+
+			final Cursor< DoubleType > c1 = img.cursor();
+			final Cursor< DoubleType > c2 = result.cursor();
+
+			while ( c1.hasNext() )
+				assertEquals( c1.next().get(), c2.next().get(), 1e-7 );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+}
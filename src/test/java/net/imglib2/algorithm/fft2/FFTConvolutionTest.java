@@ -27,16 +27,40 @@
 package net.imglib2.algorithm.fft2;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
 import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
 
 public class FFTConvolutionTest {
 
@@ -68,6 +92,759 @@ public class FFTConvolutionTest {
 		assertImagesEqual(kernel,result, 0.0001f);
 		
 	}
+
+	@Test
+	public void testDoublePrecision() {
+
+		final Random r = new Random( 21 );
+
+		final Img< DoubleType > image = ArrayImgs.doubles( 37, 29 );
+		for ( final DoubleType t : image )
+			t.set( r.nextDouble() * 65535 );
+
+		final Img< DoubleType > kernel = ArrayImgs.doubles( 5, 4 );
+		for ( final DoubleType t : kernel )
+			t.set( r.nextDouble() );
+
+		final Img< DoubleType > result = ArrayImgs.doubles( 37, 29 );
+		final FFTConvolution< DoubleType > conv = new FFTConvolution< DoubleType >( image, kernel, result );
+		conv.setUseDoublePrecision( true );
+		conv.setKeepImgFFT( true );
+		conv.convolve();
+
+		// direct convolution of the mirrored image
+		final RandomAccess< DoubleType > in = Views.extendMirrorSingle( image ).randomAccess();
+		final RandomAccess< DoubleType > k = kernel.randomAccess();
+		final Cursor< DoubleType > c = result.localizingCursor();
+
+		while ( c.hasNext() )
+		{
+			c.fwd();
+
+			double sum = 0;
+			for ( int ky = 0; ky < 4; ++ky )
+				for ( int kx = 0; kx < 5; ++kx )
+				{
+					k.setPosition( new int[] { kx, ky } );
+					in.setPosition( new long[] { c.getLongPosition( 0 ) - kx + 2, c.getLongPosition( 1 ) - ky + 2 } );
+					sum += k.get().get() * in.get().get();
+				}
+
+			assertEquals( sum, c.get().get(), 1e-6 );
+		}
+
+		// the kept image spectrum gives the same result again
+		final Img< DoubleType > again = ArrayImgs.doubles( 37, 29 );
+		conv.setOutput( again );
+		conv.convolve();
+
+		final Cursor< DoubleType > c1 = result.cursor();
+		final Cursor< DoubleType > c2 = again.cursor();
+		while ( c1.hasNext() )
+			assertEquals( c1.next().get(), c2.next().get(), 1e-8 );
+
+		// the double precision spectra follow the container of the given factory
+		final Img< DoubleType > cells = ArrayImgs.doubles( 37, 29 );
+		final FFTConvolution< DoubleType > cellConv = new FFTConvolution< DoubleType >( image, kernel, cells, new CellImgFactory<>( new ComplexFloatType(), 7 ) );
+		cellConv.setUseDoublePrecision( true );
+		cellConv.setKeepImgFFT( true );
+		cellConv.convolve();
+
+		assertTrue( cellConv.fftImgDouble instanceof CellImg );
+
+		final Cursor< DoubleType > c3 = result.cursor();
+		final Cursor< DoubleType > c4 = cells.cursor();
+		while ( c3.hasNext() )
+			assertEquals( c3.next().get(), c4.next().get(), 1e-8 );
+	}
+
+	@Test
+	public void testKernelFFTCache() {
+
+		final Img< FloatType > kernel = ArrayImgs.floats( new float[] { 0.25f, 0.5f, 0.25f }, 3 );
+		final KernelFFTCache cache = new KernelFFTCache( Long.MAX_VALUE );
+
+		final FFTConvolution< FloatType > conv1 = new FFTConvolution<FloatType>( ArrayImgs.floats( 17 ), kernel );
+		conv1.setKernelFFTCache( cache );
+		conv1.convolve();
+
+		// a different kernel instance with identical content
+		final Img< FloatType > kernelCopy = kernel.copy();
+		final FFTConvolution< FloatType > conv2 = new FFTConvolution<FloatType>( ArrayImgs.floats( 17 ), kernelCopy );
+		conv2.setKernelFFTCache( cache );
+		conv2.convolve();
+
+		assertEquals( 1, cache.size() );
+		assertSame( conv1.kernelFFT(), conv2.kernelFFT() );
+
+		conv2.setComputeComplexConjugate( true );
+		conv2.convolve();
+
+		assertEquals( 2, cache.size() );
+		assertNotSame( conv1.kernelFFT(), conv2.kernelFFT() );
+	}
+
+	/**
+	 * CellImgs with different cell sizes iterate their spectra in a different
+	 * order, they must not share a kernel spectrum
+	 */
+	@Test
+	public void testKernelFFTCacheCellSizes() {
+
+		final Random r = new Random( 31 );
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 5, 3 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > image = ArrayImgs.floats( 40, 30 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > expected = ArrayImgs.floats( 40, 30 );
+		new FFTConvolution< FloatType >( image, kernel, expected ).convolve();
+
+		final KernelFFTCache cache = new KernelFFTCache( Long.MAX_VALUE );
+
+		for ( final int cellSize : new int[] { 8, 16 } )
+		{
+			final Img< FloatType > cellImage = new CellImgFactory< FloatType >( new FloatType(), cellSize ).create( 40, 30 );
+			final Cursor< FloatType > c1 = cellImage.localizingCursor();
+			final RandomAccess< FloatType > ra = image.randomAccess();
+
+			while ( c1.hasNext() )
+			{
+				c1.fwd();
+				ra.setPosition( c1 );
+				c1.get().set( ra.get() );
+			}
+
+			final Img< FloatType > result = ArrayImgs.floats( 40, 30 );
+			final FFTConvolution< FloatType > conv = new FFTConvolution< FloatType >( cellImage, kernel, result );
+			conv.setKernelFFTCache( cache );
+			conv.convolve();
+
+			assertTrue( conv.kernelFFT() instanceof CellImg );
+			assertImagesEqual( expected, result, 0.001f );
+		}
+
+		assertEquals( 2, cache.size() );
+	}
+
+	@Test
+	public void testKernelFFTCacheCollision() {
+
+		final Img< FloatType > kernel1 = ArrayImgs.floats( new float[] { 0.25f, 0.5f, 0.25f }, 3 );
+		final Img< FloatType > kernel2 = ArrayImgs.floats( new float[] { 0.5f, 0.25f, 0.25f }, 3 );
+
+		final KernelFFTCache.KernelSamples samples1 = new KernelFFTCache.KernelSamples( kernel1, kernel1 );
+		final KernelFFTCache.KernelSamples samples2 = new KernelFFTCache.KernelSamples( kernel2, kernel2 );
+
+		assertEquals( samples1, new KernelFFTCache.KernelSamples( kernel1.copy(), kernel1 ) );
+
+		// different content with the same hash must not be equal
+		final KernelFFTCache.KernelSamples collision = new KernelFFTCache.KernelSamples( samples2.numSamples, samples2.indices, samples2.values, samples1.hash );
+		assertEquals( samples1.hashCode(), collision.hashCode() );
+		assertFalse( samples1.equals( collision ) );
+	}
+
+	@Test
+	public void testStaticKernelFFTIsNotShared() {
+
+		final Img< FloatType > kernel = ArrayImgs.floats( new float[] { 0.25f, 0.5f, 0.25f }, 3 );
+		final Interval interval = Intervals.createMinMax( -8, 7 );
+		final long[] min = new long[] { -7 };
+		final long[] max = new long[] { 8 };
+		final ArrayImgFactory< ComplexFloatType > factory = new ArrayImgFactory<>( new ComplexFloatType() );
+		final ExecutorService service = Executors.newFixedThreadPool( 2 );
+
+		try
+		{
+			final Img< ComplexFloatType > fft1 = FFTConvolution.computeKernelFFT( interval, min, max, false, Views.extendZero( kernel ), factory, service );
+			final Img< ComplexFloatType > fft2 = FFTConvolution.computeKernelFFT( interval, min, max, false, Views.extendZero( kernel ), factory, service );
+
+			// the caller owns the result and may modify it
+			assertNotSame( fft1, fft2 );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	@Test
+	public void testTiledConvolution() {
+
+		final Random r = new Random( 42 );
+
+		final Img< FloatType > image = ArrayImgs.floats( 40, 33 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 5, 7 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > expected = ArrayImgs.floats( 40, 33 );
+		new FFTConvolution< FloatType >( image, kernel, expected ).convolve();
+
+		final Img< FloatType > tiled = ArrayImgs.floats( 40, 33 );
+		final TiledFFTConvolution< FloatType > conv = new TiledFFTConvolution< FloatType >(
+				image, kernel, tiled, new int[] { 16, 16 }, new ArrayImgFactory<>( new ComplexFloatType() ), null );
+		conv.setNumParallelBlocks( 2 );
+		conv.convolve();
+
+		assertImagesEqual( expected, tiled, 0.001f );
+	}
+
+	@Test
+	public void testBatchConvolution() {
+
+		final Random r = new Random( 7 );
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 3, 5 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final ArrayList< Img< FloatType > > images = new ArrayList<>();
+		final ArrayList< Img< FloatType > > expected = new ArrayList<>();
+
+		for ( int i = 0; i < 3; ++i )
+		{
+			final Img< FloatType > image = ArrayImgs.floats( 20, 21 );
+			for ( final FloatType t : image )
+				t.set( r.nextFloat() );
+
+			final Img< FloatType > result = ArrayImgs.floats( 20, 21 );
+			new FFTConvolution< FloatType >( image, kernel, result ).convolve();
+
+			images.add( image );
+			expected.add( result );
+		}
+
+		final FFTConvolution< FloatType > conv = new FFTConvolution< FloatType >( images.get( 0 ), kernel );
+		conv.convolveBatch( images );
+
+		for ( int i = 0; i < images.size(); ++i )
+			assertImagesEqual( expected.get( i ), images.get( i ), 0.001f );
+	}
+
+	/**
+	 * A stream can only be iterated once, the workspace is released even if
+	 * an image fails
+	 */
+	@Test
+	public void testBatchConvolutionStream() {
+
+		final Random r = new Random( 8 );
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 3, 5 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final ArrayList< Img< FloatType > > images = new ArrayList<>();
+		final ArrayList< Img< FloatType > > expected = new ArrayList<>();
+
+		for ( int i = 0; i < 3; ++i )
+		{
+			final Img< FloatType > image = ArrayImgs.floats( 20, 21 );
+			for ( final FloatType t : image )
+				t.set( r.nextFloat() );
+
+			final Img< FloatType > result = ArrayImgs.floats( 20, 21 );
+			new FFTConvolution< FloatType >( image, kernel, result ).convolve();
+
+			images.add( image );
+			expected.add( result );
+		}
+
+		final ArrayList< OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg > spectra = new ArrayList<>();
+		final OffHeapComplexFloatImgFactory factory = new OffHeapComplexFloatImgFactory()
+		{
+			@Override
+			public OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg create( final long... dimensions )
+			{
+				final OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg img = super.create( dimensions );
+				spectra.add( img );
+				return img;
+			}
+		};
+
+		final FFTConvolution< FloatType > conv = new FFTConvolution< FloatType >( images.get( 0 ), kernel, factory );
+		conv.convolveBatch( oneShot( images.stream() ) );
+
+		for ( int i = 0; i < images.size(); ++i )
+			assertImagesEqual( expected.get( i ), images.get( i ), 0.001f );
+
+		// a different size fails after the workspace was created
+		final ArrayList< Img< FloatType > > mixed = new ArrayList<>();
+		mixed.add( ArrayImgs.floats( 20, 21 ) );
+		mixed.add( ArrayImgs.floats( 21, 21 ) );
+
+		try
+		{
+			conv.convolveBatch( oneShot( mixed.stream() ) );
+			fail( "Images of different size must be rejected." );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			// expected
+		}
+
+		for ( final OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg spectrum : spectra )
+			assertEquals( spectrum != conv.kernelFFT(), spectrum.isReleased() );
+	}
+
+	/**
+	 * @return - an {@link Iterable} that can be iterated only once
+	 */
+	private static < T > Iterable< T > oneShot( final Stream< T > stream )
+	{
+		return new Iterable< T >()
+		{
+			@Override
+			public Iterator< T > iterator()
+			{
+				return stream.iterator();
+			}
+		};
+	}
+
+	@Test
+	public void testFilterBankConvolution() {
+
+		final Random r = new Random( 11 );
+
+		final Img< FloatType > image = ArrayImgs.floats( 25, 18 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final ArrayList< Img< FloatType > > kernels = new ArrayList<>();
+		final ArrayList< Img< FloatType > > outputs = new ArrayList<>();
+		final ArrayList< Img< FloatType > > expected = new ArrayList<>();
+
+		for ( final long[] size : new long[][] { { 3, 3 }, { 7, 5 }, { 4, 9 } } )
+		{
+			final Img< FloatType > kernel = ArrayImgs.floats( size );
+			for ( final FloatType t : kernel )
+				t.set( r.nextFloat() );
+
+			final Img< FloatType > result = ArrayImgs.floats( 25, 18 );
+			new FFTConvolution< FloatType >( image, kernel, result ).convolve();
+
+			kernels.add( kernel );
+			outputs.add( ArrayImgs.floats( 25, 18 ) );
+			expected.add( result );
+		}
+
+		final FFTConvolution< FloatType > conv = new FFTConvolution< FloatType >( image, kernels.get( 0 ) );
+		conv.convolveFilterBank( kernels, outputs );
+
+		for ( int i = 0; i < kernels.size(); ++i )
+			assertImagesEqual( expected.get( i ), outputs.get( i ), 0.001f );
+	}
+
+	@Test
+	public void testPipelineConvolution() throws Exception {
+
+		final Random r = new Random( 13 );
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 5, 3 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final ArrayList< Img< FloatType > > frames = new ArrayList<>();
+		final ArrayList< Img< FloatType > > expected = new ArrayList<>();
+
+		for ( int i = 0; i < 5; ++i )
+		{
+			final Img< FloatType > frame = ArrayImgs.floats( 17, 22 );
+			for ( final FloatType t : frame )
+				t.set( r.nextFloat() );
+
+			final Img< FloatType > result = ArrayImgs.floats( 17, 22 );
+			new FFTConvolution< FloatType >( frame, kernel, result ).convolve();
+
+			frames.add( frame );
+			expected.add( result );
+		}
+
+		final ExecutorService service = Executors.newFixedThreadPool( 2 );
+
+		try ( final FFTConvolutionPipeline< FloatType > pipeline = new FFTConvolutionPipeline< FloatType >( kernel, new ArrayImgFactory<>( new ComplexFloatType() ), service, 2 ) )
+		{
+			final ArrayList< CompletableFuture< RandomAccessibleInterval< FloatType > > > results = new ArrayList<>();
+
+			for ( final Img< FloatType > frame : frames )
+				results.add( pipeline.convolveAsync( frame, frame ) );
+
+			for ( final CompletableFuture< RandomAccessibleInterval< FloatType > > result : results )
+				result.get();
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		for ( int i = 0; i < frames.size(); ++i )
+			assertImagesEqual( expected.get( i ), frames.get( i ), 0.001f );
+	}
+
+	/**
+	 * close() must wait for the frames in flight, all of them are convolved
+	 * and every off-heap spectrum is released afterwards
+	 */
+	@Test
+	public void testPipelineCloseWhileRunning() {
+
+		final Random r = new Random( 29 );
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 7, 5 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final ArrayList< Img< FloatType > > frames = new ArrayList<>();
+		final ArrayList< Img< FloatType > > expected = new ArrayList<>();
+
+		for ( int i = 0; i < 6; ++i )
+		{
+			final Img< FloatType > frame = ArrayImgs.floats( 180, 150 );
+			for ( final FloatType t : frame )
+				t.set( r.nextFloat() );
+
+			final Img< FloatType > result = ArrayImgs.floats( 180, 150 );
+			new FFTConvolution< FloatType >( frame, kernel, result ).convolve();
+
+			frames.add( frame );
+			expected.add( result );
+		}
+
+		final ArrayList< OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg > spectra = new ArrayList<>();
+		final OffHeapComplexFloatImgFactory factory = new OffHeapComplexFloatImgFactory()
+		{
+			@Override
+			public OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg create( final long... dimensions )
+			{
+				final OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg img = super.create( dimensions );
+
+				synchronized ( spectra )
+				{
+					spectra.add( img );
+				}
+
+				return img;
+			}
+		};
+
+		final ExecutorService service = Executors.newFixedThreadPool( 2 );
+
+		try
+		{
+			final FFTConvolutionPipeline< FloatType > pipeline = new FFTConvolutionPipeline< FloatType >( kernel, factory, service, 2 );
+			final ArrayList< CompletableFuture< RandomAccessibleInterval< FloatType > > > results = new ArrayList<>();
+
+			for ( final Img< FloatType > frame : frames )
+				results.add( pipeline.convolveAsync( frame, frame ) );
+
+			// the last frames are still in flight
+			pipeline.close();
+
+			for ( final CompletableFuture< RandomAccessibleInterval< FloatType > > result : results )
+			{
+				assertTrue( result.isDone() );
+				assertFalse( result.isCompletedExceptionally() );
+			}
+
+			assertTrue( pipeline.workspaces.isEmpty() );
+			assertEquals( 2, pipeline.framesInFlight.availablePermits() );
+
+			assertFalse( spectra.isEmpty() );
+			for ( final OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg spectrum : spectra )
+				assertTrue( spectrum.isReleased() );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		for ( int i = 0; i < frames.size(); ++i )
+			assertImagesEqual( expected.get( i ), frames.get( i ), 0.001f );
+	}
+
+	@Test
+	public void testPipelineClosed() {
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 3, 3 );
+		final ExecutorService service = Executors.newFixedThreadPool( 2 );
+
+		try
+		{
+			final FFTConvolutionPipeline< FloatType > pipeline = new FFTConvolutionPipeline< FloatType >( kernel, new ArrayImgFactory<>( new ComplexFloatType() ), service, 2 );
+			pipeline.close();
+
+			try
+			{
+				pipeline.computeImgFFTAsync( ArrayImgs.floats( 10, 10 ) );
+				fail( "A closed pipeline must reject new frames." );
+			}
+			catch ( final IllegalStateException e )
+			{
+				// no permit may leak
+				assertEquals( 2, pipeline.framesInFlight.availablePermits() );
+			}
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	@Test
+	public void testOutputROIConvolution() {
+
+		final Random r = new Random( 17 );
+
+		final Img< FloatType > image = ArrayImgs.floats( 50, 40 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 5, 7 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > expected = ArrayImgs.floats( 50, 40 );
+		new FFTConvolution< FloatType >( image, kernel, expected ).convolve();
+
+		final Img< FloatType > result = ArrayImgs.floats( 50, 40 );
+		final FFTConvolution< FloatType > conv = new FFTConvolution< FloatType >( image, kernel, result );
+		conv.setKeepImgFFT( true );
+
+		// a smaller output is not a region of interest unless requested
+		conv.setOutput( Views.interval( result, Intervals.createMinMax( 10, 5, 24, 19 ) ) );
+		assertSame( image, conv.convolutionInterval() );
+
+		conv.setOutputROI( true );
+
+		for ( final Interval roi : new Interval[] { Intervals.createMinMax( 10, 5, 24, 19 ), Intervals.createMinMax( 0, 30, 49, 39 ) } )
+		{
+			conv.setOutput( Views.interval( result, roi ) );
+			conv.convolve();
+
+			final Cursor< FloatType > c1 = Views.interval( expected, roi ).cursor();
+			final Cursor< FloatType > c2 = Views.interval( result, roi ).cursor();
+
+			while ( c1.hasNext() )
+				assertEquals( c1.next().get(), c2.next().get(), 0.001f );
+		}
+	}
+
+	@Test
+	public void testOffHeapConvolution() {
+
+		final Random r = new Random( 19 );
+
+		final Img< FloatType > image = ArrayImgs.floats( 31, 26 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 5, 3 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > expected = ArrayImgs.floats( 31, 26 );
+		new FFTConvolution< FloatType >( image, kernel, expected ).convolve();
+
+		for ( final OffHeapComplexFloatImgFactory.Storage storage : OffHeapComplexFloatImgFactory.Storage.values() )
+		{
+			final OffHeapComplexFloatImgFactory factory = new OffHeapComplexFloatImgFactory( storage, null );
+
+			final KernelFFTCache cache = new KernelFFTCache( Long.MAX_VALUE );
+
+			final Img< FloatType > result = ArrayImgs.floats( 31, 26 );
+			final FFTConvolution< FloatType > conv = new FFTConvolution< FloatType >( image, kernel, result, factory );
+			conv.setKernelFFTCache( cache );
+			conv.setKeepImgFFT( true );
+			conv.convolve();
+
+			assertImagesEqual( expected, result, 0.001f );
+
+			// off-heap kernel spectra are not cached
+			assertEquals( 0, cache.size() );
+
+			// a spectrum handed in by the caller is overwritten, but not released
+			final OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg imgFFT = ( OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg ) conv.imgFFT();
+
+			final Img< FloatType > result2 = ArrayImgs.floats( 31, 26 );
+			final FFTConvolution< FloatType > conv2 = new FFTConvolution< FloatType >( image, kernel, result2, factory );
+			conv2.setImgFFT( imgFFT );
+			conv2.convolve();
+
+			assertImagesEqual( expected, result2, 0.001f );
+			assertFalse( imgFFT.isReleased() );
+			imgFFT.release();
+
+			// the overwritten image spectrum it computed itself is released
+			final Img< FloatType > result3 = ArrayImgs.floats( 31, 26 );
+			final FFTConvolution< FloatType > conv3 = new FFTConvolution< FloatType >( image, kernel, result3, factory );
+			conv3.convolve();
+
+			assertImagesEqual( expected, result3, 0.001f );
+			assertNull( conv3.imgFFT() );
+
+			final OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg spectrum = factory.create( 4, 5 );
+			spectrum.firstElement().set( 1, 2 );
+			assertEquals( 2, spectrum.firstElement().getImaginaryFloat(), 0 );
+			spectrum.release();
+			assertTrue( spectrum.isReleased() );
+		}
+	}
+
+	/**
+	 * Spectra with more complex values than fit into one array are split into
+	 * cells, a memory-mapped file is sparse so only the touched pages are
+	 * allocated
+	 */
+	@Test
+	public void testLargeOffHeapSpectrum() {
+
+		final OffHeapComplexFloatImgFactory factory = new OffHeapComplexFloatImgFactory( OffHeapComplexFloatImgFactory.Storage.MEMORY_MAPPED, null );
+		final long[] dimensions = new long[] { 1 << 15, ( 1 << 15 ) + 1 };
+
+		assertTrue( Intervals.numElements( dimensions ) > Integer.MAX_VALUE / 2 );
+
+		final OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg spectrum = factory.create( dimensions );
+
+		try
+		{
+			assertEquals( Intervals.numElements( dimensions ), spectrum.size() );
+			assertEquals( 2, spectrum.getCells().size() );
+
+			// the first pixel, both sides of the cell border and the last pixel
+			final long[][] positions = new long[][] { { 0, 0 }, { ( 1 << 15 ) - 1, 32766 }, { 0, 32767 }, { ( 1 << 15 ) - 1, 1 << 15 } };
+			final RandomAccess< ComplexFloatType > ra = spectrum.randomAccess();
+
+			for ( int i = 0; i < positions.length; ++i )
+			{
+				ra.setPosition( positions[ i ] );
+				ra.get().set( i + 1, -i - 1 );
+			}
+
+			for ( int i = 0; i < positions.length; ++i )
+			{
+				ra.setPosition( positions[ i ] );
+				assertEquals( i + 1, ra.get().getRealFloat(), 0 );
+				assertEquals( -i - 1, ra.get().getImaginaryFloat(), 0 );
+			}
+
+			// the last pixel in iteration order
+			final Cursor< ComplexFloatType > cursor = spectrum.localizingCursor();
+			cursor.jumpFwd( spectrum.size() );
+			assertEquals( ( 1 << 15 ) - 1, cursor.getLongPosition( 0 ) );
+			assertEquals( 1 << 15, cursor.getLongPosition( 1 ) );
+			assertEquals( positions.length, cursor.get().getRealFloat(), 0 );
+		}
+		finally
+		{
+			spectrum.release();
+		}
+
+		assertTrue( spectrum.isReleased() );
+	}
+
+	@Test
+	public void testMultiplyDivideComplex() {
+
+		final Random r = new Random( 3 );
+		final ExecutorService service = Executors.newFixedThreadPool( 3 );
+
+		// float[] fast path for arrays and planes, cursors for cells and mixed layouts
+		@SuppressWarnings( "unchecked" )
+		final ImgFactory< ComplexFloatType >[][] layouts = new ImgFactory[][] {
+			{ new ArrayImgFactory<>( new ComplexFloatType() ), new ArrayImgFactory<>( new ComplexFloatType() ) },
+			{ new PlanarImgFactory<>( new ComplexFloatType() ), new PlanarImgFactory<>( new ComplexFloatType() ) },
+			{ new CellImgFactory<>( new ComplexFloatType(), 5 ), new CellImgFactory<>( new ComplexFloatType(), 5 ) },
+			{ new ArrayImgFactory<>( new ComplexFloatType() ), new PlanarImgFactory<>( new ComplexFloatType() ) } };
+
+		try
+		{
+			for ( final ImgFactory< ComplexFloatType >[] layout : layouts )
+			{
+				for ( final boolean div : new boolean[] { false, true } )
+				{
+					for ( final boolean inPlace : new boolean[] { true, false } )
+					{
+						// large enough for one task per thread, the tasks span several planes
+						final Img< ComplexFloatType > img = randomComplex( r, layout[ 0 ], 130, 97, 4 );
+						final Img< ComplexFloatType > kernel = randomComplex( r, layout[ 1 ], 130, 97, 4 );
+
+						final Img< ComplexFloatType > expected = img.copy();
+						FFTConvolution.multiplyDivideComplex( expected, kernel, div );
+
+						final Img< ComplexFloatType > out = inPlace ? img : layout[ 0 ].create( img );
+						FFTConvolution.multiplyDivideComplex( img, kernel, out, div, service );
+
+						final Cursor< ComplexFloatType > c1 = expected.cursor();
+						final Cursor< ComplexFloatType > c2 = out.cursor();
+
+						while ( c1.hasNext() )
+						{
+							c1.fwd();
+							c2.fwd();
+							assertEquals( c1.get().getRealFloat(), c2.get().getRealFloat(), 1e-4f );
+							assertEquals( c1.get().getImaginaryFloat(), c2.get().getImaginaryFloat(), 1e-4f );
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * The work is partitioned by the threads of the executor, small images
+	 * are not split into tiny tasks
+	 */
+	@Test
+	public void testNumTasks() {
+
+		final ExecutorService fixed = Executors.newFixedThreadPool( 3 );
+		final ExecutorService cached = Executors.newCachedThreadPool();
+		final long large = FFTConvolution.minPixelsPerTask * 100;
+
+		try
+		{
+			assertEquals( 3, FFTConvolution.numTasks( fixed, large ) );
+			assertEquals( 2, FFTConvolution.numTasks( fixed, FFTConvolution.minPixelsPerTask * 2 ) );
+			assertEquals( 1, FFTConvolution.numTasks( fixed, 100 ) );
+			assertEquals( 1, FFTConvolution.numTasks( fixed, 0 ) );
+
+			// long lines are not split
+			assertEquals( 2, FFTConvolution.numTasks( fixed, 2, large ) );
+
+			// an unbounded pool uses one thread per processor
+			assertEquals( Math.min( Runtime.getRuntime().availableProcessors(), 100 ), FFTConvolution.numTasks( cached, large ) );
+		}
+		finally
+		{
+			fixed.shutdown();
+			cached.shutdown();
+		}
+	}
+
+	protected static Img< ComplexFloatType > randomComplex( final Random r, final ImgFactory< ComplexFloatType > factory, final long... dimensions )
+	{
+		final Img< ComplexFloatType > img = factory.create( dimensions );
+
+		// away from zero to keep the division well-conditioned
+		for ( final ComplexFloatType t : img )
+			t.set( 0.5f + r.nextFloat(), r.nextFloat() - 0.5f );
+
+		return img;
+	}
+
 	protected void assertImagesEqual(Img<FloatType> img1, Img<FloatType> img2,
 			float delta)
 		{
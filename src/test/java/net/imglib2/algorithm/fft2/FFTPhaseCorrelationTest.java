@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.fft2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fft2.FFTPhaseCorrelation.Peak;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class FFTPhaseCorrelationTest {
+
+	@Test
+	public void testShifts() {
+
+		final Random r = new Random( 24 );
+		final Img< FloatType > image = ArrayImgs.floats( 70, 60 );
+
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		// three overlapping tiles, B and C are at ( 7, 5 ) and ( -4, 9 ) relative to A
+		final RandomAccessibleInterval< FloatType > tileA = Views.interval( image, new FinalInterval( new long[] { 20, 10 }, new long[] { 59, 39 } ) );
+		final RandomAccessibleInterval< FloatType > tileB = Views.interval( image, new FinalInterval( new long[] { 27, 15 }, new long[] { 66, 44 } ) );
+		final RandomAccessibleInterval< FloatType > tileC = Views.interval( image, new FinalInterval( new long[] { 16, 19 }, new long[] { 55, 48 } ) );
+
+		final FFTPhaseCorrelation< FloatType > pc = new FFTPhaseCorrelation< FloatType >( new FinalDimensions( 40, 30 ), new ArrayImgFactory<>( new ComplexFloatType() ), null );
+
+		final List< Peak > peaksAB = pc.correlate( tileA, tileB, 5 );
+		assertEquals( 5, peaksAB.size() );
+		assertArrayEquals( new long[] { 7, 5 }, peaksAB.get( 0 ).getShift() );
+
+		for ( int i = 1; i < peaksAB.size(); ++i )
+			assertTrue( peaksAB.get( i - 1 ).getValue() >= peaksAB.get( i ).getValue() );
+
+		// the spectrum of A is reused
+		final List< Peak > peaksAC = pc.correlate( tileA, tileC, 1 );
+		assertEquals( 1, peaksAC.size() );
+		assertArrayEquals( new long[] { -4, 9 }, peaksAC.get( 0 ).getShift() );
+		assertEquals( 3, pc.numCachedTiles() );
+
+		// and the other way round
+		assertArrayEquals( new long[] { 11, -4 }, pc.correlate( tileC, tileB, 1 ).get( 0 ).getShift() );
+		assertEquals( 3, pc.numCachedTiles() );
+
+		pc.release( tileA );
+		assertEquals( 2, pc.numCachedTiles() );
+
+		pc.clearCache();
+		assertEquals( 0, pc.numCachedTiles() );
+	}
+
+	@Test
+	public void testConcurrentTileFFT() throws Exception {
+
+		final Img< FloatType > image = ArrayImgs.floats( 40, 30 );
+		final Random r = new Random( 25 );
+
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final FFTPhaseCorrelation< FloatType > pc = new FFTPhaseCorrelation< FloatType >( new FinalDimensions( 40, 30 ), new OffHeapComplexFloatImgFactory(), null );
+
+		final ExecutorService service = Executors.newFixedThreadPool( 8 );
+		final ArrayList< Callable< Img< ComplexFloatType > > > tasks = new ArrayList< Callable< Img< ComplexFloatType > > >();
+
+		for ( int i = 0; i < 8; ++i )
+		{
+			tasks.add( new Callable< Img< ComplexFloatType > >()
+			{
+				@Override
+				public Img< ComplexFloatType > call()
+				{
+					return pc.getTileFFT( image );
+				}
+			} );
+		}
+
+		try
+		{
+			// every caller gets the one cached spectrum, the ones computed in
+			// vain are dropped
+			final Img< ComplexFloatType > cached = pc.getTileFFT( image );
+			pc.release( image );
+
+			final List< Future< Img< ComplexFloatType > > > results = service.invokeAll( tasks );
+			final Img< ComplexFloatType > first = results.get( 0 ).get();
+
+			for ( final Future< Img< ComplexFloatType > > result : results )
+				assertSame( first, result.get() );
+
+			assertEquals( 1, pc.numCachedTiles() );
+			assertFalse( ( ( OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg ) first ).isReleased() );
+			assertTrue( ( ( OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg ) cached ).isReleased() );
+		}
+		finally
+		{
+			service.shutdown();
+			pc.clearCache();
+		}
+	}
+
+	/**
+	 * Spectra released while they are correlated are freed afterwards, the
+	 * pairs are correlated concurrently with one workspace per caller
+	 */
+	@Test
+	public void testConcurrentCorrelation() throws Exception {
+
+		final Random r = new Random( 26 );
+		final Img< FloatType > image = ArrayImgs.floats( 70, 60 );
+
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final RandomAccessibleInterval< FloatType > tileA = Views.interval( image, new FinalInterval( new long[] { 20, 10 }, new long[] { 59, 39 } ) );
+		final RandomAccessibleInterval< FloatType > tileB = Views.interval( image, new FinalInterval( new long[] { 27, 15 }, new long[] { 66, 44 } ) );
+
+		final ExecutorService service = Executors.newFixedThreadPool( 4 );
+		final FFTPhaseCorrelation< FloatType > pc = new FFTPhaseCorrelation< FloatType >( new FinalDimensions( 40, 30 ), new OffHeapComplexFloatImgFactory(), service );
+
+		try
+		{
+			// a spectrum in use is freed by the last user
+			final FFTPhaseCorrelation.TileFFT inUse = pc.getTileFFT( tileA, service, true );
+			pc.release( tileA );
+
+			assertEquals( 0, pc.numCachedTiles() );
+			assertFalse( ( ( OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg ) inUse.fft ).isReleased() );
+
+			pc.endUse( inUse );
+			assertTrue( ( ( OffHeapComplexFloatImgFactory.OffHeapComplexFloatImg ) inUse.fft ).isReleased() );
+
+			// correlate and release the same tiles from several threads
+			final ExecutorService callers = Executors.newFixedThreadPool( 4 );
+			final ArrayList< Callable< long[] > > tasks = new ArrayList< Callable< long[] > >();
+
+			for ( int i = 0; i < 16; ++i )
+			{
+				tasks.add( new Callable< long[] >()
+				{
+					@Override
+					public long[] call()
+					{
+						final long[] shift = pc.correlate( tileA, tileB, 1 ).get( 0 ).getShift();
+						pc.release( tileA );
+						return shift;
+					}
+				} );
+			}
+
+			try
+			{
+				for ( final Future< long[] > result : callers.invokeAll( tasks ) )
+					assertArrayEquals( new long[] { 7, 5 }, result.get() );
+			}
+			finally
+			{
+				callers.shutdown();
+			}
+
+			assertTrue( pc.workspaces.size() >= 1 && pc.workspaces.size() <= 4 );
+		}
+		finally
+		{
+			pc.clearCache();
+			service.shutdown();
+		}
+
+		assertTrue( pc.workspaces.isEmpty() );
+	}
+}
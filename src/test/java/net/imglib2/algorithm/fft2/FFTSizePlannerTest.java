@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.fft2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class FFTSizePlannerTest {
+
+	@Test
+	public void testSupportedSizes() {
+
+		final FFTSizePlanner planner = new FFTSizePlanner();
+		planner.setMinBenchmarkNanos( 100000 );
+
+		for ( final int minSize : new int[] { 17, 100, 257, 1000 } )
+		{
+			final int real = planner.realSize( minSize, 2 );
+			final int complex = planner.complexSize( minSize, 2 );
+
+			// at most 25% larger than the size from the table
+			assertTrue( real >= minSize && real <= FftReal.nfftFast( minSize ) * 5 / 4 );
+			assertTrue( complex >= minSize && complex <= FftComplex.nfftFast( minSize ) * 5 / 4 );
+
+			assertEquals( real, FftReal.nfftSmall( real ) );
+			assertEquals( complex, FftComplex.nfftSmall( complex ) );
+		}
+	}
+
+	@Test
+	public void testCandidates() {
+
+		for ( final boolean real : new boolean[] { true, false } )
+		{
+			final int minSize = 1000;
+			final int fast = real ? FftReal.nfftFast( minSize ) : FftComplex.nfftFast( minSize );
+			final ArrayList< Integer > candidates = FFTSizePlanner.candidates( real, minSize, fast );
+
+			assertTrue( candidates.contains( fast ) );
+			assertTrue( candidates.size() <= FFTSizePlanner.maxCandidates );
+
+			// sizes beyond the one from the table are benchmarked as well
+			int larger = 0;
+			for ( final int n : candidates )
+			{
+				assertEquals( n, real ? FftReal.nfftSmall( n ) : FftComplex.nfftSmall( n ) );
+				assertTrue( n >= minSize && n <= fast * 5 / 4 );
+
+				if ( n > fast )
+					++larger;
+			}
+
+			assertTrue( larger > 0 );
+		}
+	}
+
+	@Test
+	public void testPersistence() throws IOException {
+
+		final File file = File.createTempFile( "fft-wisdom", ".properties" );
+		file.delete();
+
+		try
+		{
+			final FFTSizePlanner planner = new FFTSizePlanner( file );
+			planner.setMinBenchmarkNanos( 100000 );
+
+			final int size = planner.complexSize( 300, 3 );
+
+			assertTrue( file.exists() );
+
+			// a new planner must not benchmark again
+			final FFTSizePlanner loaded = new FFTSizePlanner( file )
+			{
+				@Override
+				protected int benchmark( final boolean real, final int minSize, final int numDimensions )
+				{
+					throw new IllegalStateException( "Size should have been loaded." );
+				}
+			};
+
+			assertEquals( size, loaded.complexSize( 300, 3 ) );
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testConvolutionWithPlanner() {
+
+		final Random r = new Random( 3 );
+
+		final Img< FloatType > image = ArrayImgs.floats( 61, 37 );
+		for ( final FloatType t : image )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 9, 7 );
+		for ( final FloatType t : kernel )
+			t.set( r.nextFloat() );
+
+		final Img< FloatType > expected = ArrayImgs.floats( 61, 37 );
+		new FFTConvolution< FloatType >( image, kernel, expected ).convolve();
+
+		final FFTSizePlanner planner = new FFTSizePlanner();
+		planner.setMinBenchmarkNanos( 100000 );
+
+		final Img< FloatType > result = ArrayImgs.floats( 61, 37 );
+		final FFTConvolution< FloatType > conv = new FFTConvolution< FloatType >( image, kernel, result );
+		conv.setKernelFFTCache( null );
+		conv.setFFTSizePlanner( planner );
+		conv.convolve();
+
+		final Cursor< FloatType > c1 = expected.cursor();
+		final Cursor< FloatType > c2 = result.cursor();
+
+		while ( c1.hasNext() )
+			assertEquals( c1.next().get(), c2.next().get(), 0.001f );
+	}
+}
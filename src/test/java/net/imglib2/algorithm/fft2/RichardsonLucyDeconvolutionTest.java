@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2023 Tobias Pietzsch, Stephan Preibisch, Stephan Saalfeld,
+ * John Bogovic, Albert Cardona, Barry DeZonia, Christian Dietz, Jan Funke,
+ * Aivar Grislis, Jonathan Hale, Grant Harris, Stefan Helfrich, Mark Hiner,
+ * Martin Horn, Steffen Jaensch, Lee Kamentsky, Larry Lindsey, Melissa Linkert,
+ * Mark Longair, Brian Northan, Nick Perry, Curtis Rueden, Johannes Schindelin,
+ * Jean-Yves Tinevez and Michael Zinsmaier.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.fft2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class RichardsonLucyDeconvolutionTest {
+
+	@Test
+	public void testDeconvolution() {
+
+		// a few points on a constant background
+		final Img< FloatType > truth = ArrayImgs.floats( 48, 40 );
+		for ( final FloatType t : truth )
+			t.set( 1 );
+
+		final RandomAccess< FloatType > ra = truth.randomAccess();
+		final int[][] points = new int[][] { { 12, 10 }, { 30, 25 }, { 20, 31 } };
+		for ( final int[] p : points )
+		{
+			ra.setPosition( p );
+			ra.get().set( 100 );
+		}
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 7, 7 );
+		double sum = 0;
+		final Cursor< FloatType > c = kernel.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			final double dx = c.getDoublePosition( 0 ) - 3;
+			final double dy = c.getDoublePosition( 1 ) - 3;
+			c.get().setReal( Math.exp( -( dx * dx + dy * dy ) / ( 2 * 1.2 * 1.2 ) ) );
+			sum += c.get().get();
+		}
+		for ( final FloatType t : kernel )
+			t.setReal( t.get() / sum );
+
+		final Img< FloatType > observed = blur( truth, kernel );
+
+		final RichardsonLucyDeconvolution< FloatType > rl = new RichardsonLucyDeconvolution< FloatType >( observed, kernel, new ArrayImgFactory<>( new ComplexFloatType() ), null );
+
+		final double residual = residual( blur( rl.getEstimate(), kernel ), observed );
+
+		rl.iterate( 20 );
+		assertEquals( 20, rl.getNumIterations() );
+
+		// the blurred estimate explains the observation better than before
+		assertTrue( residual( blur( rl.getEstimate(), kernel ), observed ) < residual / 5 );
+
+		// the points got sharper and nothing became negative
+		final RandomAccess< FloatType > re = rl.getEstimate().randomAccess();
+		final RandomAccess< FloatType > ro = observed.randomAccess();
+		for ( final int[] p : points )
+		{
+			re.setPosition( p );
+			ro.setPosition( p );
+			assertTrue( re.get().get() > 2 * ro.get().get() );
+		}
+
+		for ( final FloatType t : rl.getEstimate() )
+			assertTrue( t.get() >= 0 );
+	}
+
+	@Test
+	public void testConjugateCopy() {
+
+		final Img< FloatType > kernel = ArrayImgs.floats( 5, 4 );
+		float v = 0;
+		for ( final FloatType t : kernel )
+			t.set( ++v );
+
+		final ExecutorService service = Executors.newFixedThreadPool( 3 );
+		final ImgFactory< ComplexFloatType > factory = new CellImgFactory<>( new ComplexFloatType(), 5 );
+
+		try
+		{
+			final Interval kernelInterval = Intervals.createMinMax( -8, -6, 7, 5 );
+			final long[] min = new long[] { -2, -2 };
+			final long[] max = new long[] { 13, 9 };
+			final RandomAccessible< FloatType > extended = Views.extendZero( kernel );
+
+			final Img< ComplexFloatType > spectrum = FFTConvolution.computeKernelFFT( kernelInterval, min, max, false, extended, factory, service, null );
+			final Img< ComplexFloatType > expected = FFTConvolution.computeKernelFFT( kernelInterval, min, max, true, extended, factory, service, null );
+			final Img< ComplexFloatType > conjugate = RichardsonLucyDeconvolution.conjugateCopy( spectrum, factory, service );
+
+			final Cursor< ComplexFloatType > c1 = expected.cursor();
+			final Cursor< ComplexFloatType > c2 = conjugate.cursor();
+			while ( c1.hasNext() )
+			{
+				c1.fwd();
+				c2.fwd();
+				assertEquals( c1.get().getRealFloat(), c2.get().getRealFloat(), 0 );
+				assertEquals( c1.get().getImaginaryFloat(), c2.get().getImaginaryFloat(), 0 );
+			}
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	protected static Img< FloatType > blur( final Img< FloatType > img, final Img< FloatType > kernel )
+	{
+		final Img< FloatType > blurred = ArrayImgs.floats( img.dimension( 0 ), img.dimension( 1 ) );
+		new FFTConvolution< FloatType >( img, kernel, blurred ).convolve();
+
+		return blurred;
+	}
+
+	protected static double residual( final Img< FloatType > img1, final Img< FloatType > img2 )
+	{
+		final Cursor< FloatType > c1 = img1.cursor();
+		final Cursor< FloatType > c2 = img2.cursor();
+
+		double sum = 0;
+		while ( c1.hasNext() )
+		{
+			final double d = c1.next().get() - c2.next().get();
+			sum += d * d;
+		}
+
+		return sum;
+	}
+}
@@ -413,6 +413,20 @@ public class GaussianTest {
 
 	}
 
+	@Test
+	public final void testValAndGrad() {
+		double[] pos = new double[2];
+		double[] grad = new double[params.length];
+		for (int i = 0; i < X.length; i++) {
+			pos[0] = X[i];
+			pos[1] = Y[i];
+			assertEquals("Bad accuracy for x=" + pos[0]+", y="+pos[1]+" in combined value.", g.val(pos, params), g.valAndGrad(pos, params, grad), TOLERANCE);
+			for (int k = 0; k < params.length; k++) {
+				assertEquals("Bad accuracy for x=" + pos[0]+", y="+pos[1]+" in combined gradient " + k + ".", g.grad(pos, params, k), grad[k], TOLERANCE);
+			}
+		}
+	}
+
 	@Test 
 	public final void testHessian() {
 		double[] pos = new double[2];